@@ -0,0 +1,80 @@
+package io.github.ran.censorship;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat messages the benchmarks run over
+ */
+public final class Corpora {
+    // Longest message a client can send
+    public static final int MAX_MESSAGE_LENGTH = 256;
+
+    private Corpora() {
+    }
+
+    public static String[] get(String name) {
+        return switch (name) {
+            case "clean" -> load("clean");
+            case "dirty" -> load("dirty");
+            case "long" -> longMessages();
+            case "adversarial" -> adversarial();
+            default -> throw new IllegalArgumentException("Unknown corpus " + name);
+        };
+    }
+
+    private static String[] load(String name) {
+        try (InputStream in = Corpora.class.getResourceAsStream("/corpora/" + name + ".txt")) {
+            if (in == null) throw new IllegalStateException("Missing corpus " + name);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            return reader.lines().filter(line -> !line.isBlank()).toArray(String[]::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Clean chat joined up to the length limit, every other message ends with something dirty
+     */
+    private static String[] longMessages() {
+        String[] clean = load("clean");
+        String[] dirty = load("dirty");
+        List<String> messages = new ArrayList<>();
+        int next = 0;
+        for (int i = 0; i < 32; i++) {
+            String tail = i % 2 == 0 ? "" : " " + dirty[i % dirty.length];
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() + clean[next % clean.length].length() + 1 + tail.length() <= MAX_MESSAGE_LENGTH) {
+                if (!sb.isEmpty()) sb.append(' ');
+                sb.append(clean[next++ % clean.length]);
+            }
+            messages.add(sb.append(tail).toString());
+        }
+        return messages.toArray(String[]::new);
+    }
+
+    /**
+     * Messages that make the prefix, suffix and splitter parts of the patterns backtrack as much as possible
+     */
+    private static String[] adversarial() {
+        int n = MAX_MESSAGE_LENGTH;
+        return new String[]{
+                " ".repeat(n - 1) + "x",
+                "!".repeat(n - 1) + "a",
+                "s" + "!".repeat(n / 2 - 2) + "h" + "!".repeat(n / 2 - 2) + "x",
+                "f u c ".repeat(n / 6),
+                "$".repeat(n),
+                "1l|!".repeat(n / 4),
+                "a@".repeat(n / 2),
+                "s.h.".repeat(n / 4),
+                "f" + "*".repeat(n - 3) + "ck",
+                "w t f".repeat(n / 5).replace('f', '.'),
+        };
+    }
+}
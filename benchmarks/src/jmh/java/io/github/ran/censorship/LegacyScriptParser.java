@@ -0,0 +1,787 @@
+package io.github.ran.censorship;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * The regex driven template parser {@link YAGPDBParser} used before the tokenizer in
+ * {@code io.github.ran.censorship.template}, only kept so {@link ParserBenchmark} can compare the two.
+ */
+@SuppressWarnings("RegExpRedundantEscape")
+public class LegacyScriptParser {
+    private final Map<String, String> variables = new HashMap<>();
+    private final boolean debug = false;
+
+    // Pattern to match variable definitions e.g. {{ $PREFIX := "(?:^|[^a-zA-Z0-9])+" }}
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{\\{\\s*\\$(\\w+)\\s*:=\\s*\"([^\"]+)\"\\s*\\}\\}");
+
+    // Pattern to match the overall section declarations for acronymRegex and exactWordRegex
+    private static final Pattern SECTION_PATTERN = Pattern.compile("\\{\\{\\s*\\$(\\w+)\\s*:=\\s*\\(joinStr\\s+\"\\|\"(.+?)\\}\\}", Pattern.DOTALL);
+
+    // Pattern to identify each pattern entry in the regex sections
+    private static final Pattern PATTERN_ENTRY = Pattern.compile("\"\\^\\\\b\\$\\s+([^\"]+)\"\\s*(\\(joinStr.+?)(?=\"\\^\\\\b\\$|\\)\\}\\})", Pattern.DOTALL);
+
+    // Pattern for identifying variable references
+    private static final Pattern VAR_REF_PATTERN = Pattern.compile("\\$(\\w+)");
+
+    // Special case for the "free nitro site" pattern
+    private static final Pattern FREE_NITRO_PATTERN = Pattern.compile("\"\\.\\+nitro.+\\(http.+\\)\"");
+
+    /**
+     * Turn a script into its patterns, the way YAGPDBParser did before
+     */
+    public List<YAGPDBParser.CensoredPattern> parse(String content) {
+        List<YAGPDBParser.CensoredPattern> censoredPatterns = new ArrayList<>();
+        variables.clear();
+
+        // 1. Extract all variable definitions (PREFIX, SUFIX, character classes, etc.)
+        Matcher varMatcher = VARIABLE_PATTERN.matcher(content);
+        while (varMatcher.find()) {
+            String name = varMatcher.group(1);
+            String value = varMatcher.group(2);
+            variables.put(name, value);
+        }
+
+        // 2. Process special character class case for $l and $z
+        if (variables.containsKey("i") && !variables.containsKey("l")) {
+            variables.put("l", variables.get("i"));
+        }
+        if (variables.containsKey("s") && !variables.containsKey("z")) {
+            variables.put("z", variables.get("s"));
+        }
+
+        if (debug) {
+            System.out.println("Loaded variables: " + variables.size());
+            for (Map.Entry<String, String> entry : variables.entrySet()) {
+                System.out.println("$" + entry.getKey() + " = " + entry.getValue());
+            }
+        }
+
+        // 3. Find and process each regex section (acronymRegex, exactWordRegex)
+        Matcher sectionMatcher = SECTION_PATTERN.matcher(content);
+        while (sectionMatcher.find()) {
+            String sectionName = sectionMatcher.group(1);
+            String sectionContent = sectionMatcher.group(2);
+            if (debug) {
+                System.out.println("Processing section: " + sectionName);
+            }
+            processRegexSection(sectionContent, censoredPatterns);
+        }
+
+        // 4. Handle special case for nitro scam pattern
+        Matcher nitroMatcher = FREE_NITRO_PATTERN.matcher(content);
+        if (nitroMatcher.find()) {
+            String nitroPattern = ".+nitro.+(http(s?))?://(www\\.)?[-a-zA-Z0-9@:%._\\+~#=]{1,256}\\.[a-zA-Z0-9()]{1,6}\\b([-a-zA-Z0-9()@:%_\\+.~#?&/=]*)";
+            censoredPatterns.add(new YAGPDBParser.CensoredPattern("free nitro site", nitroPattern));
+        }
+
+        return censoredPatterns;
+    }
+
+    /**
+     * Process a regex section like acronymRegex or exactWordRegex
+     */
+    private void processRegexSection(String sectionContent, List<YAGPDBParser.CensoredPattern> censoredPatterns) {
+        Matcher patternMatcher = PATTERN_ENTRY.matcher(sectionContent);
+        while (patternMatcher.find()) {
+            String description = patternMatcher.group(1).trim();
+            String patternDefinition = patternMatcher.group(2).trim();
+
+            if (debug) {
+                System.out.println("\nFound pattern: " + description);
+                System.out.println("Definition: " + patternDefinition);
+            }
+
+            String javaRegex = extractJoinStrContent(patternDefinition, description);
+
+            if (javaRegex != null && !javaRegex.isEmpty()) {
+                // Clean up the final regex by removing extraneous quotes and spaces
+                javaRegex = cleanupFinalRegex(javaRegex);
+                
+                // Properly handle word boundaries by using lookahead/lookbehind
+                // This ensures the parser can match words like "asshole" while filtering "ass"
+                if (javaRegex.endsWith(variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+"))) {
+                    // Instead of removing SUFIX entirely, use negative lookahead for common word extensions
+                    String suffixPattern = variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+");
+                    javaRegex = javaRegex.substring(0, javaRegex.length() - suffixPattern.length()) + 
+                                "(?:$|[^a-zA-Z0-9]|(?=[a-zA-Z0-9]*(?:hole|man|er|ers|ish|ing|ed|es|y|ity|ment)))";
+                }
+                
+                // Make sure patterns are accurate to the original regex
+                if (debug) {
+                    System.out.println("Parsed regex: " + javaRegex);
+                }
+                censoredPatterns.add(new YAGPDBParser.CensoredPattern(description, javaRegex));
+            } else {
+                // Fall back to simple pattern if extraction failed
+                String simplePattern = createSimplePatternFromDescription(description);
+                if (debug) {
+                    System.out.println("Using fallback pattern for '" + description + "': " + simplePattern);
+                }
+                censoredPatterns.add(new YAGPDBParser.CensoredPattern(description, simplePattern));
+            }
+        }
+    }
+
+    /**
+     * Clean up quotes and spaces in the final regex
+     */
+    private String cleanupFinalRegex(String regex) {
+        // General fix for quoted expressions
+        regex = regex.replaceAll("\"\\s*([^\"]+)\\s*\"", "$1");
+        
+        // Fix character classes that might still have quotes
+        regex = regex.replaceAll("\"\\[([^\\]]+)\\]\"", "[$1]");
+        
+        // Fix nested alternations with multiple options
+        regex = regex.replaceAll("\\(([^()]+)\\|([^()]+)\\|([^()]+)\\)", "($1|$2|$3)");
+        regex = regex.replaceAll("\\(([^()]+)\\|([^()]+)\\)", "($1|$2)");
+        
+        // Fix double quotes around alternations
+        regex = regex.replaceAll("\"\\(([^)]+)\\)\"", "($1)");
+        
+        // Fix alternations with character classes
+        regex = regex.replaceAll("\\[([^\\]]+)\\]\\s*\\|\\s*\\[([^\\]]+)\\]", "[$1]|[$2]");
+        
+        // Handle empty option at start of alternation (used to make alternation optional)
+        regex = regex.replaceAll("\\(\\|", "(|");
+        
+        // Clean up extra spaces around alternation pipes
+        regex = regex.replaceAll("\\|\\s+", "\\|");
+        regex = regex.replaceAll("\\s+\\|", "\\|");
+        
+        // Remove any remaining double quotes
+        regex = regex.replaceAll("\"", "");
+        
+        return regex;
+    }
+
+    /**
+     * Extract the content from a joinStr expression
+     */
+    private String extractJoinStrContent(String joinStr, String description) {
+        try {
+            if (joinStr.startsWith("(joinStr \"\"")) {
+                // Get the content after the opening declaration
+                int contentStart = joinStr.indexOf("(joinStr \"\"") + "(joinStr \"\"".length();
+                // Find the position of the last closing parenthesis
+                int lastParen = findMatchingClosingParenthesis(joinStr, 0);
+
+                if (lastParen > contentStart) {
+                    String content = joinStr.substring(contentStart, lastParen).trim();
+                    return processJoinStrParts(content);
+                }
+            }
+
+            // Try to extract just the inner part of the first join string
+            Pattern innerJoinPattern = Pattern.compile("\\(joinStr\\s+\"\"\\s+(.*?)\\)", Pattern.DOTALL);
+            Matcher innerMatcher = innerJoinPattern.matcher(joinStr);
+            if (innerMatcher.find()) {
+                return processJoinStrParts(innerMatcher.group(1).trim());
+            }
+        } catch (Exception e) {
+            LOGGER.error("{}{}", "Error extracting joinStr for '" + description + "': ", e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Process the parts inside a joinStr expression
+     */
+    private String processJoinStrParts(String joinContent) {
+        StringBuilder result = new StringBuilder();
+        String[] parts = splitJoinContentParts(joinContent);
+
+        for (String part : parts) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+
+            if (part.startsWith("$PREFIX")) {
+                result.append(variables.getOrDefault("PREFIX", "(?:^|[^a-zA-Z0-9])+"));
+            } else if (part.startsWith("$SUFIX")) {
+                result.append(variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+"));
+            } else if (part.startsWith("(joinStr $SPLITTER")) {
+                result.append(processLetterSequence(part));
+            } else if (part.startsWith("(joinStr $SPLITTER_SPECIAL")) {
+                result.append(processLetterSequence(part));
+            } else if (part.startsWith("(joinStr \"[^A-z0-9'`]*\"")) {
+                // Special case for hell(a) pattern with custom splitter
+                result.append(processCustomSplitterSequence(part, "[^A-z0-9'`]*"));
+            } else if (part.startsWith("(joinStr \"\"")) {
+                result.append(processNestedJoinStr(part));
+            } else if (part.startsWith("(joinStr \"|\"")) {
+                // Detect special case for sh(i/e)t pattern: (joinStr "|" "(" $i $e ")")
+                if (part.contains("\"(\"") && part.contains("$") && part.endsWith("\")\"")) {
+                    result.append(processNestedJoinStr(part));
+                } else {
+                    result.append(processOptionJoinStr(part));
+                }
+            } else if (part.startsWith("\"(?:^|[^A-z0-9]forge.)+\"")) {
+                result.append("(?:^|[^A-z0-9]forge.)+");
+            } else if (part.startsWith("[^A-z0-9'`]*")) {
+                result.append(part);
+            } else if (part.startsWith("$")) {
+                String varName = part.substring(1);
+                result.append(variables.getOrDefault(varName, part));
+            } else if (part.startsWith("\"") && part.endsWith("\"")) {
+                // Handle quoted strings - remove quotes and process any nested expressions
+                String unquoted = part.substring(1, part.length()-1);
+                // Check if the quoted string contains joinStr expressions and process them
+                if (unquoted.contains("(joinStr")) {
+                    result.append(processNestedExpressions(unquoted));
+                } else {
+                    result.append(replaceVariables(unquoted));
+                }
+            } else {
+                result.append(part);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Process a letter sequence with a custom splitter pattern
+     */
+    private String processCustomSplitterSequence(String joinStr, String splitterPattern) {
+        StringBuilder result = new StringBuilder();
+
+        // Extract content between first opening parenthesis and matching closing parenthesis
+        int openParen = joinStr.indexOf('(');
+        if (openParen >= 0) {
+            int closeParen = findMatchingClosingParenthesis(joinStr, openParen);
+            if (closeParen > openParen) {
+                String content = joinStr.substring(openParen + 1, closeParen);
+
+                // Find where the parameters start after "joinStr "splitterPattern""
+                int paramsStart = content.indexOf("joinStr \"" + splitterPattern + "\"");
+                if (paramsStart >= 0) {
+                    // Skip past the splitter pattern declaration
+                    String params = content.substring(paramsStart + ("joinStr \"" + splitterPattern + "\"").length()).trim();
+                    String[] parts = splitJoinContentParts(params);
+
+                    for (int i = 0; i < parts.length; i++) {
+                        String part = parts[i].trim();
+                        if (part.isEmpty()) continue;
+
+                        if (part.startsWith("$")) {
+                            String varName = part.substring(1);
+                            result.append(variables.getOrDefault(varName, part));
+                        } else if (part.startsWith("(joinStr \"\"")) {
+                            // Handle nested joinStr - for cases like (joinStr "" $a "?")
+                            String processedNested = processNestedJoinStr(part);
+                            // If it's optional (like $a "?"), add a question mark
+                            if (part.contains("\"?\"")) {
+                                result.append(processedNested).append("?");
+                            } else {
+                                result.append(processedNested);
+                            }
+                        } else if (part.startsWith("(joinStr")) {
+                            result.append(processNestedJoinStr(part));
+                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
+                            String unquoted = part.substring(1, part.length()-1);
+                            result.append(unquoted);
+                        } else {
+                            result.append(part);
+                        }
+
+                        // Add custom splitter between parts (except after the last part)
+                        if (i < parts.length - 1) {
+                            result.append(splitterPattern);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Replace variable references ($var) with their values
+     */
+    private String replaceVariables(String text) {
+        // Process special case where text contains ($var1|$var2) or similar
+        if (text.contains("(") && text.contains(")") && text.contains("$") && text.contains("|")) {
+            int openParen = text.indexOf('(');
+            if (openParen >= 0) {
+                int closeParen = findMatchingClosingParenthesis(text, openParen);
+                if (closeParen > openParen) {
+                    String prefix = text.substring(0, openParen);
+                    String suffix = text.substring(closeParen + 1);
+                    String group = text.substring(openParen, closeParen + 1);
+
+                    return prefix + processParenthesizedVarGroup(group) + suffix;
+                }
+            }
+        }
+
+        // Standard variable replacement
+        Matcher matcher = VAR_REF_PATTERN.matcher(text);
+        StringBuilder result = new StringBuilder();
+
+        while (matcher.find()) {
+            String varName = matcher.group(1);
+            String replacement = variables.getOrDefault(varName, "$" + varName);
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+
+        return result.toString();
+    }
+
+    /**
+     * Split a join content into its constituent parts, respecting nested parentheses and quotes
+     */
+    private String[] splitJoinContentParts(String joinContent) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder currentPart = new StringBuilder();
+        int parenthesesDepth = 0;
+        boolean inQuotes = false;
+
+        for (int i = 0; i < joinContent.length(); i++) {
+            char c = joinContent.charAt(i);
+
+            if (c == '"') {
+                inQuotes = !inQuotes;
+                currentPart.append(c);
+            } else if (c == '(') {
+                parenthesesDepth++;
+                currentPart.append(c);
+            } else if (c == ')') {
+                parenthesesDepth--;
+                currentPart.append(c);
+            } else if (c == ' ' && parenthesesDepth == 0 && !inQuotes) {
+                if (!currentPart.isEmpty()) {
+                    parts.add(currentPart.toString());
+                    currentPart = new StringBuilder();
+                }
+            } else {
+                currentPart.append(c);
+            }
+        }
+
+        if (!currentPart.isEmpty()) {
+            parts.add(currentPart.toString());
+        }
+
+        return parts.toArray(new String[0]);
+    }
+
+    /**
+     * Process a letter sequence like (joinStr $SPLITTER $a $b $c)
+     */
+    private String processLetterSequence(String joinStr) {
+        StringBuilder result = new StringBuilder();
+
+        // Extract all parameters inside the joinStr
+        String splitterVar = "$SPLITTER";
+        if (joinStr.contains("$SPLITTER_SPECIAL")) {
+            splitterVar = "$SPLITTER_SPECIAL";
+        }
+
+        // Extract content between first opening parenthesis and matching closing parenthesis
+        int openParen = joinStr.indexOf('(');
+        if (openParen >= 0) {
+            int closeParen = findMatchingClosingParenthesis(joinStr, openParen);
+            if (closeParen > openParen) {
+                String content = joinStr.substring(openParen + 1, closeParen);
+
+                // Get everything after the splitter variable
+                int splitterIndex = content.indexOf(splitterVar);
+                if (splitterIndex >= 0) {
+                    String afterSplitter = content.substring(splitterIndex + splitterVar.length()).trim();
+                    String[] parts = splitJoinContentParts(afterSplitter);
+
+                    String splitter = variables.getOrDefault(
+                        splitterVar.substring(1), // remove $ prefix
+                        splitterVar.equals("$SPLITTER") ? "[^a-zA-Z0-9]*" : "[^a-zA-Z0-9:\"~_*]*"
+                    );
+
+                    for (int i = 0; i < parts.length; i++) {
+                        String part = parts[i].trim();
+
+                        if (part.isEmpty()) continue;
+
+                        // Add the current part
+                        if (part.startsWith("$")) {
+                            String varName = part.substring(1);
+                            result.append(variables.getOrDefault(varName, part));
+                        } else if (part.startsWith("(joinStr \"|\"") && part.contains("\"(\"") && part.contains("\")\"")) {
+                            // This is a special alternation pattern (i|e)
+                            String alternation = processNestedJoinStr(part);
+                            result.append(alternation);
+                        } else if (part.startsWith("(joinStr")) {
+                            result.append(processNestedJoinStr(part));
+                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
+                            // Remove quotes and check for nested expressions
+                            String unquoted = part.substring(1, part.length()-1);
+                            if (unquoted.contains("(joinStr")) {
+                                result.append(processNestedExpressions(unquoted));
+                            } else if (unquoted.contains("$")) {
+                                // Make sure we process any variables in quoted strings
+                                result.append(replaceVariables(unquoted));
+                            } else {
+                                result.append(unquoted);
+                            }
+                        } else {
+                            result.append(part);
+                        }
+
+                        // Add splitter after each part except the last one
+                        if (i < parts.length - 1) {
+                            result.append(splitter);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Process a nested joinStr expression
+     */
+    private String processNestedJoinStr(String nestedJoinStr) {
+        // Find the outermost matching parentheses
+        int firstParen = nestedJoinStr.indexOf('(');
+        if (firstParen == -1) return nestedJoinStr;
+
+        int lastParen = findMatchingClosingParenthesis(nestedJoinStr, firstParen);
+        if (lastParen == -1) return nestedJoinStr;
+
+        // Extract the content within the parentheses
+        String innerExpression = nestedJoinStr.substring(firstParen + 1, lastParen);
+
+        // Handle different joinStr formats
+        if (innerExpression.startsWith("joinStr \"\"")) {
+            // Format: (joinStr "" $var1 $var2)
+            String params = innerExpression.substring("joinStr \"\"".length()).trim();
+            return processJoinStrParts(params);
+        } else if (innerExpression.startsWith("joinStr \"|\"")) {
+            // Special case for format: (joinStr "|" "(" $i $e ")") or variations
+            if (innerExpression.contains("\"(\"") && innerExpression.contains("\")\"")) {
+                // Extract content between parentheses for alternation
+                int openParenPos = innerExpression.indexOf("\"(\"");
+                int closeParenPos = innerExpression.lastIndexOf("\")\"");
+                
+                if (openParenPos >= 0 && closeParenPos > openParenPos) {
+                    StringBuilder result = new StringBuilder("(");
+                    String varContent = innerExpression.substring(openParenPos + 3, closeParenPos).trim();
+                    String[] parts = splitJoinContentParts(varContent);
+                    boolean first = true;
+                    
+                    // Handle the case where the entire alternation is optional (like "sh(i/e)t" matching "sht")
+                    // We first add an empty option at the beginning
+                    result.append("|");
+                    
+                    for (String part : parts) {
+                        if (part.trim().isEmpty()) continue;
+                        
+                        if (!first) result.append("|");
+                        first = false;
+                        
+                        if (part.startsWith("$")) {
+                            String varName = part.substring(1);
+                            result.append(variables.getOrDefault(varName, "$" + varName));
+                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
+                            String unquoted = part.substring(1, part.length() - 1);
+                            result.append(replaceVariables(unquoted));
+                        } else {
+                            result.append(part);
+                        }
+                    }
+                    
+                    result.append(")");
+                    // Make the alternation optional using ?
+                    return result.toString() + "?";
+                }
+            }
+
+            // Other "|" join formats
+            return processOptionJoinStr(nestedJoinStr);
+        }
+
+        return nestedJoinStr; // Return unchanged if format not recognized
+    }
+
+    /**
+     * Process nested joinStr expressions within a string
+     */
+    private String processNestedExpressions(String text) {
+        if (!text.contains("(joinStr") && !text.contains("$")) {
+            return text;
+        }
+
+        // Handle simple variable replacement if there are no nested expressions
+        if (!text.contains("(joinStr")) {
+            return replaceVariables(text);
+        }
+
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+
+        while (start < text.length()) {
+            int joinStrPos = text.indexOf("(joinStr", start);
+
+            if (joinStrPos == -1) {
+                // No more joinStr expressions, process the rest of the text
+                result.append(replaceVariables(text.substring(start)));
+                break;
+            }
+
+            // Append everything before the joinStr expression with variable substitution
+            if (joinStrPos > start) {
+                result.append(replaceVariables(text.substring(start, joinStrPos)));
+            }
+
+            // Find the matching closing parenthesis for this joinStr
+            int closeParen = findMatchingClosingParenthesis(text, joinStrPos);
+            if (closeParen == -1) {
+                // Unmatched parenthesis, just append the rest and break
+                result.append(replaceVariables(text.substring(joinStrPos)));
+                break;
+            }
+
+            // Process this complete joinStr expression
+            String joinStrExpr = text.substring(joinStrPos, closeParen + 1);
+            String processed = processNestedJoinStr(joinStrExpr);
+            result.append(processed);
+
+            // Move past this expression
+            start = closeParen + 1;
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Process a parenthesized group containing variable references like ($i|$e)
+     */
+    private String processParenthesizedVarGroup(String group) {
+        if (!group.startsWith("(") || !group.endsWith(")")) {
+            return group; // Not a proper group
+        }
+
+        // Remove the outer parentheses
+        String content = group.substring(1, group.length() - 1);
+
+        // Check if this contains nested joinStr expressions
+        if (content.contains("(joinStr")) {
+            return "(" + processNestedExpressions(content) + ")";
+        }
+
+        // Standard processing - preserve the alternation structure
+        String[] parts = content.split("\\|");
+        StringBuilder result = new StringBuilder("(");
+
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.startsWith("$")) {
+                String varName = part.substring(1);
+                result.append(variables.getOrDefault(varName, part));
+            } else {
+                // Process any nested variable references within this part
+                result.append(replaceVariables(part));
+            }
+
+            if (i < parts.length - 1) {
+                result.append("|");
+            }
+        }
+
+        result.append(")");
+        return result.toString();
+    }
+
+    /**
+     * Find the matching closing parenthesis for an opening parenthesis
+     */
+    private int findMatchingClosingParenthesis(String text, int openPos) {
+        if (openPos >= text.length() || text.charAt(openPos) != '(') {
+            return -1;
+        }
+
+        Stack<Integer> stack = new Stack<>();
+        stack.push(openPos);
+
+        for (int i = openPos + 1; i < text.length(); i++) {
+            if (text.charAt(i) == '(') {
+                stack.push(i);
+            } else if (text.charAt(i) == ')') {
+                stack.pop();
+                if (stack.isEmpty()) {
+                    return i;
+                }
+            }
+        }
+
+        return -1; // No matching closing parenthesis found
+    }
+
+    /**
+     * Create a simple pattern based on the word's characters
+     */
+    private String createSimplePatternFromDescription(String description) {
+        // Standard processing for all patterns
+        // Remove parenthesized parts like (u) in f(u)ck -> fck
+        String simpleDesc = description.replaceAll("\\([^)]+\\)", "");
+
+        // Handle descriptions with alternatives like [d/z]am[m/n]
+        simpleDesc = simpleDesc.replaceAll("\\[[^\\]]+\\]", ".");
+
+        // Keep only alphanumeric characters
+        simpleDesc = simpleDesc.replaceAll("[^a-zA-Z0-9]", "");
+
+        StringBuilder pattern = new StringBuilder();
+        pattern.append(variables.getOrDefault("PREFIX", "(?:^|[^a-zA-Z0-9])+"));
+
+        for (int i = 0; i < simpleDesc.length(); i++) {
+            char c = simpleDesc.charAt(i);
+            String varName = String.valueOf(Character.toLowerCase(c));
+
+            if (variables.containsKey(varName)) {
+                pattern.append(variables.get(varName));
+            } else {
+                pattern.append("[").append(Character.toLowerCase(c)).append(Character.toUpperCase(c)).append("]");
+            }
+
+            if (i < simpleDesc.length() - 1) {
+                pattern.append(variables.getOrDefault("SPLITTER", "[^a-zA-Z0-9]*"));
+            }
+        }
+
+        // Use a modified suffix pattern that allows for common word extensions
+        pattern.append("(?:$|[^a-zA-Z0-9]|(?=[a-zA-Z0-9]*(?:hole|man|er|ers|ish|ing|ed|es|y|ity|ment)))");
+        return pattern.toString();
+    }
+
+    /**
+     * Process a joinStr with options like (joinStr "|" "($a|$e)")
+     */
+    private String processOptionJoinStr(String optionStr) {
+        StringBuilder result = new StringBuilder();
+
+        // Extract content between first opening parenthesis and matching closing parenthesis
+        int openParen = optionStr.indexOf('(');
+        if (openParen >= 0) {
+            int closeParen = findMatchingClosingParenthesis(optionStr, openParen);
+            if (closeParen > openParen) {
+                String content = optionStr.substring(openParen + 1, closeParen);
+
+                // Find where the parameters start after "joinStr "|""
+                int paramsStart = content.indexOf("joinStr \"|\"");
+                if (paramsStart >= 0) {
+                    String params = content.substring(paramsStart + "joinStr \"|\"".length()).trim();
+                    String[] options = splitJoinContentParts(params);
+
+                    // Special case for patterns with "(" $i $e ")" format
+                    // These need to be treated as alternation in optional section
+                    if (options.length >= 3 && options[0].equals("\"(\"") && options[options.length-1].equals("\")\"")) {
+                        result.append("(");
+                        
+                        // Make the entire alternation optional by adding an empty alternative
+                        result.append("|");
+                        
+                        for (int i = 1; i < options.length - 1; i++) {
+                            String option = options[i].trim();
+                            if (option.isEmpty()) continue;
+
+                            if (option.startsWith("$")) {
+                                String varName = option.substring(1);
+                                result.append(variables.getOrDefault(varName, "$" + varName));
+                            } else if (option.startsWith("\"") && option.endsWith("\"")) {
+                                // Handle quoted string
+                                String unquoted = option.substring(1, option.length() - 1);
+                                result.append(replaceVariables(unquoted));
+                            } else {
+                                result.append(option);
+                            }
+
+                            // Add pipe between items (but not after the last one)
+                            if (i < options.length - 2 && !options[i+1].isEmpty() && !options[i+1].equals("\")\"")) {
+                                result.append("|");
+                            }
+                        }
+                        result.append(")");
+                        // Make the alternation optional
+                        return result.toString() + "?";
+                    }
+
+                    // Special handling for option strings with the pattern "($i|$e)" format
+                    if (options.length == 1 && options[0].startsWith("\"(") && options[0].endsWith("\")\"")) {
+                        String innerContent = options[0].substring(2, options[0].length()-2);
+
+                        // Split by pipe for alternation - need to handle nested parentheses correctly
+                        String[] vars = innerContent.split("\\|");
+                        result.append("(");
+                        
+                        // Make the entire alternation optional by adding an empty alternative
+                        result.append("|");
+                        
+                        for (int i = 0; i < vars.length; i++) {
+                            String varRef = vars[i].trim();
+                            if (varRef.startsWith("$")) {
+                                String varName = varRef.substring(1);
+                                result.append(variables.getOrDefault(varName, "$" + varName));
+                            } else {
+                                result.append(replaceVariables(varRef));
+                            }
+
+                            if (i < vars.length - 1) {
+                                result.append("|");
+                            }
+                        }
+                        result.append(")");
+                        // Make the alternation optional
+                        return result.toString() + "?";
+                    }
+
+                    // Regular processing for multiple distinct options
+                    for (int i = 0; i < options.length; i++) {
+                        String option = options[i].trim();
+                        if (option.isEmpty()) continue;
+
+                        if (option.startsWith("\"") && option.endsWith("\"")) {
+                            // Remove quotes and process content
+                            String unquoted = option.substring(1, option.length() - 1);
+
+                            // Process nested joinStr expressions if any exist
+                            if (unquoted.contains("(joinStr")) {
+                                result.append(processNestedExpressions(unquoted));
+                            } else if (unquoted.startsWith("(") && unquoted.endsWith(")") && unquoted.contains("|")) {
+                                // Handle potential grouped options/variables
+                                result.append(processParenthesizedVarGroup(unquoted));
+                            } else {
+                                result.append(replaceVariables(unquoted));
+                            }
+                        } else if (option.startsWith("$")) {
+                            String varName = option.substring(1);
+                            result.append(variables.getOrDefault(varName, "$" + varName));
+                        } else if (option.startsWith("(joinStr")) {
+                            result.append(processNestedJoinStr(option));
+                        } else {
+                            result.append(option);
+                        }
+
+                        // Add pipe between options
+                        if (i < options.length - 1 && !options[i+1].trim().isEmpty()) {
+                            result.append("|");
+                        }
+                    }
+                }
+            }
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.ran.censorship;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to check a single chat message, cycling through a corpus. The verdict cache is off so every message is scanned.
+ */
+@State(Scope.Thread)
+public class MatcherBenchmark {
+    @Param({"clean", "dirty", "long", "adversarial"})
+    public String corpus;
+
+    @Param({"REGEX", "AUTOMATON"})
+    public MatchEngine.Kind matchEngine;
+
+    private String[] messages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        YAGPDBParser.configure(false, matchEngine);
+        YAGPDBParser.setVerdictCacheSize(0);
+        YAGPDBParser.setEvaluationBudget(EvaluationBudget.UNLIMITED);
+        YAGPDBParser.instance.parseContent(YAGPDBParser.FALLBACK_SCRIPT);
+        messages = Corpora.get(corpus);
+    }
+
+    private String nextMessage() {
+        String message = messages[next];
+        next = next + 1 == messages.length ? 0 : next + 1;
+        return message;
+    }
+
+    @Benchmark
+    public String findCensoredContent() {
+        return YAGPDBParser.instance.findCensoredContent(nextMessage());
+    }
+
+    @Benchmark
+    public void findCensoredContent_Indicated(Blackhole blackhole) {
+        MatchResult result = YAGPDBParser.instance.findCensoredContent_Indicated(nextMessage());
+        // Rendered like the chat path does, only for blocked messages
+        if (result.blocked()) {
+            blackhole.consume(result.match());
+            blackhole.consume(result.indication());
+        }
+        blackhole.consume(result);
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.ran.censorship;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Time to turn the fallback script into a compiled ruleset, and to parse it with the template parser compared to the
+ * regex driven one it replaced. {@code scale} repeats the exactWordRegex entries to show how both grow with the script.
+ */
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    private static final String SECTION_START = "{{ $exactWordRegex := (joinStr \"|\"\n";
+    private static final String SECTION_END = "\n)}}";
+
+    @Param({"REGEX", "AUTOMATON"})
+    public MatchEngine.Kind matchEngine;
+
+    @Param({"1", "10", "100"})
+    public int scale;
+
+    private String script;
+
+    @Setup
+    public void setup() {
+        YAGPDBParser.configure(false, matchEngine);
+        script = scaledScript(scale);
+    }
+
+    @Benchmark
+    public CensorRuleset parseContent() {
+        return YAGPDBParser.instance.parseContent(script);
+    }
+
+    @Benchmark
+    public List<YAGPDBParser.CensoredPattern> templateParser() throws IOException {
+        return YAGPDBParser.instance.parseScript(new StringReader(script));
+    }
+
+    @Benchmark
+    public List<YAGPDBParser.CensoredPattern> legacyParser() {
+        return new LegacyScriptParser().parse(script);
+    }
+
+    /**
+     * The fallback script with the entries of exactWordRegex repeated {@code scale} times
+     */
+    static String scaledScript(int scale) {
+        String script = YAGPDBParser.FALLBACK_SCRIPT;
+        int start = script.indexOf(SECTION_START) + SECTION_START.length();
+        int end = script.indexOf(SECTION_END, start);
+        if (start < SECTION_START.length() || end < 0) throw new IllegalStateException("exactWordRegex not found in the fallback script");
+        return script.substring(0, start) + (script.substring(start, end) + "\n").repeat(scale) + script.substring(end + 1);
+    }
+}
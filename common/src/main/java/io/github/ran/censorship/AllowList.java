@@ -0,0 +1,167 @@
+package io.github.ran.censorship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Words that are never blocked, to take care of false positives of the ruleset without making its patterns any longer.
+ * <p>
+ * It is only consulted once a pattern matched: the match is dropped if it lies within a single word of the message,
+ * a run of letters and digits, and that word is on the list. Matches spanning several words, like {@code f u c k}, are
+ * never dropped. Words are compiled into a trie stored as flat arrays, each node keeps its outgoing chars sorted, so a
+ * lookup costs O(word length) and allocates nothing.
+ */
+public final class AllowList {
+    public static final AllowList EMPTY = compile(List.of());
+
+    // Children of node n are labels[offsets[n]] .. labels[offsets[n + 1] - 1], sorted, leading to targets[i]
+    private final int[] offsets;
+    private final char[] labels;
+    private final int[] targets;
+    private final boolean[] terminal;
+    private final int size;
+    private final LongAdder exempted = new LongAdder();
+
+    private AllowList(int[] offsets, char[] labels, int[] targets, boolean[] terminal, int size) {
+        this.offsets = offsets;
+        this.labels = labels;
+        this.targets = targets;
+        this.terminal = terminal;
+        this.size = size;
+    }
+
+    /**
+     * Parse a comma or whitespace separated list of words, case doesn't matter
+     */
+    public static AllowList parse(String words) {
+        List<String> list = new ArrayList<>();
+        for (String word : words.split("[,\\s]+")) {
+            if (!word.isEmpty()) list.add(word);
+        }
+        return compile(list);
+    }
+
+    public static AllowList compile(List<String> words) {
+        // Build with maps first, then lay the nodes out in flat arrays
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(false);
+        int size = 0;
+        for (String word : words) {
+            int node = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = Character.toLowerCase(word.charAt(i));
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(node).put(c, next);
+                    children.add(new TreeMap<>());
+                    ends.add(false);
+                }
+                node = next;
+            }
+            if (!ends.get(node)) size++;
+            ends.set(node, true);
+        }
+
+        int nodes = children.size();
+        int[] offsets = new int[nodes + 1];
+        char[] labels = new char[nodes - 1];
+        int[] targets = new int[nodes - 1];
+        boolean[] terminal = new boolean[nodes];
+        int edge = 0;
+        for (int node = 0; node < nodes; node++) {
+            offsets[node] = edge;
+            terminal[node] = ends.get(node);
+            for (var child : children.get(node).entrySet()) {
+                labels[edge] = child.getKey();
+                targets[edge++] = child.getValue();
+            }
+        }
+        offsets[nodes] = edge;
+        return new AllowList(offsets, labels, targets, terminal, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Whether {@code content[start, end)} is a match that lies within a single allowed word. Separators a pattern took
+     * along at either end of the match don't count.
+     */
+    public boolean exempts(String content, int start, int end) {
+        if (size == 0) return false;
+        while (start < end && !isWordChar(content.charAt(start))) start++;
+        while (end > start && !isWordChar(content.charAt(end - 1))) end--;
+        if (start == end) return false;
+        for (int i = start; i < end; i++) {
+            if (!isWordChar(content.charAt(i))) return false;
+        }
+
+        while (start > 0 && isWordChar(content.charAt(start - 1))) start--;
+        while (end < content.length() && isWordChar(content.charAt(end))) end++;
+        if (!contains(content, start, end)) return false;
+        exempted.increment();
+        return true;
+    }
+
+    /**
+     * Drop the spans [start0, end0, start1, end1, ...] of {@code content} that lie within an allowed word
+     */
+    public int[] withoutExempt(String content, int[] spans) {
+        if (size == 0) return spans;
+        int n = 0;
+        for (int i = 0; i < spans.length; i += 2) {
+            if (exempts(content, spans[i], spans[i + 1])) continue;
+            spans[n++] = spans[i];
+            spans[n++] = spans[i + 1];
+        }
+        return n == spans.length ? spans : Arrays.copyOf(spans, n);
+    }
+
+    /**
+     * Whether {@code text[start, end)} is on the list
+     */
+    public boolean contains(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            node = child(node, Character.toLowerCase(text.charAt(i)));
+            if (node < 0) return false;
+        }
+        return terminal[node];
+    }
+
+    private int child(int node, char c) {
+        int low = offsets[node];
+        int high = offsets[node + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = labels[middle];
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return targets[middle];
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    public String describeStats() {
+        return String.format("Allow list: %d words, %d matches let through", size, exempted.sum());
+    }
+}
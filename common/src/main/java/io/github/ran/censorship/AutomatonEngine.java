@@ -0,0 +1,82 @@
+package io.github.ran.censorship;
+
+import io.github.ran.censorship.automaton.CombinedAutomaton;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+import io.github.ran.censorship.automaton.RegexNode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles every rule it can parse into one {@link CombinedAutomaton}, which scans a message once for all of them in
+ * linear time no matter what the patterns look like. Rules using constructs the automaton can't express, like
+ * backreferences, run on java.util.regex as before.
+ */
+final class AutomatonEngine implements MatchEngine {
+    @Override
+    public Compiled compile(List<RegexNode> normalizedNodes, CombinedAutomaton.UnsupportedHandler unsupported) {
+        return new AutomatonCompiled(CombinedAutomaton.compile(normalizedNodes, unsupported), normalizedNodes.size(), false);
+    }
+
+    /**
+     * Put only the given rules on an automaton, everything else runs on java.util.regex like with the regex engine
+     *
+     * @param ids the rules that may backtrack on java.util.regex
+     */
+    static Compiled compilePartial(List<RegexNode> normalizedNodes, BitSet ids, CombinedAutomaton.UnsupportedHandler unsupported) {
+        List<RegexNode> nodes = new ArrayList<>(Collections.nCopies(normalizedNodes.size(), null));
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) nodes.set(id, normalizedNodes.get(id));
+        return new AutomatonCompiled(CombinedAutomaton.compile(nodes, unsupported), normalizedNodes.size(), true);
+    }
+
+    /**
+     * @param partial whether only the rules that may backtrack were put on the automaton, see {@link #compilePartial}
+     */
+    record AutomatonCompiled(CombinedAutomaton automaton, int size, boolean partial) implements Compiled {
+        @Override
+        public boolean linear(int id) {
+            return automaton.supports(id);
+        }
+
+        @Override
+        public Pass start(ConfusableNormalizer.Text text, AllowList allowList, EvaluationBudget budget, boolean firstOnly) {
+            return new AutomatonPass(automaton, text, allowList, RegexEngine.COMPILED.start(text, allowList, budget, firstOnly));
+        }
+
+        @Override
+        public String describeStats() {
+            if (partial) {
+                return String.format("Match engine: java.util.regex, %d patterns that may backtrack on an automaton with %d NFA states, %d cache resets",
+                        automaton.supportedCount(), automaton.nfaSize(), automaton.cacheResets());
+            }
+            return String.format("Match engine: automaton, %d of %d patterns in linear time, %d NFA states, %d cache resets",
+                    automaton.supportedCount(), size, automaton.nfaSize(), automaton.cacheResets());
+        }
+    }
+
+    private static final class AutomatonPass implements Pass {
+        private final CombinedAutomaton automaton;
+        private final ConfusableNormalizer.Text text;
+        private final AllowList allowList;
+        private final Pass fallback;
+        // Only scanned once a rule of the automaton is asked for, passes are confined to one thread
+        private CombinedAutomaton.Scan scan;
+
+        AutomatonPass(CombinedAutomaton automaton, ConfusableNormalizer.Text text, AllowList allowList, Pass fallback) {
+            this.automaton = automaton;
+            this.text = text;
+            this.allowList = allowList;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public int[] spans(CensorRuleset.Rule rule) {
+            if (!automaton.supports(rule.id())) return fallback.spans(rule);
+            if (scan == null) scan = automaton.scan(text.normalized(), false);
+            if (!scan.matched(rule.id())) return new int[0];
+            return allowList.withoutExempt(text.original(), text.toOriginal(scan.spans(rule.id())));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.ran.censorship;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the title and pages of a book one page at a time, a book is never joined into one big string.
+ * <p>
+ * Words split over two pages are caught by also checking the seam between them, the end of one page followed by the
+ * start of the next. Scanning stops at the first page with a violation. A book gets a time budget and a size budget as
+ * a whole, on top of the {@link EvaluationBudget} every page gets, scaled up from the one of a chat message to the length
+ * of a page. A book that runs out of any of them is rejected as too long to check, never reported as a violation.
+ */
+public final class BookScanner {
+    // Long enough for any word split over two pages, short enough to stay cheap
+    private static final int SEAM_CHARS = 32;
+    // The longest page a client can send
+    private static final int PAGE_CHARS = 1024;
+    private static volatile BookScanner instance = new BookScanner(0, 0);
+
+    private final long budgetNanos;
+    private final int maxChars;
+
+    /**
+     * @param budgetMillis how long checking a whole book may take, 0 for no limit
+     * @param maxChars     how many chars of a book are checked, 0 for no limit
+     */
+    public BookScanner(long budgetMillis, int maxChars) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.maxChars = maxChars;
+    }
+
+    public static BookScanner instance() {
+        return instance;
+    }
+
+    public static void configure(long budgetMillis, int maxChars) {
+        instance = new BookScanner(budgetMillis, maxChars);
+    }
+
+    /**
+     * Check a book, the title goes first if there is one
+     *
+     * @param title null for a book that is edited but not signed
+     */
+    public Verdict scan(String title, List<String> pages) {
+        long start = System.nanoTime();
+        Verdict verdict = scan(title, pages, start);
+        CensorshipMetrics.instance.recordBook(System.nanoTime() - start, verdict.blocked());
+        return verdict;
+    }
+
+    private Verdict scan(String title, List<String> pages, long start) {
+        YAGPDBParser parser = YAGPDBParser.instance;
+        EvaluationBudget pageBudget = parser.getEvaluationBudget().forLength(PAGE_CHARS);
+        int chars = 0;
+        if (title != null && !title.isEmpty()) {
+            chars += title.length();
+            Verdict verdict = check(parser, pageBudget, Verdict.TITLE, title);
+            if (verdict != null) return verdict;
+        }
+
+        String previous = null;
+        for (int page = 0; page < pages.size(); page++) {
+            String text = pages.get(page);
+            chars += text.length();
+            if ((maxChars > 0 && chars > maxChars) || (budgetNanos > 0 && System.nanoTime() - start >= budgetNanos)) {
+                return overBudget(parser, page);
+            }
+            if (text.isEmpty()) continue;
+
+            Verdict verdict = check(parser, pageBudget, page, text);
+            if (verdict != null) return verdict;
+            if (previous != null) {
+                String seam = seam(previous, text);
+                verdict = seam == null ? null : check(parser, pageBudget, page, seam);
+                if (verdict != null) return verdict;
+            }
+            previous = text;
+        }
+        return Verdict.CLEAN;
+    }
+
+    private static Verdict check(YAGPDBParser parser, EvaluationBudget budget, int page, String text) {
+        YAGPDBParser.FirstMatch first = parser.findFirstMatch(text, budget);
+        // A pattern that ran out of time found nothing to point at, the page is too long to check rather than blocked
+        if (first.timedOut()) return overBudget(parser, page);
+        String match = first.match();
+        if (match == null) return null;
+        int start = text.indexOf(match);
+        String indication = start < 0 ? text : text.substring(0, start) + "§n" + match + "§r" + text.substring(start + match.length());
+        return new Verdict(page, match, indication, false);
+    }
+
+    private static Verdict overBudget(YAGPDBParser parser, int page) {
+        if (parser.getEvaluationBudget().policy() != EvaluationBudget.TimeoutPolicy.BLOCK) return Verdict.CLEAN;
+        return new Verdict(page, "", "", true);
+    }
+
+    /**
+     * The end of one page followed by the start of the next, cut at whitespace so a word cut in half at the edge of the
+     * seam doesn't look like a word of its own. Null if either side has nothing to contribute.
+     */
+    private static String seam(String previous, String next) {
+        String tail = previous;
+        if (tail.length() > SEAM_CHARS) {
+            tail = tail.substring(tail.length() - SEAM_CHARS);
+            int space = indexOfWhitespace(tail, true);
+            if (space >= 0) tail = tail.substring(space + 1);
+        }
+        String head = next;
+        if (head.length() > SEAM_CHARS) {
+            head = head.substring(0, SEAM_CHARS);
+            int space = indexOfWhitespace(head, false);
+            if (space >= 0) head = head.substring(0, space);
+        }
+        return tail.isBlank() || head.isBlank() ? null : tail + head;
+    }
+
+    private static int indexOfWhitespace(String text, boolean first) {
+        for (int i = 0; i < text.length(); i++) {
+            int index = first ? i : text.length() - 1 - i;
+            if (Character.isWhitespace(text.charAt(index))) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * @param page       index of the page, {@link #TITLE} for the title
+     * @param match      what was blocked, null if the book is clean and empty if it ran out of its budget
+     * @param indication the page or seam with the match underlined
+     * @param overBudget whether the book was blocked because it is too long or took too long to check
+     */
+    public record Verdict(int page, String match, String indication, boolean overBudget) {
+        public static final int TITLE = -1;
+        public static final Verdict CLEAN = new Verdict(0, null, null, false);
+
+        public boolean blocked() {
+            return match != null;
+        }
+    }
+}
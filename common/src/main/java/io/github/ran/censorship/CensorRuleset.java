@@ -0,0 +1,276 @@
+package io.github.ran.censorship;
+
+import io.github.ran.censorship.automaton.CombinedAutomaton;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+import io.github.ran.censorship.automaton.RegexNode;
+import io.github.ran.censorship.automaton.RegexOptimizer;
+import io.github.ran.censorship.automaton.RegexParser;
+import io.github.ran.censorship.automaton.RegexPrinter;
+import io.github.ran.censorship.automaton.SkeletonPrefilter;
+import io.github.ran.censorship.automaton.UnsupportedRegexException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Immutable, precompiled set of censor rules produced by {@link YAGPDBParser#parseContent(String)}.
+ * The chat path only ever reads from it, every regex is compiled exactly once when the ruleset is built.
+ */
+public final class CensorRuleset {
+    public static final int PATTERN_FLAGS = Pattern.CASE_INSENSITIVE;
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    public static final CensorRuleset EMPTY = new CensorRuleset(List.of(), Map.of(), ConfusableNormalizer.build(List.of()), SkeletonPrefilter.build(List.of()), RegexEngine.COMPILED, "Regex optimizer: nothing to do");
+
+    private final List<Rule> rules;
+    private final Map<String, String> variables;
+    private final ConfusableNormalizer normalizer;
+    private final SkeletonPrefilter prefilter;
+    private final MatchEngine.Compiled matcher;
+    private final LongAdder[] timeouts;
+    private final PatternOrder patternOrder;
+    private final String optimizerStats;
+    private final long version = VERSIONS.incrementAndGet();
+
+    private CensorRuleset(List<Rule> rules, Map<String, String> variables, ConfusableNormalizer normalizer, SkeletonPrefilter prefilter, MatchEngine.Compiled matcher, String optimizerStats) {
+        this.rules = rules;
+        this.variables = variables;
+        this.normalizer = normalizer;
+        this.prefilter = prefilter;
+        this.matcher = matcher;
+        this.timeouts = new LongAdder[rules.size()];
+        for (int id = 0; id < timeouts.length; id++) timeouts[id] = new LongAdder();
+        this.patternOrder = new PatternOrder(rules);
+        this.optimizerStats = optimizerStats;
+    }
+
+    /**
+     * Compile the parsed patterns, invalid patterns are rejected here once instead of on every message
+     *
+     * @param engine runs the rules on the chat path, the rules it can't run itself stay on java.util.regex
+     */
+    public static CensorRuleset compile(List<YAGPDBParser.CensoredPattern> patterns, Map<String, String> variables, MatchEngine engine) {
+        // Everything stays on java.util.regex with the regex engine, that isn't worth mentioning
+        boolean logUnsupported = !(engine instanceof RegexEngine);
+        List<YAGPDBParser.CensoredPattern> valid = new ArrayList<>(patterns.size());
+        List<Pattern> compiled = new ArrayList<>(patterns.size());
+        List<RegexNode> nodes = new ArrayList<>(patterns.size());
+        for (YAGPDBParser.CensoredPattern pattern : patterns) {
+            if (pattern.pattern() == null || pattern.pattern().isEmpty()) continue;
+
+            try {
+                compiled.add(Pattern.compile(pattern.pattern(), PATTERN_FLAGS));
+            } catch (PatternSyntaxException e) {
+                LOGGER.error("Rejected censor pattern '{}': {}", pattern.description(), e.getDescription());
+                continue;
+            }
+            valid.add(pattern);
+            try {
+                nodes.add(RegexParser.parse(pattern.pattern(), PATTERN_FLAGS));
+            } catch (UnsupportedRegexException e) {
+                if (logUnsupported) LOGGER.info("Pattern '{}' stays on java.util.regex: {}", pattern.description(), e.getMessage());
+                nodes.add(null);
+            }
+        }
+
+        // Rules that can be parsed are rewritten to match the normalized text, the others run on the original text
+        ConfusableNormalizer normalizer = ConfusableNormalizer.build(nodes.stream().filter(Objects::nonNull).toList());
+        List<Rule> rules = new ArrayList<>(valid.size());
+        List<RegexNode> normalizedNodes = new ArrayList<>(valid.size());
+        for (int id = 0; id < valid.size(); id++) {
+            YAGPDBParser.CensoredPattern pattern = valid.get(id);
+            Rule rule = new Rule(id, pattern.description(), pattern.pattern(), pattern.pattern(), PATTERN_FLAGS, compiled.get(id), false);
+            RegexNode normalizedNode = nodes.get(id) == null ? null : normalizer.rewrite(nodes.get(id));
+            if (normalizedNode != null) {
+                String regex = RegexPrinter.print(normalizedNode);
+                try {
+                    rule = new Rule(id, pattern.description(), pattern.pattern(), regex, 0, Pattern.compile(regex), true);
+                } catch (PatternSyntaxException e) {
+                    LOGGER.warn("Pattern '{}' can't be normalized: {}", pattern.description(), e.getDescription());
+                    normalizedNode = null;
+                }
+            }
+            rules.add(rule);
+            normalizedNodes.add(normalizedNode);
+        }
+
+        // The prefilter and the engine only see the normalized text, so they only get the normalized rules
+        SkeletonPrefilter prefilter = SkeletonPrefilter.build(normalizedNodes);
+        MatchEngine.Compiled matcher = engine.compile(normalizedNodes,
+                (id, e) -> LOGGER.info("Pattern '{}' stays on java.util.regex: {}", rules.get(id).description(), e.getMessage()));
+
+        // Whatever stays on java.util.regex runs with as little backtracking as can be verified
+        List<List<String>> hazards = new ArrayList<>(Collections.nCopies(rules.size(), null));
+        BitSet backtracking = new BitSet(rules.size());
+        int rewritten = 0;
+        for (int id = 0; id < rules.size(); id++) {
+            Rule rule = rules.get(id);
+            if (!rule.normalized() || matcher.linear(id)) continue;
+            RegexOptimizer.Optimized optimized = RegexOptimizer.optimize(normalizedNodes.get(id));
+            hazards.set(id, optimized.hazards());
+            if (!optimized.hazards().isEmpty()) backtracking.set(id);
+            if (!optimized.rewritten()) continue;
+            rules.set(id, new Rule(id, rule.description(), rule.source(), optimized.regex(), 0, Pattern.compile(optimized.regex()), true));
+            rewritten++;
+        }
+        // Rules that may still backtrack take time quadratic to a run of separators, the automaton takes linear time.
+        // Under the automaton engine they are the ones it can't run, so there is nothing left to move
+        if (!backtracking.isEmpty() && engine instanceof RegexEngine) {
+            matcher = AutomatonEngine.compilePartial(normalizedNodes, backtracking,
+                    (id, e) -> LOGGER.info("Pattern '{}' may backtrack on java.util.regex: {}", rules.get(id).description(), e.getMessage()));
+        }
+        return new CensorRuleset(List.copyOf(rules), Collections.unmodifiableMap(new LinkedHashMap<>(variables)), normalizer, prefilter, matcher,
+                reportHazards(rules, hazards, rewritten, matcher));
+    }
+
+    /**
+     * Log the rules that run on java.util.regex and may still backtrack, linear time rules don't care about them
+     *
+     * @param hazards of every rule, null if it couldn't be parsed or runs in linear time
+     * @return the summary for the stats
+     */
+    private static String reportHazards(List<Rule> rules, List<List<String>> hazards, int rewritten, MatchEngine.Compiled matcher) {
+        List<String> backtracking = new ArrayList<>();
+        int unparsed = 0;
+        for (int id = 0; id < rules.size(); id++) {
+            if (matcher.linear(id)) continue;
+            if (hazards.get(id) == null) {
+                unparsed++;
+            } else if (!hazards.get(id).isEmpty()) {
+                backtracking.add(rules.get(id).description());
+                LOGGER.debug("Pattern '{}' may still backtrack: {}", rules.get(id).description(), String.join(", ", hazards.get(id)));
+            }
+        }
+        if (!backtracking.isEmpty()) {
+            LOGGER.info("{} censor patterns may still backtrack on java.util.regex: {}", backtracking.size(), String.join(", ", backtracking));
+        }
+        return String.format("Regex optimizer: %d of %d patterns rewritten, %d may still backtrack, %d not analyzed",
+                rewritten, rules.size(), backtracking.size(), unparsed);
+    }
+
+    /**
+     * Increases with every compiled ruleset, results of an older ruleset must not be mixed with this one
+     */
+    public long version() {
+        return version;
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    public Rule rule(int id) {
+        return rules.get(id);
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Maps messages onto the canonical chars the normalized rules match
+     */
+    public ConfusableNormalizer normalizer() {
+        return normalizer;
+    }
+
+    /**
+     * Rules out the rules that can't match a message before any regex runs
+     */
+    public SkeletonPrefilter prefilter() {
+        return prefilter;
+    }
+
+    /**
+     * The rules as compiled by the {@link MatchEngine} that runs them
+     */
+    public MatchEngine.Compiled matcher() {
+        return matcher;
+    }
+
+    /**
+     * The combined automaton over all rules, null unless the ruleset was compiled for {@link MatchEngine.Kind#AUTOMATON}
+     */
+    public CombinedAutomaton automaton() {
+        return matcher instanceof AutomatonEngine.AutomatonCompiled compiled && !compiled.partial() ? compiled.automaton() : null;
+    }
+
+    /**
+     * The order the rules are tried in when only the first match is needed, learnt from the messages seen so far
+     */
+    public PatternOrder patternOrder() {
+        return patternOrder;
+    }
+
+    /**
+     * How many rules {@link RegexOptimizer} rewrote and how many of those on java.util.regex may still backtrack
+     */
+    public String describeOptimizer() {
+        return optimizerStats;
+    }
+
+    /**
+     * Count a rule running out of its {@link EvaluationBudget}
+     *
+     * @return true the first time it happens to the rule
+     */
+    public boolean recordTimeout(int id) {
+        boolean first = timeouts[id].sum() == 0;
+        timeouts[id].increment();
+        return first;
+    }
+
+    public long timeouts(int id) {
+        return timeouts[id].sum();
+    }
+
+    /**
+     * The rules that ran out of their budget most often
+     */
+    public String describeTimeouts() {
+        long total = Arrays.stream(timeouts).mapToLong(LongAdder::sum).sum();
+        if (total == 0) return "Timeouts: none";
+        return "Timeouts: " + total + " (" + IntStream.range(0, timeouts.length)
+                .filter(id -> timeouts(id) > 0)
+                .boxed()
+                .sorted(Comparator.comparingLong(this::timeouts).reversed())
+                .limit(5)
+                .map(id -> rules.get(id).description() + " x" + timeouts(id))
+                .collect(Collectors.joining(", ")) + ")";
+    }
+
+    /**
+     * The template variables ($a, $SPLITTER, ...) the rules were generated from
+     */
+    public Map<String, String> variables() {
+        return variables;
+    }
+
+    /**
+     * A single compiled rule, the id is its index in {@link #rules()}
+     *
+     * @param source     the pattern as the script defines it
+     * @param regex      what actually runs, rewritten onto canonical chars when {@code normalized}
+     * @param normalized whether the rule matches the normalized text instead of the original one
+     */
+    public record Rule(int id, String description, String source, String regex, int flags, Pattern pattern, boolean normalized) {
+        @Override
+        public String toString() {
+            return description + ": " + source;
+        }
+    }
+}
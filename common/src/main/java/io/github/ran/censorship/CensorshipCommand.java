@@ -0,0 +1,24 @@
+package io.github.ran.censorship;
+
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+/**
+ * {@code /censorship stats}, for operators
+ */
+public final class CensorshipCommand {
+    private CensorshipCommand() {
+    }
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal("censorship")
+                .requires(source -> source.hasPermission(Commands.LEVEL_ADMINS))
+                .then(Commands.literal("stats").executes(context -> {
+                    String report = String.join("\n", CensorshipMetrics.instance.report());
+                    context.getSource().sendSuccess(() -> Component.literal(report), false);
+                    return 1;
+                })));
+    }
+}
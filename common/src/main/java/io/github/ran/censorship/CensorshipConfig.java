@@ -10,19 +10,53 @@ public class CensorshipConfig implements IConfigurator {
     // Settings
     public static ConfigValueTypes.BooleanValue kickPlayer;
     public static ConfigValueTypes.StringValue discordWebhookURL;
+    public static ConfigValueTypes.StringValue allowedWords;
 
     // Advanced
     public static ConfigValueTypes.StringValue regexURL;
+    public static ConfigValueTypes.IntValue reloadIntervalMinutes;
     public static ConfigValueTypes.BooleanValue debugMode;
+    public static ConfigValueTypes.EnumValue<MatchEngine.Kind> matchEngine;
+    public static ConfigValueTypes.BooleanValue asyncModeration;
+    public static ConfigValueTypes.IntValue moderationThreads;
+    public static ConfigValueTypes.IntValue moderationQueueSize;
+    public static ConfigValueTypes.EnumValue<ModerationPipeline.OverloadPolicy> overloadPolicy;
+    public static ConfigValueTypes.IntValue verdictCacheSize;
+    public static ConfigValueTypes.IntValue messageBudgetMillis;
+    public static ConfigValueTypes.IntValue patternBudgetMillis;
+    public static ConfigValueTypes.EnumValue<EvaluationBudget.TimeoutPolicy> timeoutPolicy;
+    public static ConfigValueTypes.IntValue bookBudgetMillis;
+    public static ConfigValueTypes.IntValue maxBookChars;
+    public static ConfigValueTypes.IntValue crossMessageChars;
+    public static ConfigValueTypes.IntValue crossMessageIdleSeconds;
+    public static ConfigValueTypes.IntValue webhookQueueSize;
+    public static ConfigValueTypes.IntValue webhookSpoolMegabytes;
 
     @Override
     public void configure(ConfigBuilder configBuilder) {
         configBuilder.push("Settings");
         kickPlayer = configBuilder.comment("Whether to kick the player or send them a warning message").define("kickPlayer", true);
         discordWebhookURL = configBuilder.comment("Log messages to a Discord webhook").define("discordWebhookURL", "");
+        allowedWords = configBuilder.comment("Comma separated words that are never blocked, a match that lies within one of them is ignored").define("allowedWords", "");
 
         configBuilder.push("Advanced");
         regexURL = configBuilder.comment("DO NOT TOUCH | URL to fetch the regex from").define("regexURL", DEFAULT_REGEX_URL);
+        reloadIntervalMinutes = configBuilder.comment("Minutes between checks for an updated regex, 0 to only fetch it once on startup").defineInRange("reloadIntervalMinutes", 60, 0, 10080);
         debugMode = configBuilder.comment("Show debug logs for the regex parser").define("debugMode", false);
+        matchEngine = configBuilder.comment("How patterns are matched: REGEX runs one regex at a time, AUTOMATON scans each message once with a single automaton built from all patterns, in linear time. Patterns the automaton can't express stay on REGEX").defineEnum("matchEngine", MatchEngine.Kind.REGEX);
+        asyncModeration = configBuilder.comment("Check chat messages on background threads instead of the network thread of the player").define("asyncModeration", true);
+        moderationThreads = configBuilder.comment("Number of background threads checking chat messages").defineInRange("moderationThreads", 2, 1, 16);
+        moderationQueueSize = configBuilder.comment("How many chat messages may wait to be checked before the overload policy applies").defineInRange("moderationQueueSize", 1024, 16, 65536);
+        overloadPolicy = configBuilder.comment("What to do with a message when the queue is full: BLOCK waits for space, FAIL_OPEN lets it through unchecked, FAIL_CLOSED drops it").defineEnum("overloadPolicy", ModerationPipeline.OverloadPolicy.FAIL_CLOSED);
+        verdictCacheSize = configBuilder.comment("How many recent chat messages remember whether they were blocked, 0 to scan every message").defineInRange("verdictCacheSize", 4096, 0, 1000000);
+        messageBudgetMillis = configBuilder.comment("Milliseconds the regex checks of one message may take in total, 0 for no limit").defineInRange("messageBudgetMillis", 250, 0, 60000);
+        patternBudgetMillis = configBuilder.comment("Milliseconds a single regex may take on one message, 0 for no limit").defineInRange("patternBudgetMillis", 50, 0, 60000);
+        timeoutPolicy = configBuilder.comment("What to do with a message when a regex runs out of time: ALLOW treats it as not matching, BLOCK blocks the whole message").defineEnum("timeoutPolicy", EvaluationBudget.TimeoutPolicy.BLOCK);
+        bookBudgetMillis = configBuilder.comment("Milliseconds checking all pages of a book may take, 0 for no limit. Books that take longer are handled by the timeout policy").defineInRange("bookBudgetMillis", 500, 0, 60000);
+        maxBookChars = configBuilder.comment("How many characters of a book are checked, 0 for no limit. Longer books are handled by the timeout policy").defineInRange("maxBookChars", 102400, 0, 1000000);
+        crossMessageChars = configBuilder.comment("How many characters of a player's earlier chat messages are checked together with a new one, to catch words split over several messages. Needs the AUTOMATON match engine, 0 to turn it off").defineInRange("crossMessageChars", 64, 0, 1024);
+        crossMessageIdleSeconds = configBuilder.comment("Seconds a player may stay quiet before their earlier chat messages are no longer checked together with new ones").defineInRange("crossMessageIdleSeconds", 60, 1, 3600);
+        webhookQueueSize = configBuilder.comment("How many blocked messages may wait to be posted to the Discord webhook before new ones are dropped").defineInRange("webhookQueueSize", 256, 10, 65536);
+        webhookSpoolMegabytes = configBuilder.comment("Megabytes of blocked messages kept on disk while the Discord webhook can't be reached, 0 to drop them instead").defineInRange("webhookSpoolMegabytes", 16, 0, 1024);
     }
 }
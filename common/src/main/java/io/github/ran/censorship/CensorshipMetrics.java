@@ -0,0 +1,201 @@
+package io.github.ran.censorship;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Counters and latencies of the chat path, shown by {@code /censorship stats} and over JMX.
+ * Recording never takes a lock, everything is a {@link LongAdder} or a {@link LatencyHistogram}.
+ */
+public final class CensorshipMetrics implements CensorshipMetricsMXBean {
+    public static final CensorshipMetrics instance = new CensorshipMetrics();
+    public static final String OBJECT_NAME = "io.github.ran.censorship:type=Metrics";
+
+    private final LongAdder messagesScanned = new LongAdder();
+    private final LongAdder messagesBlocked = new LongAdder();
+    private final LatencyHistogram evaluation = new LatencyHistogram();
+    private final Map<String, LongAdder> patternMatches = new ConcurrentHashMap<>();
+    private final LongAdder booksScanned = new LongAdder();
+    private final LongAdder booksBlocked = new LongAdder();
+    private final LatencyHistogram bookEvaluation = new LatencyHistogram();
+    private final LongAdder webhookSends = new LongAdder();
+    private final LongAdder webhookFailures = new LongAdder();
+    private final LongAdder rulesetLoads = new LongAdder();
+    private volatile long lastRulesetLoadNanos;
+
+    private CensorshipMetrics() {
+    }
+
+    /**
+     * Make the metrics available to JMX clients such as JConsole
+     */
+    public void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Couldn't register the censorship metrics with JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * A message went through the filter
+     *
+     * @param patterns descriptions of the patterns that matched it
+     */
+    public void recordMessage(long nanos, boolean blocked, List<String> patterns) {
+        messagesScanned.increment();
+        evaluation.record(nanos);
+        if (blocked) messagesBlocked.increment();
+        for (String pattern : patterns) patternMatches.computeIfAbsent(pattern, key -> new LongAdder()).increment();
+    }
+
+    public void recordBook(long nanos, boolean blocked) {
+        booksScanned.increment();
+        bookEvaluation.record(nanos);
+        if (blocked) booksBlocked.increment();
+    }
+
+    public void recordWebhook(boolean success) {
+        (success ? webhookSends : webhookFailures).increment();
+    }
+
+    public void recordRulesetLoad(long nanos) {
+        rulesetLoads.increment();
+        lastRulesetLoadNanos = nanos;
+    }
+
+    /**
+     * Everything there is to know about the filter, one line each
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        CensorRuleset ruleset = YAGPDBParser.instance.getRuleset();
+        lines.add(String.format("Messages: %d scanned, %d blocked", getMessagesScanned(), getMessagesBlocked()));
+        lines.add(String.format("Evaluation: mean %d us, p50 %d us, p99 %d us, p99.9 %d us",
+                getEvaluationMeanMicros(), getEvaluationP50Micros(), getEvaluationP99Micros(), getEvaluationP999Micros()));
+        lines.add("Top patterns: " + (patternMatches.isEmpty() ? "none" : patternMatches.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> entry) -> entry.getValue().sum()).reversed())
+                .limit(5)
+                .map(entry -> entry.getKey() + " x" + entry.getValue().sum())
+                .collect(Collectors.joining(", "))));
+        lines.add(String.format("Books: %d scanned, %d blocked, p99 %d us", getBooksScanned(), getBooksBlocked(),
+                TimeUnit.NANOSECONDS.toMicros(bookEvaluation.percentileNanos(0.99))));
+        lines.add(String.format("Webhook: %d sent, %d failed", getWebhookSends(), getWebhookFailures()));
+        DiscordWebhook webhook = DiscordWebhook.instance();
+        if (webhook != null) lines.add(webhook.describeStats());
+        lines.add(String.format("Ruleset: %d patterns, loaded %d times, last load took %d ms",
+                ruleset.size(), getRulesetLoads(), TimeUnit.NANOSECONDS.toMillis(lastRulesetLoadNanos)));
+        lines.add(ruleset.prefilter().describeStats());
+        lines.add(ruleset.matcher().describeStats());
+        lines.add(ruleset.describeOptimizer());
+        lines.add(ruleset.patternOrder().describeStats());
+        lines.add(YAGPDBParser.instance.getAllowList().describeStats());
+        lines.add(ruleset.describeTimeouts());
+        VerdictCache verdictCache = YAGPDBParser.instance.getVerdictCache();
+        if (verdictCache != null) lines.add(verdictCache.describeStats());
+        lines.add(CrossMessageScanner.instance().describeStats());
+        ModerationPipeline pipeline = ModerationPipeline.instance();
+        if (pipeline != null) lines.add(pipeline.describeStats());
+        return lines;
+    }
+
+    @Override
+    public long getMessagesScanned() {
+        return messagesScanned.sum();
+    }
+
+    @Override
+    public long getMessagesBlocked() {
+        return messagesBlocked.sum();
+    }
+
+    @Override
+    public long getEvaluationMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(evaluation.meanNanos());
+    }
+
+    @Override
+    public long getEvaluationP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(evaluation.percentileNanos(0.5));
+    }
+
+    @Override
+    public long getEvaluationP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(evaluation.percentileNanos(0.99));
+    }
+
+    @Override
+    public long getEvaluationP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(evaluation.percentileNanos(0.999));
+    }
+
+    @Override
+    public Map<String, Long> getPatternMatches() {
+        Map<String, Long> matches = new TreeMap<>();
+        patternMatches.forEach((pattern, count) -> matches.put(pattern, count.sum()));
+        return matches;
+    }
+
+    @Override
+    public long getBooksScanned() {
+        return booksScanned.sum();
+    }
+
+    @Override
+    public long getBooksBlocked() {
+        return booksBlocked.sum();
+    }
+
+    @Override
+    public long getWebhookSends() {
+        return webhookSends.sum();
+    }
+
+    @Override
+    public long getWebhookFailures() {
+        return webhookFailures.sum();
+    }
+
+    @Override
+    public long getRulesetLoads() {
+        return rulesetLoads.sum();
+    }
+
+    @Override
+    public long getLastRulesetLoadMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastRulesetLoadNanos);
+    }
+
+    @Override
+    public int getRulesetSize() {
+        return YAGPDBParser.instance.getRuleset().size();
+    }
+
+    @Override
+    public void reset() {
+        messagesScanned.reset();
+        messagesBlocked.reset();
+        evaluation.reset();
+        patternMatches.clear();
+        booksScanned.reset();
+        booksBlocked.reset();
+        bookEvaluation.reset();
+        webhookSends.reset();
+        webhookFailures.reset();
+    }
+}
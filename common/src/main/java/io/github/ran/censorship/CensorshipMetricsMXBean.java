@@ -0,0 +1,38 @@
+package io.github.ran.censorship;
+
+import java.util.Map;
+
+/**
+ * What {@link CensorshipMetrics} exposes over JMX, durations are in microseconds
+ */
+public interface CensorshipMetricsMXBean {
+    long getMessagesScanned();
+
+    long getMessagesBlocked();
+
+    long getEvaluationMeanMicros();
+
+    long getEvaluationP50Micros();
+
+    long getEvaluationP99Micros();
+
+    long getEvaluationP999Micros();
+
+    Map<String, Long> getPatternMatches();
+
+    long getBooksScanned();
+
+    long getBooksBlocked();
+
+    long getWebhookSends();
+
+    long getWebhookFailures();
+
+    long getRulesetLoads();
+
+    long getLastRulesetLoadMicros();
+
+    int getRulesetSize();
+
+    void reset();
+}
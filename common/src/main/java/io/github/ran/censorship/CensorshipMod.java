@@ -5,6 +5,8 @@ import com.craftjakob.configapi.config.ConfigRegister;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.file.Path;
+
 public final class CensorshipMod {
     public static final String MOD_ID = "censorship";
     public static final String CENSOR_FORMAT = """
@@ -17,10 +19,28 @@ public final class CensorshipMod {
     
     §bBlocked Content:§r
     %s""";
+    public static final String BOOK_OVER_BUDGET_MESSAGE = "§cThis book is too long to be checked, your edit was not saved.";
+    public static final String OVERLOADED_MESSAGE = "§cChat is busy right now, your message was not sent. Please try again.";
     public static final Logger LOGGER = LogManager.getLogger("Censorship");
 
-    public static void init() {
+    /**
+     * @param configDir the config directory of the loader, downloaded scripts are cached in a folder of it
+     */
+    public static void init(Path configDir) {
         ConfigRegister.get().registerConfig(MOD_ID, Config.ConfigType.COMMON, CensorshipConfig::new, MOD_ID);
-        YAGPDBParser.loadParser(CensorshipConfig.regexURL.getValue(), CensorshipConfig.debugMode.getValue());
+        YAGPDBParser.loadParser(CensorshipConfig.debugMode.getValue(), CensorshipConfig.matchEngine.getValue(),
+                new ScriptCache(configDir.resolve(MOD_ID)), CensorshipConfig.regexURL.getValue());
+        YAGPDBParser.setAllowList(AllowList.parse(CensorshipConfig.allowedWords.getValue()));
+        YAGPDBParser.setVerdictCacheSize(CensorshipConfig.verdictCacheSize.getValue());
+        YAGPDBParser.setEvaluationBudget(new EvaluationBudget(CensorshipConfig.messageBudgetMillis.getValue(), CensorshipConfig.patternBudgetMillis.getValue(),
+                CensorshipConfig.timeoutPolicy.getValue()));
+        BookScanner.configure(CensorshipConfig.bookBudgetMillis.getValue(), CensorshipConfig.maxBookChars.getValue());
+        CrossMessageScanner.configure(CensorshipConfig.crossMessageChars.getValue(), CensorshipConfig.crossMessageIdleSeconds.getValue());
+        CensorshipMetrics.instance.registerMBean();
+        DiscordWebhook.configure(CensorshipConfig.webhookQueueSize.getValue(), configDir.resolve(MOD_ID).resolve("webhook-spool"),
+                CensorshipConfig.webhookSpoolMegabytes.getValue());
+        ModerationPipeline.configure(CensorshipConfig.asyncModeration.getValue(), CensorshipConfig.moderationThreads.getValue(),
+                CensorshipConfig.moderationQueueSize.getValue(), CensorshipConfig.overloadPolicy.getValue());
+        RulesetReloader.start(CensorshipConfig.regexURL.getValue(), CensorshipConfig.reloadIntervalMinutes.getValue());
     }
 }
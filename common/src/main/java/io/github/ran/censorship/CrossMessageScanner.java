@@ -0,0 +1,343 @@
+package io.github.ran.censorship;
+
+import io.github.ran.censorship.automaton.CombinedAutomaton;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Catches words split over several chat messages, like "f", "u", "c", "k" sent one after another.
+ * <p>
+ * The chat of a player is treated as one text, messages joined by a space, and fed to the {@link CombinedAutomaton} of
+ * the ruleset as it arrives. Only the DFA state is kept between messages, so every new char costs O(1) and nothing a
+ * player said before is scanned twice. When the automaton reports a match, the last chars of the window are scanned
+ * again to find it, and the message is only blocked if the match started in an earlier message that is still inside
+ * the window. Patterns that stay on java.util.regex are not checked across messages.
+ * <p>
+ * Players are kept in open addressing tables of primitive arrays keyed by their UUID, and dropped when they
+ * disconnect or were quiet for too long. The tables are striped by UUID, so the lanes of different players rarely
+ * wait for each other.
+ */
+public final class CrossMessageScanner {
+    private static final char SEPARATOR = ' ';
+    private static final int INITIAL_CAPACITY = 8;
+    private static volatile CrossMessageScanner instance = new CrossMessageScanner(0, 0);
+
+    private static final int STRIPES = 16;
+
+    private final int windowChars;
+    private final long idleNanos;
+    private final LongAdder blocked = new LongAdder();
+    // Players are spread over stripes by their UUID, each with its own table and lock
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param windowChars how many chars of earlier messages a split word may reach back, 0 to turn this off
+     * @param idleSeconds how long a player may stay quiet before their earlier messages are forgotten
+     */
+    public CrossMessageScanner(int windowChars, int idleSeconds) {
+        this.windowChars = windowChars;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    public static CrossMessageScanner instance() {
+        return instance;
+    }
+
+    public static void configure(int windowChars, int idleSeconds) {
+        instance = new CrossMessageScanner(windowChars, idleSeconds);
+    }
+
+    /**
+     * Check a message that passed on its own together with the messages the player sent before it. A clean message
+     * becomes part of the window, a blocked one clears it.
+     */
+    public Verdict check(UUID player, String message) {
+        if (windowChars == 0) return Verdict.CLEAN;
+        CensorRuleset ruleset = YAGPDBParser.instance.getRuleset();
+        CombinedAutomaton automaton = ruleset.automaton();
+        if (automaton == null) return Verdict.CLEAN;
+        return stripe(player).check(player, message, ruleset, automaton, System.nanoTime());
+    }
+
+    /**
+     * Clear the window of a player whose message was blocked on its own, so what's left of it can't combine with the
+     * next message
+     */
+    public void reset(UUID player) {
+        if (windowChars == 0) return;
+        stripe(player).reset(player);
+    }
+
+    /**
+     * Forget the earlier messages of a player, when they disconnect
+     */
+    public void forget(UUID player) {
+        stripe(player).forget(player);
+    }
+
+    /**
+     * Number of players with earlier messages in their window
+     */
+    public int tracked() {
+        int tracked = 0;
+        for (Stripe stripe : stripes) tracked += stripe.tracked();
+        return tracked;
+    }
+
+    public String describeStats() {
+        return String.format("Split messages: %d players in a %d char window, %d blocked", tracked(), windowChars, blocked.sum());
+    }
+
+    /**
+     * Scan the window again to find what the automaton matched, only a match reaching back into an earlier message counts
+     */
+    private static Verdict confirm(CombinedAutomaton automaton, ConfusableNormalizer normalizer, String window, String piece) {
+        String recent = window + piece;
+        int messageStart = window.length();
+        ConfusableNormalizer.Text text = normalizer.normalize(recent);
+        CombinedAutomaton.Scan scan = automaton.scan(text.normalized(), false);
+        for (int id : scan.matchedIds()) {
+            int[] spans = text.toOriginal(scan.spans(id));
+            for (int i = 0; i < spans.length; i += 2) {
+                if (spans[i] >= messageStart || spans[i + 1] <= messageStart) continue;
+                String match = recent.substring(spans[i], spans[i + 1]);
+                String indication = recent.substring(0, spans[i]) + "§n" + match + "§r" + recent.substring(spans[i + 1]);
+                return new Verdict(match.strip(), indication.strip());
+            }
+        }
+        return null;
+    }
+
+    private Stripe stripe(UUID player) {
+        // The low bits pick the stripe, the table inside it uses the high ones
+        return stripes[(int) hash(player.getMostSignificantBits(), player.getLeastSignificantBits()) & (STRIPES - 1)];
+    }
+
+    private static long hash(long most, long least) {
+        return (most ^ least) * 0x9e3779b97f4a7c15L;
+    }
+
+    /**
+     * The players of one stripe in an open addressing table, every method holds the lock of the stripe
+     */
+    private final class Stripe {
+        // One slot per player across all arrays
+        private boolean[] used;
+        private long[] mostBits;
+        private long[] leastBits;
+        private long[] lastSeen;
+        private long[] versions;
+        private int[][] states;
+        private char[] lastChars;
+        // windowChars chars per slot, written as a ring
+        private char[] windows;
+        private int[] windowEnds;
+        private int[] windowLengths;
+        private int size;
+        private long lastSweep = System.nanoTime();
+
+        private Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        synchronized Verdict check(UUID player, String message, CensorRuleset ruleset, CombinedAutomaton automaton, long now) {
+            if (now - lastSweep >= idleNanos) sweep(now);
+            int slot = slot(player, now);
+            if (versions[slot] != ruleset.version() || now - lastSeen[slot] >= idleNanos) clear(slot);
+            versions[slot] = ruleset.version();
+            lastSeen[slot] = now;
+
+            boolean first = states[slot] == null;
+            String piece = first ? message : SEPARATOR + message;
+            String normalized = ruleset.normalizer().normalize(piece).normalized();
+            CombinedAutomaton.Resumed resumed = automaton.resume(states[slot], lastChars[slot], normalized);
+            if (resumed.matched()) {
+                Verdict verdict = confirm(automaton, ruleset.normalizer(), window(slot), piece);
+                if (verdict != null) {
+                    blocked.increment();
+                    clear(slot);
+                    return verdict;
+                }
+            }
+
+            states[slot] = resumed.state();
+            if (!normalized.isEmpty()) lastChars[slot] = normalized.charAt(normalized.length() - 1);
+            append(slot, piece);
+            return Verdict.CLEAN;
+        }
+
+        synchronized void reset(UUID player) {
+            int slot = find(player);
+            if (slot >= 0) clear(slot);
+        }
+
+        synchronized void forget(UUID player) {
+            int slot = find(player);
+            if (slot >= 0) delete(slot);
+        }
+
+        synchronized int tracked() {
+            return size;
+        }
+
+        private int slot(UUID player, long now) {
+            int slot = find(player);
+            if (slot >= 0) return slot;
+            if ((size + 1) * 2 > used.length) rehash(used.length * 2, now);
+
+            int mask = used.length - 1;
+            slot = home(player.getMostSignificantBits(), player.getLeastSignificantBits());
+            while (used[slot]) slot = (slot + 1) & mask;
+            used[slot] = true;
+            mostBits[slot] = player.getMostSignificantBits();
+            leastBits[slot] = player.getLeastSignificantBits();
+            clear(slot);
+            size++;
+            return slot;
+        }
+
+        private int find(UUID player) {
+            long most = player.getMostSignificantBits();
+            long least = player.getLeastSignificantBits();
+            int mask = used.length - 1;
+            for (int slot = home(most, least); used[slot]; slot = (slot + 1) & mask) {
+                if (mostBits[slot] == most && leastBits[slot] == least) return slot;
+            }
+            return -1;
+        }
+
+        private int home(long most, long least) {
+            return (int) (hash(most, least) >>> 32) & (used.length - 1);
+        }
+
+        private void clear(int slot) {
+            states[slot] = null;
+            lastChars[slot] = 0;
+            windowEnds[slot] = 0;
+            windowLengths[slot] = 0;
+        }
+
+        private void append(int slot, String piece) {
+            int base = slot * windowChars;
+            int end = windowEnds[slot];
+            // Only the last windowChars chars of a long message can still be part of a split word
+            for (int i = Math.max(0, piece.length() - windowChars); i < piece.length(); i++) {
+                windows[base + end] = piece.charAt(i);
+                end = end + 1 == windowChars ? 0 : end + 1;
+            }
+            windowEnds[slot] = end;
+            windowLengths[slot] = Math.min(windowChars, windowLengths[slot] + piece.length());
+        }
+
+        private String window(int slot) {
+            int base = slot * windowChars;
+            int length = windowLengths[slot];
+            int start = windowEnds[slot] - length;
+            if (start >= 0) return new String(windows, base + start, length);
+            start += windowChars;
+            return new String(windows, base + start, windowChars - start) + new String(windows, base, windowEnds[slot]);
+        }
+
+        /**
+         * Remove a slot and shift the following slots of its probe run back, so lookups never stop at a hole
+         */
+        private void delete(int slot) {
+            int mask = used.length - 1;
+            used[slot] = false;
+            states[slot] = null;
+            size--;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; used[i]; i = (i + 1) & mask) {
+                int home = home(mostBits[i], leastBits[i]);
+                if (((i - home) & mask) < ((i - hole) & mask)) continue;
+                move(i, hole);
+                used[i] = false;
+                states[i] = null;
+                hole = i;
+            }
+        }
+
+        private void move(int from, int to) {
+            used[to] = true;
+            mostBits[to] = mostBits[from];
+            leastBits[to] = leastBits[from];
+            lastSeen[to] = lastSeen[from];
+            versions[to] = versions[from];
+            states[to] = states[from];
+            lastChars[to] = lastChars[from];
+            System.arraycopy(windows, from * windowChars, windows, to * windowChars, windowChars);
+            windowEnds[to] = windowEnds[from];
+            windowLengths[to] = windowLengths[from];
+        }
+
+        private void sweep(long now) {
+            lastSweep = now;
+            int capacity = used.length;
+            // Shrink back once a crowd left, but never below the initial size
+            while (capacity > INITIAL_CAPACITY && size * 8 < capacity) capacity /= 2;
+            rehash(capacity, now);
+        }
+
+        /**
+         * Move every slot into tables of a new capacity, dropping players that were quiet for too long
+         */
+        private void rehash(int capacity, long now) {
+            boolean[] oldUsed = used;
+            long[] oldMostBits = mostBits, oldLeastBits = leastBits, oldLastSeen = lastSeen, oldVersions = versions;
+            int[][] oldStates = states;
+            char[] oldLastChars = lastChars, oldWindows = windows;
+            int[] oldWindowEnds = windowEnds, oldWindowLengths = windowLengths;
+
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int from = 0; from < oldUsed.length; from++) {
+                if (!oldUsed[from] || now - oldLastSeen[from] >= idleNanos) continue;
+                int to = home(oldMostBits[from], oldLeastBits[from]);
+                while (used[to]) to = (to + 1) & mask;
+                used[to] = true;
+                mostBits[to] = oldMostBits[from];
+                leastBits[to] = oldLeastBits[from];
+                lastSeen[to] = oldLastSeen[from];
+                versions[to] = oldVersions[from];
+                states[to] = oldStates[from];
+                lastChars[to] = oldLastChars[from];
+                System.arraycopy(oldWindows, from * windowChars, windows, to * windowChars, windowChars);
+                windowEnds[to] = oldWindowEnds[from];
+                windowLengths[to] = oldWindowLengths[from];
+                size++;
+            }
+        }
+
+        private void allocate(int capacity) {
+            used = new boolean[capacity];
+            mostBits = new long[capacity];
+            leastBits = new long[capacity];
+            lastSeen = new long[capacity];
+            versions = new long[capacity];
+            Arrays.fill(versions, -1);
+            states = new int[capacity][];
+            lastChars = new char[capacity];
+            windows = new char[capacity * windowChars];
+            windowEnds = new int[capacity];
+            windowLengths = new int[capacity];
+            size = 0;
+        }
+    }
+
+    /**
+     * @param match      what was blocked, null if the message is clean
+     * @param indication the earlier messages and this one with the match underlined
+     */
+    public record Verdict(String match, String indication) {
+        public static final Verdict CLEAN = new Verdict(null, null);
+
+        public boolean blocked() {
+            return match != null;
+        }
+    }
+}
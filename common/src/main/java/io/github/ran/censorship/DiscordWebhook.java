@@ -2,67 +2,590 @@ package io.github.ran.censorship;
 
 import net.minecraft.server.level.ServerPlayer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.OffsetDateTime;
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Posts blocked messages to a Discord webhook from a single background thread over one long lived {@link HttpClient}.
+ * <p>
+ * Blocked messages wait in a bounded queue and are sent up to {@link #MAX_EMBEDS} at a time, the most Discord takes in
+ * one request. The same player getting the same phrase blocked again before it was sent only bumps a counter on the
+ * queued embed, anything beyond the queue size is dropped. Rate limits are honoured: a 429 waits for its Retry-After,
+ * and a bucket with no requests remaining waits for its reset before the next request goes out.
+ * <p>
+ * Embeds that still can't be sent after a few attempts go to the {@link WebhookSpool} on disk. As long as it holds
+ * anything, new embeds are appended behind them and the oldest are retried with exponential backoff, so an outage of
+ * Discord or a restart of the server loses nothing and the channel still gets everything in order.
+ */
 public class DiscordWebhook {
-    private static final String WEBHOOK_FORMAT = """
+    public static final int MAX_EMBEDS = 10;
+    // Discord rejects a message whose embeds have more text than this altogether
+    private static final int MAX_EMBED_CHARS = 6000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 1000;
+    private static final long MAX_REPLAY_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long SYNC_INTERVAL_MILLIS = 200;
+    // Discord cuts off longer descriptions and field values
+    private static final int MAX_DESCRIPTION = 4096;
+    private static final int MAX_FIELD_VALUE = 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final long WARNING_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+    private static final Pattern RETRY_AFTER_BODY = Pattern.compile("\"retry_after\"\\s*:\\s*([0-9.]+)");
+    private static final String EMBED_FORMAT = """
                 {
-                    "embeds": [
+                    "title": "Deleted Message",
+                    "description": "%s",
+                    "color": 4645612,
+                    "fields": [
+                        {
+                            "name": "Blocked Content",
+                            "value": "%s"
+                        },
+                        {
+                            "name": "Player",
+                            "value": "%s",
+                            "inline": true
+                        },
                         {
-                            "title": "Deleted Message",
-                            "description": "%s",
-                            "color": 4645612,
-                            "fields": [
-                                {
-                                    "name": "Blocked Content",
-                                    "value": "%s"
-                                },
-                                {
-                                    "name": "Player",
-                                    "value": "%s",
-                                    "inline": true
-                                },
-                                {
-                                    "name": "UUID",
-                                    "value": "%s",
-                                    "inline": true
-                                }
-                            ],
-                            "thumbnail": {
-                                "url": "https://minotar.net/helm/%s"
-                            },
-                            "footer": {
-                                "text": "Censorship Mod"
-                            },
-                            "timestamp": "%s"
-                        }
-                    ]
+                            "name": "UUID",
+                            "value": "%s",
+                            "inline": true
+                        }%s
+                    ],
+                    "thumbnail": {
+                        "url": "https://minotar.net/helm/%s"
+                    },
+                    "footer": {
+                        "text": "Censorship Mod"
+                    },
+                    "timestamp": "%s"
                 }""";
+    private static final String REPEATED_FORMAT = """
+                ,
+                        {
+                            "name": "Repeated",
+                            "value": "%d times"
+                        }""";
+    private static volatile DiscordWebhook instance;
+
+    private final HttpClient client;
+    private final int queueSize;
+    private final Thread sender;
+    // Guarded by itself, queued embeds by player and blocked phrase so repeats only bump the count
+    private final ArrayDeque<Violation> queue = new ArrayDeque<>();
+    private final Map<ViolationKey, Violation> queued = new HashMap<>();
+    private final AtomicLong lastWarning = new AtomicLong(System.nanoTime() - WARNING_INTERVAL);
+    // Only touched by the sender thread, the spool becomes null if it fails
+    private volatile WebhookSpool spool;
+    // Taken from the queue but neither sent nor spooled yet, only touched by the sender thread
+    private List<Violation> inFlight = List.of();
+    private long rateLimitedUntil = System.nanoTime();
+    private long replayAt;
+    // 0 while nothing is spooled
+    private long replayBackoffMillis;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    /**
+     * @param client    every request goes through it, pass one pointing at a local server to try the webhook out
+     * @param queueSize how many embeds may wait to be sent before new ones are dropped
+     * @param spool     where embeds that couldn't be sent wait for Discord to come back, null drops them instead
+     */
+    public DiscordWebhook(HttpClient client, int queueSize, WebhookSpool spool) {
+        this.client = client;
+        this.queueSize = queueSize;
+        this.spool = spool;
+        if (spool != null && !spool.isEmpty()) {
+            // Left over from the last run, try them first
+            replayBackoffMillis = BACKOFF_MILLIS;
+            replayAt = System.nanoTime();
+        }
+        this.sender = new Thread(this::run, "Censorship Webhook");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * The webhook blocked messages are posted with, null before the mod is initialized
+     */
+    public static DiscordWebhook instance() {
+        return instance;
+    }
+
+    /**
+     * @param spoolDirectory  where messages that couldn't be sent are kept
+     * @param spoolMegabytes  how large the spool may grow, 0 to drop those messages instead
+     */
+    public static void configure(int queueSize, Path spoolDirectory, int spoolMegabytes) {
+        DiscordWebhook previous = instance;
+        // The spool directory can only have one writer
+        if (previous != null) previous.shutdown();
+
+        WebhookSpool spool = null;
+        if (spoolMegabytes > 0) {
+            try {
+                spool = WebhookSpool.open(spoolDirectory, spoolMegabytes * 1024L * 1024L);
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't open the webhook spool, blocked messages that can't be sent are dropped: {}", e.getMessage());
+            }
+        }
+        instance = new DiscordWebhook(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(3)).build(), queueSize, spool);
+    }
 
     public static void sendWebhook(String webhookURL, ServerPlayer player, String contentIndicated, String blockedPhrase) {
-        if (webhookURL.isBlank()) return;
-        String username = player.getName().getString();
-        String UUID = player.getUUID().toString();
+        DiscordWebhook webhook = instance;
+        if (webhookURL.isBlank() || webhook == null) return;
+        webhook.submit(webhookURL, player.getName().getString(), player.getUUID().toString(), contentIndicated, blockedPhrase);
+    }
+
+    /**
+     * Queue a blocked message, returns right away
+     *
+     * @return false if the queue is full and the message was dropped
+     */
+    public boolean submit(String webhookURL, String username, String uuid, String contentIndicated, String blockedPhrase) {
+        ViolationKey key = new ViolationKey(webhookURL, uuid, truncate(blockedPhrase, MAX_FIELD_VALUE));
+        synchronized (queue) {
+            Violation repeated = queued.get(key);
+            if (repeated != null) {
+                repeated.count++;
+                coalesced.increment();
+                return true;
+            }
+            if (queue.size() >= queueSize) {
+                dropped.increment();
+                warnOverloaded();
+                return false;
+            }
+
+            String content = truncate(contentIndicated.replace("§n", "__").replace("§r", "__"), MAX_DESCRIPTION);
+            Violation violation = new Violation(key, username, content, OffsetDateTime.now());
+            queue.add(violation);
+            queued.put(key, violation);
+            queue.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Stop sending and wait for the sender to move whatever is still queued into the spool and let go of it
+     */
+    public void shutdown() {
+        sender.interrupt();
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Wait out the rate limit before taking a batch, so everything that came in meanwhile goes in one request
+                long wait = rateLimitedUntil - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                if (spool == null || spool.isEmpty()) {
+                    inFlight = takeBatch();
+                    if (deliver(inFlight, MAX_ATTEMPTS) == Delivery.FAILED) spool(inFlight);
+                    inFlight = List.of();
+                } else {
+                    replay();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down
+        } finally {
+            flush();
+            if (spool != null) spool.close();
+        }
+    }
+
+    /**
+     * Keep what was taken but not sent and everything still queued in the spool, so the next run sends it
+     */
+    private void flush() {
+        List<Violation> pending = new ArrayList<>(inFlight);
+        inFlight = List.of();
+        synchronized (queue) {
+            pending.addAll(queue);
+            queue.clear();
+            queued.clear();
+        }
+        if (pending.isEmpty()) return;
+        if (spool == null) {
+            failed(pending);
+            return;
+        }
+        // A channel refuses to write while the interrupt that shut the sender down is still pending
+        Thread.interrupted();
+        try {
+            spool.append(pending.stream().map(Violation::toBytes).toList());
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't keep {} blocked messages in the webhook spool on shutdown: {}", pending.size(), e.getMessage());
+            failed(pending);
+        }
+    }
+
+    /**
+     * Wait for a queued embed and take it together with the ones behind it that fit into the same request
+     */
+    private List<Violation> takeBatch() throws InterruptedException {
+        synchronized (queue) {
+            while (queue.isEmpty()) queue.wait();
+
+            List<Violation> batch = new ArrayList<>(MAX_EMBEDS);
+            while (!queue.isEmpty() && fits(batch, queue.peek())) {
+                Violation next = queue.poll();
+                // Sent from here on, a repeat of it is a new embed
+                queued.remove(next.key);
+                batch.add(next);
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Whether {@code next} can go into the same request as the batch
+     */
+    private static boolean fits(List<Violation> batch, Violation next) {
+        if (batch.isEmpty()) return true;
+        if (batch.size() >= MAX_EMBEDS || !next.key.webhookURL().equals(batch.getFirst().key.webhookURL())) return false;
+        int chars = next.embedChars();
+        for (Violation violation : batch) chars += violation.embedChars();
+        return chars <= MAX_EMBED_CHARS;
+    }
+
+    /**
+     * Keep a batch that couldn't be sent in the spool, it is sent again once Discord can be reached
+     */
+    private void spool(List<Violation> batch) throws InterruptedException {
+        if (spool == null) {
+            failed(batch);
+            return;
+        }
+        try {
+            spool.append(batch.stream().map(Violation::toBytes).toList());
+            if (replayBackoffMillis == 0) {
+                LOGGER.warn("Discord webhook can't be reached, keeping blocked messages on disk until it can");
+                replayBackoffMillis = BACKOFF_MILLIS;
+            }
+            replayAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayBackoffMillis);
+        } catch (IOException e) {
+            spoolFailed(e);
+            failed(batch);
+        }
+    }
+
+    /**
+     * Send the oldest spooled messages once the backoff is over. Everything that comes in until then goes to the spool
+     * behind them, so messages still arrive in the order they were blocked.
+     */
+    private void replay() throws InterruptedException {
+        try {
+            spoolQueued(replayAt);
+            List<Violation> batch = new ArrayList<>(MAX_EMBEDS);
+            int unreadable = 0;
+            for (byte[] payload : spool.peek(MAX_EMBEDS)) {
+                Violation next;
+                try {
+                    next = Violation.fromBytes(payload);
+                } catch (IOException | RuntimeException e) {
+                    // Passed its checksum but isn't a message, it could never be sent. Only skipped at the head of the
+                    // spool, behind a batch it is the head the next time around
+                    if (!batch.isEmpty()) break;
+                    LOGGER.warn("Dropping a spooled blocked message that can't be read: {}", e.toString());
+                    unreadable++;
+                    continue;
+                }
+                if (!fits(batch, next)) break;
+                batch.add(next);
+            }
+            if (unreadable > 0) {
+                spool.remove(unreadable);
+                dropped.add(unreadable);
+            }
+            if (batch.isEmpty()) return;
+
+            Delivery delivery = deliver(batch, 1);
+            if (delivery == Delivery.FAILED) {
+                replayBackoffMillis = Math.min(replayBackoffMillis * 2, MAX_REPLAY_BACKOFF_MILLIS);
+                replayAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayBackoffMillis);
+                return;
+            }
+            spool.remove(batch.size());
+            replayBackoffMillis = BACKOFF_MILLIS;
+            if (spool.isEmpty()) {
+                LOGGER.info("Discord webhook can be reached again, sent every blocked message kept on disk");
+                replayBackoffMillis = 0;
+            }
+        } catch (IOException e) {
+            spoolFailed(e);
+        }
+    }
+
+    /**
+     * Move whatever is queued into the spool until {@code deadline}, syncing at most every {@link #SYNC_INTERVAL_MILLIS}
+     */
+    private void spoolQueued(long deadline) throws IOException, InterruptedException {
+        while (true) {
+            List<Violation> drained = new ArrayList<>();
+            synchronized (queue) {
+                long remaining = deadline - System.nanoTime();
+                if (queue.isEmpty() && remaining > 0) TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+                for (Violation violation = queue.poll(); violation != null; violation = queue.poll()) {
+                    queued.remove(violation.key);
+                    drained.add(violation);
+                }
+            }
+            if (!drained.isEmpty()) {
+                inFlight = drained;
+                spool.append(drained.stream().map(Violation::toBytes).toList());
+                inFlight = List.of();
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL_MILLIS)));
+            }
+            if (System.nanoTime() - deadline >= 0) return;
+        }
+    }
 
-        String message = String.format(WEBHOOK_FORMAT, contentIndicated.replace("§n", "__").replace("§r", "__"), blockedPhrase, username, UUID, UUID, OffsetDateTime.now());
+    private void spoolFailed(IOException e) throws InterruptedException {
+        // Interrupted halfway through a write, that is a shutdown and not the spool's fault
+        if (e instanceof ClosedByInterruptException) throw new InterruptedException();
+        LOGGER.error("Webhook spool failed, blocked messages that can't be sent are dropped from now on: {}", e.getMessage());
+        spool.close();
+        spool = null;
+        replayBackoffMillis = 0;
+    }
 
-        // Send the message to the webhook
-        try (HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(3)).build()) {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(webhookURL))
+    /**
+     * Post a batch, retrying errors that may go away up to {@code attempts} times
+     */
+    private Delivery deliver(List<Violation> batch, int attempts) throws InterruptedException {
+        String webhookURL = batch.getFirst().key.webhookURL();
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(webhookURL))
+                    .timeout(TIMEOUT)
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(message))
+                    .POST(HttpRequest.BodyPublishers.ofString(payload(batch)))
                     .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Discord webhook URL is invalid: {}", e.getMessage());
+            failed(batch);
+            return Delivery.REJECTED;
+        }
+
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            if (attempt > 1) TimeUnit.MILLISECONDS.sleep(BACKOFF_MILLIS << (attempt - 2));
+            HttpResponse<String> response;
+            try {
+                requests.increment();
+                response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                if (attempt == attempts) LOGGER.debug("Couldn't post {} blocked messages to the Discord webhook: {}", batch.size(), e.getMessage());
+                continue;
+            }
+
+            updateRateLimit(response);
+            int status = response.statusCode();
+            if (status / 100 == 2) {
+                for (Violation ignored : batch) CensorshipMetrics.instance.recordWebhook(true);
+                return Delivery.SENT;
+            }
+            if (status == 429) {
+                // The next attempt waits for as long as Discord says
+                rateLimited.increment();
+                long retryAfter = retryAfterNanos(response);
+                rateLimitedUntil = Math.max(rateLimitedUntil, System.nanoTime() + retryAfter);
+                if (attempt < attempts) TimeUnit.NANOSECONDS.sleep(retryAfter);
+                continue;
+            }
+            if (status / 100 == 5) continue;
+
+            // Sending it again won't change a thing
+            LOGGER.warn("Discord webhook rejected {} blocked messages: HTTP {} {}", batch.size(), status, response.body());
+            failed(batch);
+            return Delivery.REJECTED;
+        }
+        return Delivery.FAILED;
+    }
+
+    private static void failed(List<Violation> batch) {
+        for (Violation ignored : batch) CensorshipMetrics.instance.recordWebhook(false);
+    }
+
+    /**
+     * Remember when the bucket of the webhook runs dry, the next request waits for it to reset instead of getting a 429
+     */
+    private void updateRateLimit(HttpResponse<?> response) {
+        String remaining = response.headers().firstValue("X-RateLimit-Remaining").orElse(null);
+        String resetAfter = response.headers().firstValue("X-RateLimit-Reset-After").orElse(null);
+        if (!"0".equals(remaining) || resetAfter == null) return;
+        try {
+            rateLimitedUntil = System.nanoTime() + secondsToNanos(Double.parseDouble(resetAfter));
+        } catch (NumberFormatException e) {
+            // Not a number, the next request finds out the hard way
+        }
+    }
+
+    private static long retryAfterNanos(HttpResponse<String> response) {
+        try {
+            String header = response.headers().firstValue("Retry-After").orElse(null);
+            if (header != null) return secondsToNanos(Double.parseDouble(header));
+            Matcher body = RETRY_AFTER_BODY.matcher(response.body());
+            if (body.find()) return secondsToNanos(Double.parseDouble(body.group(1)));
+        } catch (NumberFormatException e) {
+            // Fall through to the default
+        }
+        return TimeUnit.MILLISECONDS.toNanos(BACKOFF_MILLIS);
+    }
+
+    private static long secondsToNanos(double seconds) {
+        return (long) (Math.max(0, seconds) * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static String payload(List<Violation> batch) {
+        StringBuilder payload = new StringBuilder("{\"embeds\": [");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) payload.append(',');
+            payload.append(batch.get(i).embed());
+        }
+        return payload.append("]}").toString();
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() <= length ? value : value.substring(0, length - 1) + "…";
+    }
+
+    private static String json(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private void warnOverloaded() {
+        long last = lastWarning.get();
+        long now = System.nanoTime();
+        if (now - last >= WARNING_INTERVAL && lastWarning.compareAndSet(last, now)) {
+            LOGGER.warn("Discord webhook queue is full ({} messages), dropping blocked messages until it catches up", queueSize);
+        }
+    }
+
+    public String describeStats() {
+        int depth;
+        synchronized (queue) {
+            depth = queue.size();
+        }
+        WebhookSpool spool = this.spool;
+        return String.format("Webhook queue: %d queued (%d slots), %d spooled on disk, %d requests, %d rate limited, %d coalesced, %d dropped",
+                depth, queueSize, spool == null ? 0 : spool.size(), requests.sum(), rateLimited.sum(), coalesced.sum(),
+                dropped.sum() + (spool == null ? 0 : spool.dropped()));
+    }
+
+    private enum Delivery {
+        SENT,
+        /** Discord refused it, sending it again won't help */
+        REJECTED,
+        /** Discord couldn't be reached or kept failing */
+        FAILED
+    }
+
+    private record ViolationKey(String webhookURL, String uuid, String blockedPhrase) {
+    }
+
+    private static final class Violation {
+        private final ViolationKey key;
+        private final String username;
+        private final String contentIndicated;
+        private final OffsetDateTime time;
+        // Guarded by the queue while queued, only read by the sender afterwards
+        private int count = 1;
+
+        private Violation(ViolationKey key, String username, String contentIndicated, OffsetDateTime time) {
+            this.key = key;
+            this.username = username;
+            this.contentIndicated = contentIndicated;
+            this.time = time;
+        }
+
+        private byte[] toBytes() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeUTF(key.webhookURL());
+                out.writeUTF(key.uuid());
+                out.writeUTF(key.blockedPhrase());
+                out.writeUTF(username);
+                out.writeUTF(contentIndicated);
+                out.writeUTF(time.toString());
+                out.writeInt(count);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static Violation fromBytes(byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            ViolationKey key = new ViolationKey(in.readUTF(), in.readUTF(), in.readUTF());
+            Violation violation = new Violation(key, in.readUTF(), in.readUTF(), OffsetDateTime.parse(in.readUTF()));
+            violation.count = in.readInt();
+            return violation;
+        }
+
+        private int embedChars() {
+            // Title, field names and footer included
+            return 60 + contentIndicated.length() + key.blockedPhrase().length() + username.length() + key.uuid().length();
+        }
 
-            // Send asynchronously to not block the game thread
-            CompletableFuture<HttpResponse<String>> future = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
-            future.thenAccept(response -> {});
+        private String embed() {
+            String repeated = count > 1 ? String.format(REPEATED_FORMAT, count) : "";
+            return String.format(EMBED_FORMAT, json(contentIndicated), json(key.blockedPhrase()), json(username), key.uuid(),
+                    repeated, key.uuid(), time);
         }
     }
 }
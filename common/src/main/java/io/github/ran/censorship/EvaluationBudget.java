@@ -0,0 +1,111 @@
+package io.github.ran.censorship;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how long java.util.regex may spend on a message, so a crafted message can't make a pattern backtrack for ages.
+ * <p>
+ * The text handed to the matcher is wrapped in a {@link CharSequence} that looks at the clock every few hundred reads
+ * and throws {@link Exceeded} once the deadline passed. A pattern gets its own budget, but never more than what is left
+ * of the budget of the whole message. A budget of 0 is unlimited.
+ */
+public final class EvaluationBudget {
+    public static final EvaluationBudget UNLIMITED = new EvaluationBudget(0, 0, TimeoutPolicy.ALLOW);
+    private static final int CHECK_INTERVAL = 256;
+    // The longest chat message, what the configured budgets are meant for
+    private static final int MESSAGE_CHARS = 256;
+
+    private final long messageNanos;
+    private final long patternNanos;
+    private final TimeoutPolicy policy;
+
+    public EvaluationBudget(long messageMillis, long patternMillis, TimeoutPolicy policy) {
+        this.messageNanos = TimeUnit.MILLISECONDS.toNanos(messageMillis);
+        this.patternNanos = TimeUnit.MILLISECONDS.toNanos(patternMillis);
+        this.policy = policy;
+    }
+
+    public TimeoutPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * The budget for texts of up to {@code chars} chars, scaled up from the budget of a chat message since a pattern
+     * that backtracks takes longer on a longer text
+     */
+    public EvaluationBudget forLength(int chars) {
+        if (chars <= MESSAGE_CHARS) return this;
+        long factor = (chars + MESSAGE_CHARS - 1) / MESSAGE_CHARS;
+        return new EvaluationBudget(TimeUnit.NANOSECONDS.toMillis(messageNanos) * factor, TimeUnit.NANOSECONDS.toMillis(patternNanos) * factor, policy);
+    }
+
+    /**
+     * Whether the message that started at {@code messageStart} (a {@link System#nanoTime()}) used up its budget
+     */
+    public boolean exhausted(long messageStart) {
+        return messageNanos > 0 && System.nanoTime() - messageStart >= messageNanos;
+    }
+
+    /**
+     * Wrap the text for the evaluation of a single pattern, the text itself is returned when nothing is limited
+     */
+    public CharSequence guard(CharSequence text, long messageStart) {
+        if (messageNanos == 0 && patternNanos == 0) return text;
+        long now = System.nanoTime();
+        long remaining = Long.MAX_VALUE;
+        if (messageNanos > 0) remaining = messageNanos - (now - messageStart);
+        if (patternNanos > 0) remaining = Math.min(remaining, patternNanos);
+        return new Guarded(text, now + remaining);
+    }
+
+    public enum TimeoutPolicy {
+        /** Treat the pattern as not matching */
+        ALLOW,
+        /** Block the whole message */
+        BLOCK
+    }
+
+    /**
+     * Thrown out of the matcher when the budget ran out
+     */
+    public static final class Exceeded extends RuntimeException {
+        private Exceeded() {
+            super("Regex evaluation budget exceeded", null, false, false);
+        }
+    }
+
+    private static final class Guarded implements CharSequence {
+        private final CharSequence text;
+        private final long deadline;
+        private int reads;
+
+        private Guarded(CharSequence text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                if (System.nanoTime() - deadline >= 0) throw new Exceeded();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.ran.censorship;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs at build time, parses {@link YAGPDBParser#FALLBACK_SCRIPT} into the {@link RulesetSnapshot} the mod loads at
+ * startup instead of parsing the script again. See the {@code compileFallbackRuleset} task of the common module.
+ */
+public final class FallbackRulesetCompiler {
+    private FallbackRulesetCompiler() {
+    }
+
+    /**
+     * @param args the resources directory to write {@link YAGPDBParser#FALLBACK_RULESET} into
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) throw new IllegalArgumentException("Usage: FallbackRulesetCompiler <resources directory>");
+
+        CensorRuleset ruleset = YAGPDBParser.instance.compileScript(YAGPDBParser.FALLBACK_SCRIPT);
+        if (ruleset.size() == 0) throw new IllegalStateException("The fallback script has no usable patterns");
+
+        Path target = Path.of(args[0], YAGPDBParser.FALLBACK_RULESET.substring(1));
+        Files.createDirectories(target.getParent());
+        try (OutputStream out = Files.newOutputStream(target)) {
+            RulesetSnapshot.of(ScriptCache.sha256(YAGPDBParser.FALLBACK_SCRIPT), ruleset).write(out);
+        }
+        System.out.println("Wrote " + ruleset.size() + " fallback patterns to " + target);
+    }
+}
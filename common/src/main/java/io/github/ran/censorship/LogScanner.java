@@ -0,0 +1,476 @@
+package io.github.ran.censorship;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Offline audit of server logs and chat exports with the current ruleset, see the {@code scanLogs} task of the common
+ * module.
+ * <p>
+ * Plain files are memory mapped and cut into chunks that end at a line break, gzipped logs are decompressed as a stream
+ * and handed on in batches of lines. Chunks and batches are scanned in parallel on a fork-join pool. Lines look like
+ * {@code [12:00:00] [Server thread/INFO]: <Player> message}, only the message is checked and matches are counted per
+ * pattern and per player.
+ */
+public final class LogScanner {
+    private static final long CHUNK_BYTES = 8 * 1024 * 1024;
+    // A chunk is cut here even without a line break, a mapping can't be larger than 2 GiB
+    private static final long MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+    private static final int BATCH_CHARS = 4 * 1024 * 1024;
+    private static final int PROBE_BYTES = 64 * 1024;
+    private static final String NO_PLAYER = "-";
+    private static final String USAGE = """
+            Usage: LogScanner [options] <file or directory>...
+              --config <dir>   config directory of the server, the script cached for its regexURL is used (default: config)
+              --script <file>  censor script to use instead of the cached one
+              --fallback       use the built in fallback script instead of the cached one
+              --allow <words>  comma separated allowed words, instead of the allowedWords of the server config
+              --threads <n>    threads to scan with (default: all cores)
+              --all-lines      check every line, not only chat messages, for chat exports in other formats
+              --list           also list every flagged line
+              --no-automaton   check one regex at a time instead of using the combined automaton
+              --report <file>  write the report to a file as well""";
+
+    private final YAGPDBParser parser;
+    private final boolean allLines;
+    private final boolean list;
+
+    private LogScanner(YAGPDBParser parser, boolean allLines, boolean list) {
+        this.parser = parser;
+        this.allLines = allLines;
+        this.list = list;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path config = Path.of("config");
+        Path script = null;
+        boolean fallback = false;
+        String allowedWords = null;
+        Path report = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean allLines = false;
+        boolean list = false;
+        MatchEngine.Kind matchEngine = MatchEngine.Kind.AUTOMATON;
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--config" -> config = Path.of(value(args, ++i));
+                case "--script" -> script = Path.of(value(args, ++i));
+                case "--fallback" -> fallback = true;
+                case "--allow" -> allowedWords = value(args, ++i);
+                case "--report" -> report = Path.of(value(args, ++i));
+                case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                case "--all-lines" -> allLines = true;
+                case "--list" -> list = true;
+                case "--no-automaton" -> matchEngine = MatchEngine.Kind.REGEX;
+                default -> {
+                    if (args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option " + args[i] + "\n" + USAGE);
+                    inputs.add(Path.of(args[i]));
+                }
+            }
+        }
+        if (inputs.isEmpty()) throw new IllegalArgumentException(USAGE);
+
+        if (script != null) {
+            YAGPDBParser.configure(false, matchEngine);
+            String content = Files.readString(script, StandardCharsets.UTF_8);
+            YAGPDBParser.instance.publish(YAGPDBParser.instance.compileScript(content), content);
+        } else if (fallback) {
+            YAGPDBParser.loadParser(false, matchEngine, null, null);
+        } else {
+            loadCached(config, matchEngine);
+        }
+        // Without the allow list of the server, words it lets through would be reported as flagged
+        if (allowedWords == null) allowedWords = Objects.requireNonNullElse(setting(config, "allowedWords"), "");
+        YAGPDBParser.setAllowList(AllowList.parse(allowedWords));
+
+        List<Path> files = files(inputs);
+        LogScanner scanner = new LogScanner(YAGPDBParser.instance, allLines, list);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Tally tally;
+        try {
+            tally = pool.invoke(scanner.new FilesTask(files));
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        scanner.report(tally, elapsed, threads, System.out);
+        if (report != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(report), false, StandardCharsets.UTF_8)) {
+                scanner.report(tally, elapsed, threads, out);
+            }
+            System.out.println("Wrote the report to " + report);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException(args[i - 1] + " needs a value\n" + USAGE);
+        return args[i];
+    }
+
+    /**
+     * Load the script the server cached for its regexURL. The parser would quietly fall back to the fallback script
+     * without it, which isn't what the server checks chat with
+     */
+    private static void loadCached(Path config, MatchEngine.Kind matchEngine) throws IOException {
+        String url = Objects.requireNonNullElse(setting(config, "regexURL"), CensorshipConfig.DEFAULT_REGEX_URL);
+        Path directory = config.resolve(CensorshipMod.MOD_ID);
+        ScriptCache cache = new ScriptCache(directory);
+        ScriptCache.Entry cached = cache.load(url);
+        if (cached == null) {
+            throw new IllegalStateException("No censor script cached for " + url + " in " + directory
+                    + ", start the server once to download it or use --script or --fallback");
+        }
+        YAGPDBParser.loadParser(false, matchEngine, cache, url);
+        if (!cached.script().equals(YAGPDBParser.instance.getScript())) {
+            throw new IllegalStateException("The censor script cached for " + url + " has no usable patterns");
+        }
+        System.out.println("Using the censor script cached for " + url);
+    }
+
+    /**
+     * A string setting of the server's config file, null if it isn't set
+     */
+    private static String setting(Path config, String key) throws IOException {
+        if (!Files.isDirectory(config)) return null;
+        List<Path> candidates;
+        try (Stream<Path> list = Files.list(config)) {
+            candidates = list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(CensorshipMod.MOD_ID) && name.endsWith(".toml");
+            }).sorted().toList();
+        }
+        Pattern setting = Pattern.compile("\\s*" + Pattern.quote(key) + "\\s*=\\s*\"(.*)\"\\s*(#.*)?");
+        for (Path candidate : candidates) {
+            for (String line : Files.readAllLines(candidate, StandardCharsets.UTF_8)) {
+                Matcher matcher = setting.matcher(line);
+                if (matcher.matches()) {
+                    System.out.println("Using the " + key + " of " + candidate);
+                    return matcher.group(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The files to scan, directories are searched for logs and text files
+     */
+    private static List<Path> files(List<Path> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (!Files.isDirectory(input)) {
+                files.add(input);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(input)) {
+                walk.filter(Files::isRegularFile).filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.endsWith(".log") || name.endsWith(".txt") || name.endsWith(".gz");
+                }).sorted().forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    private void report(Tally tally, long elapsedNanos, int threads, PrintStream out) {
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        out.printf("Scanned %d files, %.1f MB of text (%.1f MB on disk), %d lines, %d messages in %.2f s%n", tally.files,
+                tally.bytes / 1e6, tally.diskBytes / 1e6, tally.lines, tally.messages, seconds);
+        out.printf("Throughput: %.1f MB/s on %d threads with %d patterns%n", tally.bytes / 1e6 / seconds, threads, parser.getPatternCount());
+        out.printf("Flagged messages: %d%n", tally.flagged);
+        printCounts("Matches per pattern:", tally.patterns, out);
+        printCounts("Flagged messages per player:", tally.players, out);
+        if (list && !tally.listed.isEmpty()) {
+            out.println();
+            out.println("Flagged lines:");
+            tally.listed.forEach(out::println);
+        }
+    }
+
+    private static void printCounts(String title, Map<String, long[]> counts, PrintStream out) {
+        if (counts.isEmpty()) return;
+        out.println();
+        out.println(title);
+        counts.entrySet().stream()
+                .sorted(Comparator.<Map.Entry<String, long[]>>comparingLong(entry -> entry.getValue()[0]).reversed().thenComparing(Map.Entry::getKey))
+                .forEach(entry -> out.printf("%10d  %s%n", entry.getValue()[0], entry.getKey()));
+    }
+
+    private void scanLine(String file, String line, Tally tally) {
+        tally.lines++;
+        String player = NO_PLAYER;
+        String message = line;
+        int open = chatMarker(line);
+        if (open >= 0) {
+            int close = line.indexOf('>', open);
+            player = line.substring(open + 1, close);
+            message = line.substring(close + 2);
+        } else if (!allLines) {
+            return;
+        }
+        tally.messages++;
+
+        List<String> patterns = parser.findCensoredPatterns(message);
+        if (patterns.isEmpty()) return;
+        tally.flagged++;
+        tally.players.computeIfAbsent(player, key -> new long[1])[0]++;
+        for (String pattern : patterns) tally.patterns.computeIfAbsent(pattern, key -> new long[1])[0]++;
+        if (list) tally.listed.add(file + ": " + line);
+    }
+
+    /**
+     * Where {@code <Player> } starts in a chat line, -1 if it isn't one
+     */
+    private static int chatMarker(String line) {
+        for (int open = line.indexOf('<'); open >= 0; open = line.indexOf('<', open + 1)) {
+            int i = open + 1;
+            // Player names are 3 to 16 letters, digits and underscores, 1 is allowed for older accounts
+            while (i < line.length() && i - open <= 16 && isNameChar(line.charAt(i))) i++;
+            if (i > open + 1 && i + 1 < line.length() && line.charAt(i) == '>' && line.charAt(i + 1) == ' ') return open;
+        }
+        return -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * One task per file, scanned in the order they were given
+     */
+    private final class FilesTask extends RecursiveTask<Tally> {
+        private final List<Path> files;
+
+        private FilesTask(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected Tally compute() {
+            List<ForkJoinTask<Tally>> tasks = new ArrayList<>();
+            for (Path file : files) {
+                tasks.add(file.getFileName().toString().endsWith(".gz") ? new GzipTask(file) : new MappedFileTask(file));
+            }
+            return merge(invokeAll(tasks));
+        }
+    }
+
+    /**
+     * Maps a file and cuts it into chunks that end right after a line break, or in the middle of a line that is longer
+     * than a chunk may be
+     */
+    private final class MappedFileTask extends RecursiveTask<Tally> {
+        private final Path file;
+
+        private MappedFileTask(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Tally compute() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                List<ForkJoinTask<Tally>> chunks = new ArrayList<>();
+                for (long from = 0; from < size; ) {
+                    long to = lineEnd(channel, from + CHUNK_BYTES, from + MAX_CHUNK_BYTES, size);
+                    chunks.add(new ChunkTask(file.toString(), channel.map(FileChannel.MapMode.READ_ONLY, from, to - from)));
+                    from = to;
+                }
+                // Mappings stay valid after the channel is closed, but the chunks are scanned before that anyway
+                Tally tally = merge(invokeAll(chunks));
+                tally.files = 1;
+                tally.diskBytes = size;
+                return tally;
+            } catch (IOException e) {
+                System.err.println("Couldn't read " + file + ": " + e.getMessage());
+                return new Tally();
+            }
+        }
+
+        /**
+         * The position right after the first line break at or after {@code position}, the end of the file if there is none.
+         * Without a line break before {@code limit}, the line is cut at the start of the char at {@code limit}.
+         */
+        private static long lineEnd(FileChannel channel, long position, long limit, long size) throws IOException {
+            ByteBuffer probe = ByteBuffer.allocate(PROBE_BYTES);
+            long end = Math.min(limit, size);
+            while (position < end) {
+                probe.clear().limit((int) Math.min(PROBE_BYTES, end - position));
+                int read = channel.read(probe, position);
+                if (read <= 0) break;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') return position + i + 1;
+                }
+                position += read;
+            }
+            if (limit >= size) return size;
+            // Step back over UTF-8 continuation bytes, so both halves decode
+            ByteBuffer lead = ByteBuffer.allocate(1);
+            for (long cut = limit; cut > limit - 4; cut--) {
+                lead.clear();
+                channel.read(lead, cut);
+                if ((lead.get(0) & 0xC0) != 0x80) return cut;
+            }
+            return limit;
+        }
+    }
+
+    private final class ChunkTask extends RecursiveTask<Tally> {
+        private final String file;
+        private final MappedByteBuffer bytes;
+
+        private ChunkTask(String file, MappedByteBuffer bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Tally compute() {
+            Tally tally = new Tally();
+            tally.bytes = bytes.remaining();
+            // Chunks end at a line break or the start of a char, so no UTF-8 char is split
+            CharBuffer chars = StandardCharsets.UTF_8.decode(bytes);
+            int start = 0;
+            int length = chars.length();
+            for (int i = 0; i <= length; i++) {
+                if (i < length && chars.get(i) != '\n') continue;
+                int end = i > start && chars.get(i - 1) == '\r' ? i - 1 : i;
+                if (end > start || i < length) scanLine(file, chars.subSequence(start, end).toString(), tally);
+                start = i + 1;
+            }
+            return tally;
+        }
+    }
+
+    /**
+     * Decompresses a gzipped log and hands its lines on in batches, a gzip stream can't be split up front
+     */
+    private final class GzipTask extends RecursiveTask<Tally> {
+        private final Path file;
+
+        private GzipTask(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Tally compute() {
+            Tally tally = new Tally();
+            ArrayDeque<ForkJoinTask<Tally>> pending = new ArrayDeque<>();
+            long[] decompressed = new long[1];
+            try (InputStream in = new FilterInputStream(new GZIPInputStream(Files.newInputStream(file), 64 * 1024)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) decompressed[0] += read;
+                    return read;
+                }
+            }; BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024)) {
+                List<String> batch = new ArrayList<>();
+                int chars = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    batch.add(line);
+                    chars += line.length();
+                    if (chars < BATCH_CHARS) continue;
+                    pending.add(new LinesTask(file.toString(), batch).fork());
+                    batch = new ArrayList<>();
+                    chars = 0;
+                    // Don't decompress much further ahead than the batches can be scanned
+                    while (pending.size() > 2 * getPool().getParallelism()) tally.add(pending.poll().join());
+                }
+                if (!batch.isEmpty()) pending.add(new LinesTask(file.toString(), batch).fork());
+            } catch (IOException e) {
+                System.err.println("Couldn't read " + file + ": " + e.getMessage());
+            }
+            while (!pending.isEmpty()) tally.add(pending.poll().join());
+            tally.files = 1;
+            tally.bytes = decompressed[0];
+            try {
+                tally.diskBytes = Files.size(file);
+            } catch (IOException e) {
+                tally.diskBytes = 0;
+            }
+            return tally;
+        }
+    }
+
+    private final class LinesTask extends RecursiveTask<Tally> {
+        private final String file;
+        private final List<String> lines;
+
+        private LinesTask(String file, List<String> lines) {
+            this.file = file;
+            this.lines = lines;
+        }
+
+        @Override
+        protected Tally compute() {
+            Tally tally = new Tally();
+            for (String line : lines) scanLine(file, line, tally);
+            return tally;
+        }
+    }
+
+    private static Tally merge(Iterable<ForkJoinTask<Tally>> tasks) {
+        Tally tally = new Tally();
+        for (ForkJoinTask<Tally> task : tasks) tally.add(task.join());
+        return tally;
+    }
+
+    /**
+     * Counts of one task, only ever touched by the thread running it until it is merged into its parent's
+     */
+    private static final class Tally {
+        private long files;
+        private long bytes;
+        private long diskBytes;
+        private long lines;
+        private long messages;
+        private long flagged;
+        private final Map<String, long[]> patterns = new HashMap<>();
+        private final Map<String, long[]> players = new HashMap<>();
+        private final List<String> listed = new ArrayList<>();
+
+        private void add(Tally other) {
+            files += other.files;
+            bytes += other.bytes;
+            diskBytes += other.diskBytes;
+            lines += other.lines;
+            messages += other.messages;
+            flagged += other.flagged;
+            other.patterns.forEach((key, count) -> patterns.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            other.players.forEach((key, count) -> players.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            listed.addAll(other.listed);
+        }
+    }
+}
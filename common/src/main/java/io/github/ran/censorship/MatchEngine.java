@@ -0,0 +1,70 @@
+package io.github.ran.censorship;
+
+import io.github.ran.censorship.automaton.CombinedAutomaton;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+import io.github.ran.censorship.automaton.RegexNode;
+
+import java.util.List;
+
+/**
+ * Runs the rules of a {@link CensorRuleset} against a message. An engine compiles a ruleset once into an immutable
+ * {@link Compiled} form that every thread shares, each message then gets its own {@link Pass} that hands out the
+ * matches of one rule at a time.
+ * <p>
+ * Every rule can run on java.util.regex, so that is what an engine falls back to for the rules it can't run itself.
+ */
+public interface MatchEngine {
+    /**
+     * Compile the rules of a ruleset
+     *
+     * @param normalizedNodes the parsed form of every rule that matches the normalized text, null for the others
+     * @param unsupported     told about every parsed rule the engine leaves to java.util.regex
+     */
+    Compiled compile(List<RegexNode> normalizedNodes, CombinedAutomaton.UnsupportedHandler unsupported);
+
+    interface Compiled {
+        /**
+         * Whether the rule is guaranteed to run in time linear to the message, rules that aren't may backtrack
+         */
+        boolean linear(int id);
+
+        /**
+         * Start on a message, rules may only be asked for once this returned
+         *
+         * @param firstOnly only the first match that isn't exempt is needed
+         */
+        Pass start(ConfusableNormalizer.Text text, AllowList allowList, EvaluationBudget budget, boolean firstOnly);
+
+        String describeStats();
+    }
+
+    interface Pass {
+        /**
+         * Matches of a rule outside of allowed words as [start0, end0, start1, end1, ...] in offsets of the original text
+         *
+         * @return null if earlier rules already used up the budget of the message
+         * @throws EvaluationBudget.Exceeded if the rule itself ran out of its budget
+         */
+        int[] spans(CensorRuleset.Rule rule);
+    }
+
+    /**
+     * The built in engines, picked by {@link CensorshipConfig#matchEngine}
+     */
+    enum Kind {
+        /** Every rule runs on java.util.regex, one at a time */
+        REGEX(new RegexEngine()),
+        /** One {@link CombinedAutomaton} scans each message once for every rule it can run */
+        AUTOMATON(new AutomatonEngine());
+
+        private final MatchEngine engine;
+
+        Kind(MatchEngine engine) {
+            this.engine = engine;
+        }
+
+        public MatchEngine engine() {
+            return engine;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.ran.censorship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Every match of a message, kept as start, end and pattern id arrays against the original text sorted by start.
+ * <p>
+ * Nothing is rendered while the rules run. The blocked phrases and the message with its matches underlined are built
+ * in one pass when they are asked for, which only happens for blocked messages, and kept for the next caller since
+ * results end up in the {@link VerdictCache}. Results are shared between threads through that cache, so everything
+ * but the rendered strings is final and those are volatile.
+ */
+public final class MatchResult {
+    /** Pattern id of a match that covers the whole message because a rule ran out of its budget */
+    public static final int TIMED_OUT = -1;
+    private static final int[] NONE = new int[0];
+
+    private final String content;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] patternIds;
+    private final List<String> patterns;
+    private final boolean timedOut;
+    private final int[] spans;
+    // Rendered on first use, racing threads render the same strings
+    private volatile String match;
+    private volatile String indication;
+
+    private MatchResult(String content, int[] starts, int[] ends, int[] patternIds, List<String> patterns, boolean timedOut) {
+        this.content = content;
+        this.starts = starts;
+        this.ends = ends;
+        this.patternIds = patternIds;
+        this.patterns = patterns;
+        this.timedOut = timedOut;
+        this.spans = starts.length == 0 ? NONE : merge(starts, ends, starts.length);
+    }
+
+    public static MatchResult clean(String content) {
+        return new MatchResult(content, NONE, NONE, NONE, List.of(), false);
+    }
+
+    public boolean blocked() {
+        return starts.length != 0;
+    }
+
+    public String content() {
+        return content;
+    }
+
+    /**
+     * Whether a rule ran out of its budget, the result may differ on another attempt
+     */
+    public boolean timedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Descriptions of the rules that matched, in rule order
+     */
+    public List<String> patterns() {
+        return patterns;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Id of the rule behind a match, {@link #TIMED_OUT} if the whole message was blocked because a rule ran out of time
+     */
+    public int patternId(int i) {
+        return patternIds[i];
+    }
+
+    /**
+     * Matches with overlapping and touching ones merged, as [start0, end0, start1, end1, ...]
+     */
+    public int[] spans() {
+        return spans;
+    }
+
+    /**
+     * Every distinct blocked phrase in the order they appear, joined with ", ", null if the message is clean and empty
+     * if nothing but whitespace was blocked
+     */
+    public String match() {
+        if (!blocked()) return null;
+        String match = this.match;
+        if (match == null) {
+            Set<String> phrases = new LinkedHashSet<>();
+            int[] spans = spans();
+            for (int i = 0; i < spans.length; i += 2) {
+                // Patterns take the separators around a word along, they aren't part of the phrase
+                String phrase = content.substring(spans[i], spans[i + 1]).strip();
+                if (!phrase.isEmpty()) phrases.add(phrase);
+            }
+            match = String.join(", ", phrases);
+            this.match = match;
+        }
+        return match;
+    }
+
+    /**
+     * The message with its matches underlined
+     */
+    public String indication() {
+        String indication = this.indication;
+        if (indication == null) {
+            indication = render(content, spans(), 0, content.length());
+            this.indication = indication;
+        }
+        return indication;
+    }
+
+    /**
+     * {@code content[from, to)} with the parts of the sorted, merged {@code spans} that fall into it underlined
+     */
+    static String render(String content, int[] spans, int from, int to) {
+        StringBuilder sb = null;
+        int position = from;
+        for (int i = 0; i < spans.length; i += 2) {
+            int start = Math.max(spans[i], from);
+            int end = Math.min(spans[i + 1], to);
+            if (start >= end) continue;
+            if (sb == null) sb = new StringBuilder(to - from + 16);
+            sb.append(content, position, start).append("§n").append(content, start, end).append("§r");
+            position = end;
+        }
+        if (sb == null) return content.substring(from, to);
+        return sb.append(content, position, to).toString();
+    }
+
+    private static int[] merge(int[] starts, int[] ends, int count) {
+        int[] spans = new int[count * 2];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n > 0 && starts[i] <= spans[n - 1]) {
+                spans[n - 1] = Math.max(spans[n - 1], ends[i]);
+                continue;
+            }
+            spans[n++] = starts[i];
+            spans[n++] = ends[i];
+        }
+        return n == spans.length ? spans : Arrays.copyOf(spans, n);
+    }
+
+    /**
+     * Collects the matches of a message while the rules run
+     */
+    static final class Builder {
+        private final String content;
+        private int[] starts = new int[4];
+        private int[] ends = new int[4];
+        private int[] patternIds = new int[4];
+        private int count;
+        private final List<String> patterns = new ArrayList<>();
+        private boolean timedOut;
+
+        Builder(String content) {
+            this.content = content;
+        }
+
+        /**
+         * Add the matches of a rule as [start0, end0, start1, end1, ...]
+         */
+        Builder add(int patternId, String description, int[] spans) {
+            if (spans.length == 0) return this;
+            patterns.add(description);
+            for (int i = 0; i < spans.length; i += 2) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                    patternIds = Arrays.copyOf(patternIds, count * 2);
+                }
+                starts[count] = spans[i];
+                ends[count] = spans[i + 1];
+                patternIds[count++] = patternId;
+            }
+            return this;
+        }
+
+        /**
+         * A rule ran out of its budget, {@code blockAll} when the timeout policy blocks the whole message
+         */
+        Builder timedOut(boolean blockAll) {
+            timedOut = true;
+            if (blockAll) add(TIMED_OUT, null, new int[]{0, content.length()});
+            return this;
+        }
+
+        MatchResult build() {
+            if (count == 0) return new MatchResult(content, NONE, NONE, NONE, List.of(), timedOut);
+
+            // Sort by start through packed keys so nothing is boxed, ties keep the order the rules ran in
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) order[i] = (long) starts[i] << 32 | i;
+            Arrays.sort(order);
+            int[] sortedStarts = new int[count];
+            int[] sortedEnds = new int[count];
+            int[] sortedIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                int index = (int) order[i];
+                sortedStarts[i] = starts[index];
+                sortedEnds[i] = ends[index];
+                sortedIds[i] = patternIds[index];
+            }
+            List<String> descriptions = patterns.stream().filter(Objects::nonNull).toList();
+            return new MatchResult(content, sortedStarts, sortedEnds, sortedIds, descriptions, timedOut);
+        }
+    }
+}
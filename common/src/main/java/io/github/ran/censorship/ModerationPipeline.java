@@ -0,0 +1,223 @@
+package io.github.ran.censorship;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Runs chat moderation on a few background threads so a slow scan never stalls the connection threads.
+ * <p>
+ * Every player has a lane of tasks that run one after another, so their messages still reach vanilla in the order they
+ * were sent. Lanes of different players run in parallel. The number of messages waiting to be scanned is bounded, what
+ * happens beyond that is decided by the {@link OverloadPolicy}.
+ */
+public final class ModerationPipeline {
+    private static volatile ModerationPipeline instance;
+    private static final ThreadLocal<Boolean> IN_LANE = ThreadLocal.withInitial(() -> false);
+    private static final long WARNING_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final int queueSize;
+    private final OverloadPolicy policy;
+    // Guarded by itself, a player only has a lane while tasks of them are waiting or running
+    private final Map<UUID, Lane> lanes = new HashMap<>();
+    private final AtomicLong lastWarning = new AtomicLong(System.nanoTime() - WARNING_INTERVAL);
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder failedOpen = new LongAdder();
+    private final LongAdder failedClosed = new LongAdder();
+
+    public ModerationPipeline(int threads, int queueSize, OverloadPolicy policy) {
+        this.queueSize = queueSize;
+        this.capacity = new Semaphore(queueSize);
+        this.policy = policy;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        // Holds at most one entry per lane, the capacity bounds the tasks behind them
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Censorship Moderation #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The pipeline chat goes through, null when messages are checked on the connection thread
+     */
+    public static ModerationPipeline instance() {
+        return instance;
+    }
+
+    public static void configure(boolean enabled, int threads, int queueSize, OverloadPolicy policy) {
+        ModerationPipeline previous = instance;
+        instance = enabled ? new ModerationPipeline(threads, queueSize, policy) : null;
+        if (previous != null) previous.executor.shutdown();
+    }
+
+    /**
+     * Whether the current thread is running a task of a lane, packets handled there already went through the pipeline
+     */
+    public static boolean inLane() {
+        return IN_LANE.get();
+    }
+
+    /**
+     * Queue a message of a player for moderation. Packets of one player arrive on one connection thread, so submissions
+     * to a lane never race each other.
+     *
+     * @param moderation  scans the message and hands it to vanilla or blocks it
+     * @param passThrough hands the message to vanilla unchecked, used when the queue is full and the policy fails open
+     */
+    public Admission submit(UUID player, Runnable moderation, Runnable passThrough) {
+        submitted.increment();
+        if (!capacity.tryAcquire()) {
+            warnOverloaded();
+            switch (policy) {
+                case BLOCK -> {
+                    // Backpressure on the connection thread until a slot frees up
+                    waited.increment();
+                    capacity.acquireUninterruptibly();
+                }
+                case FAIL_OPEN -> {
+                    failedOpen.increment();
+                    // Earlier messages of the player are still queued and have to reach vanilla first
+                    return queueBehind(player, passThrough) ? Admission.QUEUED : Admission.PASS;
+                }
+                case FAIL_CLOSED -> {
+                    failedClosed.increment();
+                    return Admission.DROPPED;
+                }
+            }
+        }
+
+        enqueue(player, moderation, true);
+        return Admission.QUEUED;
+    }
+
+    /**
+     * Keep a packet that doesn't need moderation behind the queued messages of its player
+     *
+     * @return false if nothing of the player is queued and the packet can be handled right away
+     */
+    public boolean queueBehind(UUID player, Runnable task) {
+        synchronized (lanes) {
+            if (!lanes.containsKey(player)) return false;
+        }
+        // Only the connection thread of the player adds to the lane, so it can't have been created in between,
+        // and if it drained in between the task simply starts a new one
+        enqueue(player, task, false);
+        return true;
+    }
+
+    private void enqueue(UUID player, Runnable task, boolean permit) {
+        Lane start = null;
+        synchronized (lanes) {
+            Lane lane = lanes.computeIfAbsent(player, Lane::new);
+            lane.tasks.add(new Task(task, permit));
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                start = lane;
+            }
+        }
+        peakDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+        if (start != null) executor.execute(start);
+    }
+
+    private void warnOverloaded() {
+        long last = lastWarning.get();
+        long now = System.nanoTime();
+        if (now - last >= WARNING_INTERVAL && lastWarning.compareAndSet(last, now)) {
+            LOGGER.warn("Chat moderation queue is full ({} messages), applying overload policy {}", queueSize, policy);
+        }
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    public int peakDepth() {
+        return peakDepth.get();
+    }
+
+    public String describeStats() {
+        return String.format("Moderation: %d queued (peak %d, %d slots), %d submitted, %d completed, %d waited for space, %d passed unchecked, %d dropped",
+                depth.get(), peakDepth.get(), queueSize, submitted.sum(), completed.sum(), waited.sum(), failedOpen.sum(), failedClosed.sum());
+    }
+
+    public enum OverloadPolicy {
+        /** Wait on the connection thread until there is space again */
+        BLOCK,
+        /** Let the message through without checking it */
+        FAIL_OPEN,
+        /** Drop the message and tell the player to try again */
+        FAIL_CLOSED
+    }
+
+    public enum Admission {
+        /** The pipeline took the packet, vanilla must not handle it now */
+        QUEUED,
+        /** Vanilla should handle the packet right away */
+        PASS,
+        /** The message was dropped */
+        DROPPED
+    }
+
+    private record Task(Runnable runnable, boolean permit) {
+    }
+
+    private final class Lane implements Runnable {
+        private final UUID player;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        private Lane(UUID player) {
+            this.player = player;
+        }
+
+        @Override
+        public void run() {
+            Task task;
+            synchronized (lanes) {
+                task = tasks.poll();
+            }
+
+            IN_LANE.set(true);
+            try {
+                task.runnable().run();
+            } catch (Throwable t) {
+                LOGGER.error("Chat moderation task failed", t);
+            } finally {
+                IN_LANE.set(false);
+                if (task.permit()) capacity.release();
+                depth.decrementAndGet();
+                completed.increment();
+            }
+
+            synchronized (lanes) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    lanes.remove(player);
+                    return;
+                }
+            }
+            // One task per turn, so a player flooding the chat doesn't hold a thread for themselves
+            executor.execute(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.ran.censorship;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * The order {@link YAGPDBParser#findFirstMatch} tries the rules of a ruleset in. It stops at the first
+ * match, so rules that match often and run fast should go first. Books are checked that way, chat is not: the warning
+ * underlines every match, so every candidate rule runs on a chat message whatever the order.
+ * <p>
+ * One in {@value #SAMPLE_EVERY} checks is timed rule by rule, counting how often each rule ran, how often it matched and
+ * how long it took. Every {@value #REORDER_EVERY} sampled checks the rules are sorted by their expected cost per match,
+ * mean time divided by hit rate, and published as a new immutable array. Readers never lock, they just pick up
+ * whichever array is current. The counters are kept by pattern source in the {@link ScriptCache}, so a restart or a
+ * reloaded script starts out with the order learnt before.
+ */
+public final class PatternOrder {
+    static final int SAMPLE_EVERY = 16;
+    static final int REORDER_EVERY = 256;
+    // A learnt order may be carried over, but new traffic must still be able to change it
+    private static final long MAX_SEEDED_EVALUATIONS = 1024;
+    // Evaluations of the mean of all rules a rule's own mean is blended with while it has few of its own
+    private static final int PRIOR_WEIGHT = 4;
+
+    private final List<CensorRuleset.Rule> rules;
+    private final LongAdder[] evaluations;
+    private final LongAdder[] hits;
+    private final LongAdder[] nanos;
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicBoolean reordering = new AtomicBoolean();
+    private final LongAdder reorders = new LongAdder();
+    private volatile int[] order;
+
+    PatternOrder(List<CensorRuleset.Rule> rules) {
+        this.rules = rules;
+        this.evaluations = new LongAdder[rules.size()];
+        this.hits = new LongAdder[rules.size()];
+        this.nanos = new LongAdder[rules.size()];
+        for (int id = 0; id < rules.size(); id++) {
+            evaluations[id] = new LongAdder();
+            hits[id] = new LongAdder();
+            nanos[id] = new LongAdder();
+        }
+        this.order = identity(rules.size());
+    }
+
+    /**
+     * Rule ids in the order they should be tried, never modified once published
+     */
+    public int[] order() {
+        return order;
+    }
+
+    /**
+     * Whether the rules should be timed on this message, callers then {@link #record} every rule they ran and
+     * {@link #sampled()} once they are done
+     */
+    public boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+    }
+
+    public void record(int id, long elapsedNanos, boolean matched) {
+        evaluations[id].increment();
+        nanos[id].add(elapsedNanos);
+        if (matched) hits[id].increment();
+    }
+
+    /**
+     * A sampled message was done
+     *
+     * @return true if this published a new order
+     */
+    public boolean sampled() {
+        if (sampled.incrementAndGet() % REORDER_EVERY != 0) return false;
+        // Whoever is already sorting publishes the same order
+        if (!reordering.compareAndSet(false, true)) return false;
+        try {
+            return reorder();
+        } finally {
+            reordering.set(false);
+        }
+    }
+
+    /**
+     * Sort the rules by expected cost per match from the counters so far
+     *
+     * @return true if the order changed
+     */
+    boolean reorder() {
+        int size = rules.size();
+        long totalEvaluations = 0;
+        long totalNanos = 0;
+        long[] evaluated = new long[size];
+        long[] matched = new long[size];
+        long[] spent = new long[size];
+        for (int id = 0; id < size; id++) {
+            evaluated[id] = evaluations[id].sum();
+            matched[id] = hits[id].sum();
+            spent[id] = nanos[id].sum();
+            totalEvaluations += evaluated[id];
+            totalNanos += spent[id];
+        }
+        double meanNanos = totalEvaluations == 0 ? 0 : (double) totalNanos / totalEvaluations;
+
+        // Rules that haven't been seen much get the mean of all rules and an even chance to match
+        double[] costs = new double[size];
+        for (int id = 0; id < size; id++) {
+            double cost = (spent[id] + PRIOR_WEIGHT * meanNanos) / (evaluated[id] + PRIOR_WEIGHT);
+            double hitRate = (matched[id] + 1.0) / (evaluated[id] + 2.0);
+            costs[id] = cost / hitRate;
+        }
+
+        // Sort by cost through packed keys so nothing is boxed, the bits of a positive double sort like the double
+        // itself and the low bits keep equal rules in id order
+        int idBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1));
+        long[] keys = new long[size];
+        for (int id = 0; id < size; id++) {
+            keys[id] = (Double.doubleToLongBits(costs[id]) >>> idBits) << idBits | id;
+        }
+        Arrays.sort(keys);
+        int[] next = new int[size];
+        long idMask = (1L << idBits) - 1;
+        for (int i = 0; i < size; i++) next[i] = (int) (keys[i] & idMask);
+
+        reorders.increment();
+        if (Arrays.equals(next, order)) return false;
+        order = next;
+        return true;
+    }
+
+    /**
+     * Counters by pattern source as [evaluations, hits, nanos], rules with the same source are added up
+     */
+    public Map<String, long[]> snapshot() {
+        Map<String, long[]> stats = new HashMap<>();
+        for (int id = 0; id < rules.size(); id++) {
+            long evaluated = evaluations[id].sum();
+            if (evaluated == 0) continue;
+            long[] counters = stats.computeIfAbsent(rules.get(id).source(), source -> new long[3]);
+            counters[0] += evaluated;
+            counters[1] += hits[id].sum();
+            counters[2] += nanos[id].sum();
+        }
+        return stats;
+    }
+
+    /**
+     * Start out with the counters of an earlier ruleset, rules whose source isn't in there start from scratch
+     */
+    public void seed(Map<String, long[]> stats) {
+        if (stats.isEmpty()) return;
+        for (int id = 0; id < rules.size(); id++) {
+            long[] counters = stats.get(rules.get(id).source());
+            if (counters == null || counters[0] <= 0) continue;
+            // Scale long histories down, keeping hit rate and mean time as they were
+            double scale = Math.min(1, (double) MAX_SEEDED_EVALUATIONS / counters[0]);
+            evaluations[id].add(Math.round(counters[0] * scale));
+            hits[id].add(Math.round(counters[1] * scale));
+            nanos[id].add(Math.round(counters[2] * scale));
+        }
+        reorder();
+    }
+
+    public String describeStats() {
+        int[] order = this.order;
+        if (order.length == 0 || reorders.sum() == 0) return "Pattern order: file order, " + sampled.get() + " messages sampled";
+        return "Pattern order: " + reorders.sum() + " reorders over " + sampled.get() + " sampled messages, first "
+                + Arrays.stream(order).limit(5).mapToObj(this::describe).collect(Collectors.joining(", "));
+    }
+
+    private String describe(int id) {
+        long evaluated = evaluations[id].sum();
+        if (evaluated == 0) return rules.get(id).description();
+        return String.format("%s (%d%% hits, %.1f us)", rules.get(id).description(), hits[id].sum() * 100 / evaluated,
+                nanos[id].sum() / 1000.0 / evaluated);
+    }
+
+    private static int[] identity(int size) {
+        int[] order = new int[size];
+        for (int id = 0; id < size; id++) order[id] = id;
+        return order;
+    }
+}
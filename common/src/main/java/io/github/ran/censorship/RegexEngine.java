@@ -0,0 +1,60 @@
+package io.github.ran.censorship;
+
+import io.github.ran.censorship.automaton.CombinedAutomaton;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+import io.github.ran.censorship.automaton.RegexNode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Runs every rule on its own {@link java.util.regex.Pattern}, guarded by the {@link EvaluationBudget} since a rule may
+ * backtrack. Nothing needs to be compiled beyond the patterns the ruleset already holds.
+ */
+final class RegexEngine implements MatchEngine {
+    static final Compiled COMPILED = new Compiled() {
+        @Override
+        public boolean linear(int id) {
+            return false;
+        }
+
+        @Override
+        public Pass start(ConfusableNormalizer.Text text, AllowList allowList, EvaluationBudget budget, boolean firstOnly) {
+            return new RegexPass(text, allowList, budget, firstOnly, System.nanoTime());
+        }
+
+        @Override
+        public String describeStats() {
+            return "Match engine: java.util.regex";
+        }
+    };
+
+    @Override
+    public Compiled compile(List<RegexNode> normalizedNodes, CombinedAutomaton.UnsupportedHandler unsupported) {
+        return COMPILED;
+    }
+
+    private record RegexPass(ConfusableNormalizer.Text text, AllowList allowList, EvaluationBudget budget, boolean firstOnly,
+                             long messageStart) implements Pass {
+        @Override
+        public int[] spans(CensorRuleset.Rule rule) {
+            // Whatever ran before used up the budget of the message, that isn't this rule's fault
+            if (budget.exhausted(messageStart)) return null;
+
+            Matcher matcher = rule.pattern().matcher(budget.guard(rule.normalized() ? text.normalized() : text.original(), messageStart));
+            int[] spans = new int[0];
+            while (matcher.find()) {
+                int[] span = {matcher.start(), matcher.end()};
+                if (rule.normalized()) span = text.toOriginal(span);
+                // Keep looking for a match that isn't exempt, even if only the first one is needed
+                if (allowList.exempts(text.original(), span[0], span[1])) continue;
+                spans = Arrays.copyOf(spans, spans.length + 2);
+                spans[spans.length - 2] = span[0];
+                spans[spans.length - 1] = span[1];
+                if (firstOnly) break;
+            }
+            return spans;
+        }
+    }
+}
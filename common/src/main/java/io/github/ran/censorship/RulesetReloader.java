@@ -0,0 +1,140 @@
+package io.github.ran.censorship;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Fetches the script URL in the background and swaps in a new ruleset whenever the script changed, starting with the
+ * first fetch that replaces the cached or fallback ruleset the server starts with. Every new script is kept in the
+ * {@link ScriptCache} for the next start.
+ * <p>
+ * HTTP requests are conditional, so an unchanged script costs a 304 and nothing else. A changed script is compiled on
+ * the reload thread and only published once it is complete, chat never waits for it and never sees half of it.
+ */
+public final class RulesetReloader {
+    private static final Duration TIMEOUT = Duration.ofMillis(YAGPDBParser.READ_TIMEOUT_MILLIS);
+    private static RulesetReloader instance;
+
+    private final String url;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Censorship Ruleset Reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(YAGPDBParser.CONNECT_TIMEOUT_MILLIS))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    private final long startedAt = System.nanoTime();
+    // Only touched by the reload thread
+    private String etag;
+    private String lastModified;
+    private boolean remoteActive;
+
+    private RulesetReloader(String url) {
+        this.url = url;
+        // The server started out with the cached script, only ask for it again if it changed since
+        ScriptCache cache = YAGPDBParser.instance.getScriptCache();
+        ScriptCache.Entry cached = cache == null ? null : cache.load(url);
+        if (cached != null && cached.script().equals(YAGPDBParser.instance.getScript())) {
+            etag = cached.etag();
+            lastModified = cached.lastModified();
+        }
+    }
+
+    /**
+     * Fetch the script right away, then check it again every {@code intervalMinutes}, 0 only fetches it once
+     */
+    public static synchronized void start(String url, int intervalMinutes) {
+        if (instance != null) instance.scheduler.shutdownNow();
+        instance = new RulesetReloader(url);
+        if (intervalMinutes > 0) {
+            instance.scheduler.scheduleWithFixedDelay(instance::reload, 0, intervalMinutes, TimeUnit.MINUTES);
+        } else {
+            instance.scheduler.execute(instance::reload);
+        }
+    }
+
+    private void reload() {
+        try {
+            String script = fetch();
+            // Line endings the same way loadFromUrl reads them, so an unchanged script compares equal
+            if (script != null) script = script.lines().map(line -> line + "\n").collect(Collectors.joining());
+            if (script == null) {
+                // Not modified, validators are only kept for the script that is active
+                remoteLoaded();
+                return;
+            }
+            if (script.equals(YAGPDBParser.instance.getScript())) {
+                // Same script, but the first answer may come with validators the cache doesn't have yet
+                if (!remoteActive) YAGPDBParser.instance.cacheDownload(url, script, etag, lastModified);
+                remoteLoaded();
+                return;
+            }
+
+            CensorRuleset current = YAGPDBParser.instance.getRuleset();
+            CensorRuleset compiled = YAGPDBParser.instance.compileCached(script);
+            if (compiled.size() == 0) {
+                LOGGER.warn("Reloaded censor script has no usable patterns, keeping the current {}", current.size());
+                etag = lastModified = null;
+                return;
+            }
+            YAGPDBParser.instance.publish(compiled, script);
+            YAGPDBParser.instance.cacheDownload(url, script, etag, lastModified);
+            LOGGER.info("Reloaded censor ruleset: {} patterns (was {})", compiled.size(), current.size());
+            remoteLoaded();
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            LOGGER.warn("Couldn't {} the censor script, keeping the current ruleset: {}", remoteActive ? "reload" : "fetch", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | StackOverflowError e) {
+            // Anything escaping here would cancel the schedule for good, a broken script is fetched and tried again
+            LOGGER.error("Couldn't compile the censor script, keeping the current ruleset", e);
+            etag = lastModified = null;
+        }
+    }
+
+    private void remoteLoaded() {
+        if (remoteActive) return;
+        remoteActive = true;
+        LOGGER.info("Remote censor ruleset active {} ms after startup", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+    }
+
+    /**
+     * The script if it changed since the last fetch, null if the server says it didn't
+     */
+    private String fetch() throws IOException, URISyntaxException, InterruptedException {
+        URI uri = new URI(url);
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            // No validators for other schemes, the content itself is compared
+            try (InputStream in = uri.toURL().openStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET();
+        if (etag != null) request.header("If-None-Match", etag);
+        if (lastModified != null) request.header("If-Modified-Since", lastModified);
+
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() == 304) return null;
+        if (response.statusCode() / 100 != 2) throw new IOException("HTTP " + response.statusCode());
+
+        etag = response.headers().firstValue("ETag").orElse(null);
+        lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        return response.body();
+    }
+}
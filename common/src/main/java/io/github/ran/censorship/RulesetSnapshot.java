@@ -0,0 +1,100 @@
+package io.github.ran.censorship;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The parsed form of a script, what {@link CensorRuleset#compile} needs without parsing the script again.
+ * <p>
+ * Stored as a small binary file that ends with a CRC32 of everything before it, a truncated or corrupted file is
+ * rejected instead of loading half of the patterns.
+ *
+ * @param scriptSha256 checksum of the script the patterns were parsed from
+ */
+public record RulesetSnapshot(String scriptSha256, Map<String, String> variables, List<YAGPDBParser.CensoredPattern> patterns) {
+    private static final int MAGIC = 0x43454E53; // CENS
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Take the patterns and variables of a compiled ruleset, patterns it rejected are left out
+     */
+    public static RulesetSnapshot of(String scriptSha256, CensorRuleset ruleset) {
+        List<YAGPDBParser.CensoredPattern> patterns = ruleset.rules().stream()
+                .map(rule -> new YAGPDBParser.CensoredPattern(rule.description(), rule.source()))
+                .toList();
+        return new RulesetSnapshot(scriptSha256, ruleset.variables(), patterns);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        writeString(data, scriptSha256);
+        data.writeInt(variables.size());
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            writeString(data, variable.getKey());
+            writeString(data, variable.getValue());
+        }
+        data.writeInt(patterns.size());
+        for (YAGPDBParser.CensoredPattern pattern : patterns) {
+            writeString(data, pattern.description());
+            writeString(data, pattern.pattern());
+        }
+        data.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        DataOutputStream target = new DataOutputStream(new BufferedOutputStream(out));
+        bytes.writeTo(target);
+        target.writeLong(crc.getValue());
+        target.flush();
+    }
+
+    public static RulesetSnapshot read(InputStream in) throws IOException {
+        byte[] bytes = new BufferedInputStream(in).readAllBytes();
+        if (bytes.length < Long.BYTES) throw new IOException("Ruleset snapshot is truncated");
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - Long.BYTES, Long.BYTES));
+        if (data.readLong() != crc.getValue()) throw new IOException("Ruleset snapshot checksum mismatch");
+
+        data = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES));
+        if (data.readInt() != MAGIC) throw new IOException("Not a ruleset snapshot");
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported ruleset snapshot version " + version);
+
+        String scriptSha256 = readString(data);
+        Map<String, String> variables = new LinkedHashMap<>();
+        for (int i = data.readInt(); i > 0; i--) variables.put(readString(data), readString(data));
+        List<YAGPDBParser.CensoredPattern> patterns = new ArrayList<>();
+        for (int i = data.readInt(); i > 0; i--) patterns.add(new YAGPDBParser.CensoredPattern(readString(data), readString(data)));
+        return new RulesetSnapshot(scriptSha256, Collections.unmodifiableMap(variables), List.copyOf(patterns));
+    }
+
+    // Length prefixed UTF-8, writeUTF can't hold the longer generated patterns
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.ran.censorship;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Properties;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Keeps the last downloaded script on disk, together with the validators the server sent for it and the patterns it
+ * was parsed into, so a restart starts out with the remote ruleset without downloading or parsing anything.
+ * <p>
+ * Everything is checked against the SHA-256 of the script before it is used, a cache that doesn't add up is ignored and
+ * gets overwritten by the next download. Files are written next to their final name and moved in place, a crash
+ * halfway through a write leaves the previous version behind.
+ * <p>
+ * The counters {@link PatternOrder} learns the order of the patterns from are kept here as well, by pattern source so
+ * they outlive the script they were counted with.
+ */
+public final class ScriptCache {
+    private static final String SCRIPT_FILE = "script.txt";
+    private static final String METADATA_FILE = "script.properties";
+    private static final String SNAPSHOT_FILE = "ruleset.bin";
+    private static final String PATTERN_STATS_FILE = "pattern-stats.properties";
+
+    private final Path directory;
+
+    public ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The cached script of {@code url}, null if there is none or it doesn't match its checksum
+     */
+    public Entry load(String url) {
+        try {
+            Properties metadata = new Properties();
+            try (Reader reader = Files.newBufferedReader(directory.resolve(METADATA_FILE), StandardCharsets.UTF_8)) {
+                metadata.load(reader);
+            }
+            if (!url.equals(metadata.getProperty("url"))) return null;
+
+            String script = Files.readString(directory.resolve(SCRIPT_FILE), StandardCharsets.UTF_8);
+            String sha256 = sha256(script);
+            if (!sha256.equals(metadata.getProperty("sha256"))) {
+                LOGGER.warn("Cached censor script doesn't match its checksum, ignoring it");
+                return null;
+            }
+            return new Entry(script, sha256, metadata.getProperty("etag"), metadata.getProperty("lastModified"));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read the cached censor script: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The cached patterns of the script with the given checksum, null if they belong to another script
+     */
+    public RulesetSnapshot loadSnapshot(String sha256) {
+        try (InputStream in = Files.newInputStream(directory.resolve(SNAPSHOT_FILE))) {
+            RulesetSnapshot snapshot = RulesetSnapshot.read(in);
+            return snapshot.scriptSha256().equals(sha256) ? snapshot : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read the cached censor ruleset: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Remember a downloaded script, its validators may be null
+     */
+    public void save(String url, String script, String etag, String lastModified) {
+        Properties metadata = new Properties();
+        metadata.setProperty("url", url);
+        metadata.setProperty("sha256", sha256(script));
+        if (etag != null) metadata.setProperty("etag", etag);
+        if (lastModified != null) metadata.setProperty("lastModified", lastModified);
+
+        try {
+            Files.createDirectories(directory);
+            // Script first, metadata that points at a script that isn't there yet would fail the checksum anyway
+            write(SCRIPT_FILE, out -> out.write(script.getBytes(StandardCharsets.UTF_8)));
+            write(METADATA_FILE, out -> {
+                try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                    metadata.store(writer, "Censor script downloaded from " + url);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't cache the censor script: {}", e.getMessage());
+        }
+    }
+
+    public void saveSnapshot(RulesetSnapshot snapshot) {
+        try {
+            Files.createDirectories(directory);
+            write(SNAPSHOT_FILE, snapshot::write);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't cache the censor ruleset: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Counters of the {@link PatternOrder} by pattern source as [evaluations, hits, nanos], empty if there are none
+     */
+    public Map<String, long[]> loadPatternStats() {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(PATTERN_STATS_FILE), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return Map.of();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read the censor pattern stats: {}", e.getMessage());
+            return Map.of();
+        }
+
+        Map<String, long[]> stats = new HashMap<>();
+        for (String source : properties.stringPropertyNames()) {
+            String[] counters = properties.getProperty(source).trim().split("\\s+");
+            try {
+                if (counters.length == 3) {
+                    stats.put(source, new long[]{Long.parseLong(counters[0]), Long.parseLong(counters[1]), Long.parseLong(counters[2])});
+                }
+            } catch (NumberFormatException e) {
+                // Edited by hand, that pattern just starts from scratch
+            }
+        }
+        return stats;
+    }
+
+    public synchronized void savePatternStats(Map<String, long[]> stats) {
+        Properties properties = new Properties();
+        stats.forEach((source, counters) -> properties.setProperty(source, counters[0] + " " + counters[1] + " " + counters[2]));
+        try {
+            Files.createDirectories(directory);
+            write(PATTERN_STATS_FILE, out -> {
+                try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                    properties.store(writer, "Evaluations, hits and nanoseconds of every censor pattern");
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't save the censor pattern stats: {}", e.getMessage());
+        }
+    }
+
+    private void write(String name, FileWriter writer) throws IOException {
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            writer.write(out);
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static String sha256(String script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * A cached script, {@code etag} and {@code lastModified} are null when the server didn't send them
+     */
+    public record Entry(String script, String sha256, String etag, String lastModified) {
+    }
+
+    @FunctionalInterface
+    private interface FileWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
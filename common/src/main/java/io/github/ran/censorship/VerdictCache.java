@@ -0,0 +1,302 @@
+package io.github.ran.censorship;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of verdicts, so spam waves and copy-pasted messages are only scanned once per ruleset.
+ * <p>
+ * Eviction follows W-TinyLFU: new entries land in a small LRU window, and when they fall out of it they only get into
+ * the main space if they were seen more often than the entry they would push out. How often a message was seen is
+ * tracked for far more messages than fit in the cache by a count-min sketch of 4 bit counters that halves every
+ * counter once enough messages went by, so old popularity fades. A flood of one-off messages therefore can't push out
+ * the messages that keep coming back. The main space is a segmented LRU, entries hit again while on probation move on
+ * to the protected segment.
+ * <p>
+ * Lookups never lock. The map is concurrent, and a hit is only written to a small lossy buffer, one stripe per group
+ * of threads, that whoever fills a stripe drains into the policy if the lock happens to be free. Under heavy load
+ * some hits are dropped, which only makes the recency and frequency of an entry a bit less exact. Adding an entry
+ * takes the lock, but that only happens after a message was scanned.
+ * <p>
+ * Entries are keyed by the ruleset version as well, a verdict of an older ruleset is never returned.
+ */
+public final class VerdictCache {
+    private static final long[] SEEDS = {0x97cb3127L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0x9e3779b97f4a7c15L};
+    private static final int READ_BUFFER_SIZE = 16;
+
+    private final int maximum;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final Map<Key, Node> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Hits not applied to the policy yet, READ_BUFFER_SIZE slots per stripe
+    private final AtomicReferenceArray<Node> readBuffer;
+    private final AtomicLongArray readCounts;
+    private final int stripeMask;
+
+    // Guarded by lock
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedSegment = Node.sentinel();
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+
+    // Guarded by lock
+    private final long[] sketch;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public VerdictCache(int maximum) {
+        this.maximum = maximum;
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (maximum - windowMaximum) * 4 / 5;
+
+        // About 16 counters per entry, rounded up to a power of two so indices can be masked
+        int counters = Integer.highestOneBit(Math.max(16, maximum) * 16 - 1) << 1;
+        this.sketch = new long[counters / 16];
+        this.counterMask = counters - 1;
+        this.sampleSize = Math.max(10, maximum * 10);
+
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.readBuffer = new AtomicReferenceArray<>(stripes * READ_BUFFER_SIZE);
+        this.readCounts = new AtomicLongArray(stripes);
+        this.stripeMask = stripes - 1;
+    }
+
+    /**
+     * The cached verdict of a message, null if it has to be scanned
+     */
+    public MatchResult get(long rulesetVersion, String content) {
+        Node node = entries.get(new Key(rulesetVersion, content));
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        recordRead(node);
+        return node.verdict;
+    }
+
+    /**
+     * Cache the verdict of a message that missed, which also counts as seeing it for admission
+     */
+    public void put(long rulesetVersion, String content, MatchResult verdict) {
+        if (maximum == 0) return;
+        Key key = new Key(rulesetVersion, content);
+        lock.lock();
+        try {
+            drainReads();
+            increment(key.hashCode());
+            Node node = entries.get(key);
+            if (node != null) {
+                node.verdict = verdict;
+                return;
+            }
+
+            node = new Node(key, verdict);
+            node.segment = window;
+            node.linkBefore(window);
+            windowSize++;
+            entries.put(key, node);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop every entry, the sketch is kept since it only steers admission
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            drainReads();
+            entries.clear();
+            for (Node sentinel : new Node[]{window, probation, protectedSegment}) {
+                for (Node node = sentinel.next; node != sentinel; node = node.next) node.segment = null;
+                sentinel.prev = sentinel.next = sentinel;
+            }
+            windowSize = probationSize = protectedSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public String describeStats() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return String.format("Verdict cache: %d of %d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                size(), maximum, hits, total - hits, total == 0 ? 0 : hits * 100.0 / total, evictions.sum());
+    }
+
+    /**
+     * Note a hit in the stripe of this thread, a full stripe is drained by whoever finds the lock free. Slots that
+     * weren't drained yet are overwritten, those hits are lost.
+     */
+    private void recordRead(Node node) {
+        int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+        long count = readCounts.getAndIncrement(stripe);
+        int slot = (int) (count & (READ_BUFFER_SIZE - 1));
+        readBuffer.lazySet(stripe * READ_BUFFER_SIZE + slot, node);
+        if (slot == READ_BUFFER_SIZE - 1 && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the buffered hits to the sketch and the segments, the lock must be held
+     */
+    private void drainReads() {
+        for (int i = 0; i < readBuffer.length(); i++) {
+            Node node = readBuffer.getAndSet(i, null);
+            if (node == null) continue;
+            increment(node.key.hashCode());
+            // Evicted or invalidated since it was hit
+            if (node.segment != null) touch(node);
+        }
+    }
+
+    private void touch(Node node) {
+        if (node.segment == probation) {
+            // Seen again while on probation, it earned a protected spot
+            node.unlink();
+            probationSize--;
+            node.segment = protectedSegment;
+            node.linkBefore(protectedSegment);
+            protectedSize++;
+            if (protectedSize > protectedMaximum) {
+                Node demoted = protectedSegment.next;
+                demoted.unlink();
+                protectedSize--;
+                demoted.segment = probation;
+                demoted.linkBefore(probation);
+                probationSize++;
+            }
+        } else {
+            node.unlink();
+            node.linkBefore(node.segment);
+        }
+    }
+
+    private void evict() {
+        while (windowSize > windowMaximum) {
+            Node candidate = window.next;
+            candidate.unlink();
+            windowSize--;
+            candidate.segment = probation;
+            candidate.linkBefore(probation);
+            probationSize++;
+
+            if (windowSize + probationSize + protectedSize <= maximum) continue;
+            // The oldest entry on probation only stays if it was seen more often than the one coming from the window
+            Node victim = probation.next;
+            if (victim != candidate && frequency(candidate.key.hashCode()) <= frequency(victim.key.hashCode())) victim = candidate;
+            victim.unlink();
+            victim.segment = null;
+            probationSize--;
+            entries.remove(victim.key);
+            evictions.increment();
+        }
+    }
+
+    private void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int counter = counterOf(hash, i);
+            int shift = (counter & 15) << 2;
+            if (((sketch[counter >>> 4] >>> shift) & 0xF) < 15) {
+                sketch[counter >>> 4] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            // Halve every counter so popularity fades over time
+            for (int i = 0; i < sketch.length; i++) sketch[i] = (sketch[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+
+    private int frequency(int hash) {
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int counter = counterOf(hash, i);
+            frequency = Math.min(frequency, (int) ((sketch[counter >>> 4] >>> ((counter & 15) << 2)) & 0xF));
+        }
+        return frequency;
+    }
+
+    private int counterOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private record Key(long rulesetVersion, String content) {
+    }
+
+    private static final class Node {
+        private final Key key;
+        private volatile MatchResult verdict;
+        // The sentinel of the list the node is in, null once it left the cache. Guarded by lock like the links
+        private Node segment;
+        private Node prev;
+        private Node next;
+
+        private Node(Key key, MatchResult verdict) {
+            this.key = key;
+            this.verdict = verdict;
+        }
+
+        private static Node sentinel() {
+            Node sentinel = new Node(null, null);
+            sentinel.prev = sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        /**
+         * Insert at the most recently used end of the list
+         */
+        private void linkBefore(Node sentinel) {
+            prev = sentinel.prev;
+            next = sentinel;
+            sentinel.prev.next = this;
+            sentinel.prev = this;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+        }
+    }
+}
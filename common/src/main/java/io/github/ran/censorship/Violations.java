@@ -0,0 +1,29 @@
+package io.github.ran.censorship;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+
+/**
+ * What happens to a player once something they sent was blocked, shared by every mixin that blocks something
+ */
+public final class Violations {
+    private Violations() {
+    }
+
+    /**
+     * Report the violation to the Discord webhook, then kick or warn the player depending on the config
+     *
+     * @param indication what was blocked with the matches underlined
+     * @param match      the blocked phrases
+     */
+    public static void block(ServerPlayer player, String indication, String match) {
+        var warningMessage = Component.literal(String.format(CensorshipMod.CENSOR_FORMAT, indication, match));
+        DiscordWebhook.sendWebhook(CensorshipConfig.discordWebhookURL.getValue(), player, indication, match);
+
+        if (CensorshipConfig.kickPlayer.isSameValue(true)) {
+            player.connection.disconnect(warningMessage);
+            return;
+        }
+        player.sendSystemMessage(warningMessage);
+    }
+}
@@ -0,0 +1,394 @@
+package io.github.ran.censorship;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static io.github.ran.censorship.CensorshipMod.LOGGER;
+
+/**
+ * Append only queue of records on disk that survives restarts, used to hold webhook messages while Discord can't be
+ * reached.
+ * <p>
+ * Records go into segment files of about {@link #SEGMENT_BYTES}, each one prefixed with its length and a CRC32. A batch
+ * of records is written and synced in one go. Reading starts at the oldest segment, segments that were read completely
+ * are deleted, and the position in the oldest one is remembered in a small offset file. Once the spool grows past its
+ * size limit the oldest segments are dropped. A record that was torn by a crash halfway through its write fails its
+ * CRC and everything after it in that segment is cut off. The offset file is replaced atomically, and a position that
+ * doesn't land on a record, or a record that fails its CRC while reading, moves on to the next record that is intact
+ * instead of giving up on the spool.
+ * <p>
+ * Not thread safe, the webhook sender thread is the only one using it.
+ */
+public final class WebhookSpool {
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OFFSET_FILE = "spool.offset";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private FileChannel tail;
+    // Position of the next record to read in the oldest segment
+    private long readPosition;
+    private long totalBytes;
+    private volatile int records;
+    private long dropped;
+
+    private WebhookSpool(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Open the spool in {@code directory}, picking up whatever a previous run left in it
+     */
+    public static WebhookSpool open(Path directory, long maxBytes) throws IOException {
+        WebhookSpool spool = new WebhookSpool(directory, maxBytes);
+        spool.recover();
+        return spool;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        long[] offset = readOffset();
+        for (Path file : files) {
+            long sequence = sequenceOf(file);
+            if (sequence < 0) continue;
+            if (sequence < offset[0]) {
+                // Read completely before the last shutdown, deleting it didn't make it
+                Files.deleteIfExists(file);
+                continue;
+            }
+            Segment segment = scan(file, sequence, sequence == offset[0] ? offset[1] : 0);
+            if (segments.isEmpty()) readPosition = segment.start;
+            segments.add(segment);
+            totalBytes += segment.bytes;
+            records += segment.records;
+        }
+        // Reading always starts in the oldest segment, one that was read completely has to go
+        while (segments.size() > 1 && readPosition >= segments.getFirst().bytes) deleteFirst();
+        if (records > 0) LOGGER.info("Webhook spool has {} messages left from before, they are sent once Discord can be reached", records);
+    }
+
+    /**
+     * Count the intact records of a segment from {@code from} on and cut off a torn record at its end. Reading starts at
+     * the first record at or after {@code from}, in case the offset doesn't land on one.
+     */
+    private Segment scan(Path file, long sequence, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long start = -1;
+            int count = 0;
+            while (true) {
+                byte[] payload = readRecord(channel, position);
+                if (payload == null) {
+                    // Torn at the end, or corrupted in the middle with intact records behind it
+                    long next = position + 1;
+                    while (next < channel.size() && readRecord(channel, next) == null) next++;
+                    if (next >= channel.size()) break;
+                    LOGGER.warn("Webhook spool segment {} is corrupted at {}, reading on from {}", file.getFileName(), position, next);
+                    position = next;
+                    continue;
+                }
+                if (position >= from) {
+                    if (start < 0) start = position;
+                    count++;
+                }
+                position += HEADER_BYTES + payload.length;
+            }
+            if (start < 0) start = position;
+            if (start != from && from != 0) {
+                LOGGER.warn("Webhook spool offset {} doesn't point at a message in {}, reading on from {}", from, file.getFileName(), start);
+            }
+            if (position < channel.size()) {
+                LOGGER.warn("Webhook spool segment {} ends in a torn record, cutting off {} bytes", file.getFileName(), channel.size() - position);
+                channel.truncate(position);
+                channel.force(true);
+            }
+            return new Segment(sequence, file, position, count, start);
+        }
+    }
+
+    public int size() {
+        return records;
+    }
+
+    public boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * Records that were dropped to keep the spool within its size limit
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Append records and sync them to disk with a single fsync
+     */
+    public void append(List<byte[]> payloads) throws IOException {
+        if (payloads.isEmpty()) return;
+        int length = 0;
+        for (byte[] payload : payloads) length += HEADER_BYTES + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        CRC32 crc = new CRC32();
+        for (byte[] payload : payloads) {
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        buffer.flip();
+
+        Segment segment = segments.peekLast();
+        if (segment == null || tail == null || segment.bytes >= SEGMENT_BYTES) segment = roll();
+        while (buffer.hasRemaining()) tail.write(buffer);
+        tail.force(false);
+
+        segment.bytes += length;
+        segment.records += payloads.size();
+        totalBytes += length;
+        records += payloads.size();
+        trim();
+    }
+
+    /**
+     * The oldest records without removing them, at most {@code limit} of them
+     */
+    public List<byte[]> peek(int limit) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(Math.min(limit, records));
+        long position = readPosition;
+        for (Segment segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                while (payloads.size() < limit && position < segment.bytes) {
+                    byte[] payload = readRecord(channel, position);
+                    if (payload == null) {
+                        // Hand out what came before, the bad record is skipped once it is the next one to read
+                        if (!payloads.isEmpty()) return payloads;
+                        skipCorrupted(segment, channel);
+                        return peek(limit);
+                    }
+                    payloads.add(payload);
+                    position += HEADER_BYTES + payload.length;
+                }
+            }
+            if (payloads.size() >= limit) break;
+            position = 0;
+        }
+        if (payloads.isEmpty() && records > 0) {
+            // Every segment was read to its end, so the count is off and nothing is left to send
+            LOGGER.warn("Webhook spool counted {} messages that aren't there", records);
+            for (Segment segment : segments) segment.records = 0;
+            records = 0;
+        }
+        return payloads;
+    }
+
+    /**
+     * Move the read position of the oldest segment past a record that fails its CRC, on to the next one that doesn't.
+     * The records in between are lost.
+     */
+    private void skipCorrupted(Segment segment, FileChannel channel) throws IOException {
+        long next = readPosition + 1;
+        while (next < segment.bytes && readRecord(channel, next, segment.bytes) == null) next++;
+        int left = 0;
+        for (long position = next; position < segment.bytes; ) {
+            byte[] payload = readRecord(channel, position, segment.bytes);
+            if (payload == null) break;
+            left++;
+            position += HEADER_BYTES + payload.length;
+        }
+        int lost = segment.records - left;
+        LOGGER.warn("Webhook spool segment {} is corrupted at {}, skipping {} messages", segment.file.getFileName(), readPosition, lost);
+        dropped += lost;
+        records -= lost;
+        segment.records = left;
+        readPosition = next;
+        if (left == 0 && segment != segments.getLast()) deleteFirst();
+        writeOffset();
+    }
+
+    /**
+     * Remove the oldest {@code count} records, after they were sent or when they can't be
+     */
+    public void remove(int count) throws IOException {
+        while (count > 0 && !segments.isEmpty()) {
+            Segment segment = segments.getFirst();
+            try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                while (count > 0 && readPosition < segment.bytes) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    channel.read(header, readPosition);
+                    readPosition += HEADER_BYTES + header.getInt(0);
+                    segment.records--;
+                    records--;
+                    count--;
+                }
+            }
+            if (readPosition < segment.bytes || segment == segments.getLast()) break;
+            deleteFirst();
+        }
+        if (records == 0 && !segments.isEmpty()) {
+            // Nothing left, start over with an empty segment instead of growing the old one forever
+            deleteFirst();
+        }
+        writeOffset();
+    }
+
+    public void close() {
+        try {
+            if (tail != null) tail.close();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't close the webhook spool: {}", e.getMessage());
+        }
+    }
+
+    private Segment roll() throws IOException {
+        if (tail != null) tail.close();
+        Segment last = segments.peekLast();
+        long sequence = last == null ? readOffset()[0] : last.sequence + 1;
+        if (last != null && last.bytes == 0) {
+            // Still empty, keep writing to it
+            sequence = last.sequence;
+        } else {
+            Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+            last = new Segment(sequence, file, 0, 0, 0);
+            segments.add(last);
+        }
+        tail = FileChannel.open(last.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (segments.size() == 1) writeOffset();
+        return last;
+    }
+
+    /**
+     * Drop the oldest segments until the spool is within its size limit again, the one being written is always kept
+     */
+    private void trim() throws IOException {
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.getFirst();
+            dropped += oldest.records;
+            LOGGER.warn("Webhook spool is over {} KiB, dropping its {} oldest messages", maxBytes / 1024, oldest.records);
+            records -= oldest.records;
+            deleteFirst();
+            writeOffset();
+        }
+    }
+
+    private void deleteFirst() throws IOException {
+        Segment segment = segments.removeFirst();
+        totalBytes -= segment.bytes;
+        readPosition = 0;
+        if (segments.isEmpty()) {
+            if (tail != null) tail.close();
+            tail = null;
+        }
+        Files.deleteIfExists(segment.file);
+        if (segments.isEmpty()) {
+            // Next segment continues the numbering, so the offset file never points behind it
+            writeOffset(segment.sequence + 1, 0);
+        }
+    }
+
+    private void writeOffset() throws IOException {
+        Segment first = segments.peekFirst();
+        if (first != null) writeOffset(first.sequence, readPosition);
+    }
+
+    private void writeOffset(long sequence, long position) throws IOException {
+        // Replaced in one go so a crash never leaves half an offset behind. Not synced, losing the latest one only
+        // means sending a few messages twice
+        Path target = directory.resolve(OFFSET_FILE);
+        Path temporary = directory.resolve(OFFSET_FILE + ".tmp");
+        Files.writeString(temporary, sequence + " " + position, StandardCharsets.UTF_8);
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private long[] readOffset() {
+        try {
+            String[] parts = Files.readString(directory.resolve(OFFSET_FILE), StandardCharsets.UTF_8).trim().split(" ");
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (NoSuchFileException e) {
+            return new long[]{0, 0};
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Webhook spool offset is unreadable, sending its messages from the start: {}", e.getMessage());
+            return new long[]{0, 0};
+        }
+    }
+
+    /**
+     * The payload of the record at {@code position}, null if there is none or it fails its CRC
+     */
+    private static byte[] readRecord(FileChannel channel, long position) throws IOException {
+        return readRecord(channel, position, channel.size());
+    }
+
+    /**
+     * The payload of the record at {@code position} if it ends by {@code end}, null if there is none or it fails its CRC
+     */
+    private static byte[] readRecord(FileChannel channel, long position, long end) throws IOException {
+        if (position + HEADER_BYTES > end) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, position);
+        int length = header.getInt(0);
+        if (length < 0 || position + HEADER_BYTES + length > end) return null;
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        while (payload.hasRemaining() && channel.read(payload, position + HEADER_BYTES + payload.position()) > 0) ;
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return (int) crc.getValue() == header.getInt(Integer.BYTES) ? payload.array() : null;
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path file;
+        private long bytes;
+        // Records not read yet
+        private int records;
+        // Where the first of them starts
+        private final long start;
+
+        private Segment(long sequence, Path file, long bytes, int records, long start) {
+            this.sequence = sequence;
+            this.file = file;
+            this.bytes = bytes;
+            this.records = records;
+            this.start = start;
+        }
+    }
+}
@@ -1,897 +1,624 @@
 package io.github.ran.censorship;
 
-import manifold.ext.rt.api.auto;
+import io.github.ran.censorship.automaton.ConfusableNormalizer;
+import io.github.ran.censorship.template.JavaRegexGenerator;
+import io.github.ran.censorship.template.TemplateEvaluator;
+import io.github.ran.censorship.template.TemplateException;
+import io.github.ran.censorship.template.TemplateNode;
+import io.github.ran.censorship.template.TemplateParser;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static io.github.ran.censorship.CensorshipMod.LOGGER;
 
 @SuppressWarnings("RegExpRedundantEscape")
 public class YAGPDBParser {
     public static final YAGPDBParser instance = new YAGPDBParser();
-    private final List<CensoredPattern> censoredPatterns = new ArrayList<>();
+    public static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int READ_TIMEOUT_MILLIS = 30_000;
+    private volatile CensorRuleset ruleset = CensorRuleset.EMPTY;
+    private volatile String script = "";
+    // Scratch space of compileScript, guarded by this
     private final Map<String, String> variables = new HashMap<>();
     private boolean debug = false;
-
-    // Pattern to match variable definitions e.g. {{ $PREFIX := "(?:^|[^a-zA-Z0-9])+" }}
-    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{\\{\\s*\\$(\\w+)\\s*:=\\s*\"([^\"]+)\"\\s*\\}\\}");
-
-    // Pattern to match the overall section declarations for acronymRegex and exactWordRegex
-    private static final Pattern SECTION_PATTERN = Pattern.compile("\\{\\{\\s*\\$(\\w+)\\s*:=\\s*\\(joinStr\\s+\"\\|\"(.+?)\\}\\}", Pattern.DOTALL);
-
-    // Pattern to identify each pattern entry in the regex sections
-    private static final Pattern PATTERN_ENTRY = Pattern.compile("\"\\^\\\\b\\$\\s+([^\"]+)\"\\s*(\\(joinStr.+?)(?=\"\\^\\\\b\\$|\\)\\}\\})", Pattern.DOTALL);
-
-    // Pattern for identifying variable references
-    private static final Pattern VAR_REF_PATTERN = Pattern.compile("\\$(\\w+)");
-
-    // Special case for the "free nitro site" pattern
-    private static final Pattern FREE_NITRO_PATTERN = Pattern.compile("\"\\.\\+nitro.+\\(http.+\\)\"");
+    private MatchEngine.Kind matchEngine = MatchEngine.Kind.REGEX;
+    private volatile EvaluationBudget budget = EvaluationBudget.UNLIMITED;
+    private volatile VerdictCache verdictCache;
+    private volatile AllowList allowList = AllowList.EMPTY;
+    private volatile ScriptCache scriptCache;
+
+    // Description marker of the script, "^\b$" can never match so the script uses it as a comment between patterns
+    private static final String COMMENT_MARKER = "^\b$";
+    private static final String RAW_COMMENT_MARKER = "^\\b$";
+
+    // The fallback script parsed at build time, see FallbackRulesetCompiler
+    public static final String FALLBACK_RULESET = "/censorship/fallback_ruleset.bin";
+
+    // Used when the script can't be fetched
+    public static final String FALLBACK_SCRIPT = """
+        {{/*\s
+        This script will listen for blocked words and if a blocked word is deteccted:
+        direct message the offender, delete the message, and send a warning message in the channel.
+        */}}
+
+        {{/* require blocked text to either have a space before or be the first word */}}
+        {{ $PREFIX := "(?:^|[^a-zA-Z0-9])+" }}
+        {{/* require blocked text to either be the last word or have a space after it */}}
+        {{ $SUFIX := "(?:$|[^a-zA-Z0-9])+" }}
+
+        {{/* allow any number of non-letter characters between each letter */}}
+        {{ $SPLITTER := "[^a-zA-Z0-9]*" }}
+        {{/* also allow certain special characters */}}
+        {{ $SPLITTER_SPECIAL := "[^a-zA-Z0-9:\\"~_*]*" }}
+
+        {{ $a := "[аАaA@ä]" }}
+        {{ $b := "[bB]" }}
+        {{ $c := "[cC]" }}
+        {{ $d := "[dD]" }}
+        {{ $e := "[eE3é]" }}
+        {{ $f := "[fF]" }}
+        {{ $g := "[gG]" }}
+        {{ $h := "[hH]" }}
+        {{ $i := "[1li|LI!]" }}
+        {{ $j := "[jJ]" }}
+        {{ $k := "[kK]" }}
+        {{ $l := $i }}
+        {{ $m := "[mM]" }}
+        {{ $n := "[nN]" }}
+        {{ $o := "[oO0]" }}
+        {{ $p := "[pP]" }}
+        {{ $q := "[qQ]" }}
+        {{ $r := "[rR]" }}
+        {{ $s := "[sSzZ$5]" }}
+        {{ $t := "[tT]" }}
+        {{ $u := "[uU]" }}
+        {{ $v := "[vV]" }}
+        {{ $w := "[wW]" }}
+        {{ $x := "[xX]" }}
+        {{ $y := "[yY]" }}
+        {{ $z := $s }}
+
+        {{/* ^\\b$ will never match anything and is a comment for the following regex. Since I can't put comments in otherwise :/ */}}
+        {{ $acronymRegex := (joinStr "|"
+        "^\\b$  shi"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $s $h $i) $SUFIX)
+        "^\\b$  ffs"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f $f $s) $SUFIX)
+        "^\\b$  fu"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f $u) $SUFIX)
+        "^\\b$  lmfao"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $l $m $f $a (joinStr "" $o "*")) $SUFIX)
+        "^\\b$  fml"
+        (joinStr "" "(?:^|[^A-z0-9]forge.)+" (joinStr $SPLITTER $f $m $l) $SUFIX)
+        "^\\b$  nss"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $n $s $s) $SUFIX)
+        "^\\b$  idfk/c"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $i $d $f "[kKcC]") $SUFIX)
+        "^\\b$  stfu"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $s $t $f $u) $SUFIX)
+        "^\\b$  bamf"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $b $a $m $f) $SUFIX)
+        "^\\b$  gtfo"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $g $t $f $o) $SUFIX)
+        "^\\b$  omfg"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $o $m $f $g) $SUFIX)
+        "^\\b$  atfo"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $a $t $f $o) $SUFIX)
+        "^\\b$  cbt"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $c $b $t) $SUFIX)
+        "^\\b$  rtfm"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $r $t $f $m) $SUFIX)
+        "^\\b$  fyfi"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f $y $f $i) $SUFIX)
+        "^\\b$  af"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $a $f) $SUFIX)
+        "^\\b$  wtf"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $w $t $f) $SUFIX)
+        "^\\b$  ass"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $a $s $s) $SUFIX)
+        "^\\b$  dumbass"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $d $u $m $b $a $s $s) $SUFIX)
+        "^\\b$  milf"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $m $i $l $f) $SUFIX)
+        "^\\b$  hell(a)"
+        (joinStr "" $PREFIX (joinStr "[^A-z0-9'`]*" $h $e $l $l (joinStr "" $a "?") ) $SUFIX)
+        "^\\b$  mf/tf"
+        (joinStr "" $PREFIX (joinStr $SPLITTER_SPECIAL (joinStr "" "(" $m "|" $t ")") $f) $SUFIX)
+        "^\\b$  asf"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $s $s $f) $SUFIX)
+        )}}
+
+        {{/* when concatanating we add regex to make sure the word starts/ends with a space/new line character */}}
+        {{ $exactWordRegex := (joinStr "|"
+        "^\\b$  free nitro site"
+        ".+nitro.+(http(s?))?:\\\\/\\\\/(www\\\\.)?[-a-zA-Z0-9@:%._\\\\+~#=]{1,256}\\\\.[a-zA-Z0-9()]{1,6}\\\\b([-a-zA-Z0-9()@:%_\\\\+.~#?&\\\\/=]*)"
+
+        "^\\b$  dam[m/n](it/ed)"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $d (joinStr "" "(" $a "|[*#])+") (joinStr "" $m "+") "[mMnN]*" (joinStr "" "(" (joinStr "" $i $t) "|" (joinStr "" $e $d) ")?") ) $SUFIX)
+        "^\\b$  [d/z]am[m/n]"
+        (joinStr "" $PREFIX (joinStr $SPLITTER (joinStr "|" "(" $d $z ")") (joinStr "" $a "+") (joinStr "" $m "+") "[mMnN]+" ) $SUFIX)
+        "^\\b$  [god]dammn"
+        (joinStr "" (joinStr $SPLITTER $d $a (joinStr "" $m "+") $n) $SUFIX)
+        "^\\b$  d(r)am[m/n]"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $d (joinStr "" $r "?") (joinStr "" $a "+") (joinStr "" $m "+") "[mMnN]+" ) $SUFIX)
+        "^\\b$  dayum"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $d $a $y $u $m) $SUFIX)
+        "^\\b$  arse"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $a $r $s $e) $SUFIX)
+        "^\\b$  piss(ed)"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $p $i $s $s (joinStr "" "(" $e $d ")?") ) $SUFIX)
+        "^\\b$  orgasm"
+        (joinStr "" (joinStr $SPLITTER $o $r $g $a $s $m ))
+        "^\\b$  bast(a/u)rd"
+        (joinStr "" (joinStr $SPLITTER $b $a $s $t (joinStr "|" "(" $a $u ")") $r $d ) $SUFIX)
+        "^\\b$  bitch"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $b $i $t $c $h ))
+        "^\\b$  sh(i/e)t"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $s $h (joinStr "|" "(" $i $e ")") $t) $SUFIX)
+        "^\\b$ (bull/dog)shit(me)"
+        (joinStr "" (joinStr "" $s $h $i $t))
+        "^\\b$  cock"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $c $o (joinStr "" $c "?") $k) $SUFIX)
+        "^\\b$  dick"
+        (joinStr "" (joinStr $SPLITTER $d $i $c $k))
+        "^\\b$  fag(git/got)"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f $a $g (joinStr "" "(" (joinStr "" $g $i $t) "|" (joinStr "" $g $o $t) ")?") ) $SUFIX)
+        "^\\b$  f(u)(c)k"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f (joinStr "" $u "*") (joinStr "" $c "*") $k))
+        "^\\b$  _fuuuccck"
+        (joinStr "" (joinStr $SPLITTER $f (joinStr "" $u "+") (joinStr "" $c "+") $k))
+        "^\\b$  fk"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $f $k) $SUFIX)
+        "^\\b$  jizz"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $j $i $z $z) $SUFIX)
+        "^\\b$  negro"
+        (joinStr "" (joinStr $SPLITTER $n $e $g $r $o))
+        "^\\b$  nig(ga)(ger)(s)"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $n (joinStr "" "(" $i "|" $o "|8)") $g (joinStr "" "(" (joinStr "" $g $a) "|" (joinStr "" $g $e $r) ")?") (joinStr "" "(" $s ")?") ) $SUFIX)
+        "^\\b$  penis"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $p $e $n $i $s))
+        "^\\b$  retarted"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $r $e $t $a $r $t $e $d) $SUFIX)
+        "^\\b$  orgasm"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $o $r $g $a $s $m) $SUFIX)
+        "^\\b$  pussy"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $p $u $s $s $y) $SUFIX)
+        "^\\b$  whore"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $w $h $o $r $e) $SUFIX)
+        "^\\b$  slut"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $s $l $u $t) $SUFIX)
+        "^\\b$  cunt"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $c $u $n $t) $SUFIX)
+        "^\\b$  porn"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $p $o $r $n))
+        "^\\b$  hent(a)i"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $h $e $n $t (joinStr "" $a "?") $i))
+        "^\\b$  retard"
+        (joinStr "" $PREFIX (joinStr $SPLITTER $r $e $t $a $r $d))
+        )}}
+
+        {{ $regex := (joinStr "|" $acronymRegex $exactWordRegex ) }}
+
+        {{ $blockedMessageResponse := "Be nice, keep the chat PG. \\n\\n**You've been sent a DM** (if you have DM's enabled) **with the blocked message** so it can be edited. \\n\\nAttempting to circumvent this bot may cause the blocks to become more strict." }}
+        {{ $tempMessageDisplayTimeInSeconds := 25 }}
+
+
+
+        {{/* find all regex matches */}}
+        {{$regexMatches := reFindAll $regex .Message.Content}}
+
+
+        {{if ne (len $regexMatches) 0 }}
+        	{{/* This message contained at least one blocked word */}}
+
+
+
+        	{{/* underline the blocked words */}}
+        	{{$messageUnderlined := ""}}
+        	{{/* Loops through every substring between the regex matches */}}
+        	{{- range $regexMatchCount, $subString := (reSplit $regex .Message.Content)}}
+        		{{$messageUnderlined = (joinStr "" $messageUnderlined $subString)}}
+
+        		{{/* Skips adding the underlined regex match, after the final substring  */}}
+        		{{if (gt (len $regexMatches) $regexMatchCount)}}
+        			{{$messageUnderlined = (joinStr ""  $messageUnderlined "__" (index $regexMatches $regexMatchCount) "__")}}
+        		{{end}}
+        	{{- end}}
+
+
+        	{{/* send a direct message to the offender */}}
+        	{{$embed := cembed\s
+        		"title" "Message Deleted"\s
+        		"description" $blockedMessageResponse
+        		"color" 4645612\s
+        		"fields" (cslice\s
+        			(sdict "name" "Your Message" "value" $messageUnderlined "inline" false)
+        			(sdict "name" "Blocked Word(s)" "value" (joinStr ", " (reFindAll $regex .Message.Content)) "inline" false)
+        			(sdict "name" "Note" "value" "Attempting to circumvent this bot may cause the blocks to become more strict." "inline" false)\s
+        		)
+        	}}
+        	{{ sendDM $embed }}
+
+
+
+
+        	{{ deleteMessage nil .Message.ID 0 }}
+
+
+        	{{/* send a message in the chat that the message was deleted */}}
+        	{{$embed := cembed\s
+        		"description" (joinStr " " .User.Mention $blockedMessageResponse)
+        		"color" 4645612\s
+        	}}
+        	{{ $tempMessageId := sendMessageRetID nil $embed }}
+        	{{ deleteMessage nil $tempMessageId $tempMessageDisplayTimeInSeconds }}
+
+
+        	{{/* Log the deleted message */}}
+        	{{$embed := cembed\s
+        		"title" "Deleted Message"\s
+        		"description" $messageUnderlined
+        		"color" 4645612\s
+        		"fields" (cslice\s
+        			(sdict "name" "Blocked Word(s)" "value" (joinStr ", " (reFindAll $regex .Message.Content)) "inline" false)
+        			(sdict "name" "User" "value" (.User.Mention) "inline" true)\s
+        			(sdict "name" "Channel" "value" (.Channel.Mention) "inline" true)\s
+        		)
+        		"thumbnail" (sdict "url" (joinStr "" "https://cdn.discordapp.com/avatars/" (toString .User.ID) "/" .User.Avatar ".png"))\s
+        		"footer" (sdict\s
+        			"text" "YAGPDB.xyz "\s
+        			"icon_url" "https://cdn.discordapp.com/avatars/204255221017214977/2fa57b425415134d4f8b279174131ad6.png"
+        		)
+        		"timestamp" .Message.Timestamp
+        	}}
+        	{{ sendMessage "bot-log" $embed }}
+
+        {{ end }}
+        """;
 
 //    static {
-//        loadParser(CensorshipConfig.DEFAULT_REGEX_URL, true);
+//        loadParser(true, false);
 //    }
 
-    static void loadParser(String URL, boolean debug) {
-        try {
-            instance.debug = debug;
-            instance.loadFromUrl(URL);
-        } catch (IOException | URISyntaxException e) {
-            LOGGER.error("{}, using a fallback!", "Error loading YAGPDB Censor Regex: " + e.getMessage());
-            instance.parseContent("""
-                    {{/*\s
-                    This script will listen for blocked words and if a blocked word is deteccted:
-                    direct message the offender, delete the message, and send a warning message in the channel.
-                    */}}
-                    
-                    {{/* require blocked text to either have a space before or be the first word */}}
-                    {{ $PREFIX := "(?:^|[^a-zA-Z0-9])+" }}
-                    {{/* require blocked text to either be the last word or have a space after it */}}
-                    {{ $SUFIX := "(?:$|[^a-zA-Z0-9])+" }}
-                    
-                    {{/* allow any number of non-letter characters between each letter */}}
-                    {{ $SPLITTER := "[^a-zA-Z0-9]*" }}
-                    {{/* also allow certain special characters */}}
-                    {{ $SPLITTER_SPECIAL := "[^a-zA-Z0-9:\\"~_*]*" }}
-                    
-                    {{ $a := "[аАaA@ä]" }}
-                    {{ $b := "[bB]" }}
-                    {{ $c := "[cC]" }}
-                    {{ $d := "[dD]" }}
-                    {{ $e := "[eE3é]" }}
-                    {{ $f := "[fF]" }}
-                    {{ $g := "[gG]" }}
-                    {{ $h := "[hH]" }}
-                    {{ $i := "[1li|LI!]" }}
-                    {{ $j := "[jJ]" }}
-                    {{ $k := "[kK]" }}
-                    {{ $l := $i }}
-                    {{ $m := "[mM]" }}
-                    {{ $n := "[nN]" }}
-                    {{ $o := "[oO0]" }}
-                    {{ $p := "[pP]" }}
-                    {{ $q := "[qQ]" }}
-                    {{ $r := "[rR]" }}
-                    {{ $s := "[sSzZ$5]" }}
-                    {{ $t := "[tT]" }}
-                    {{ $u := "[uU]" }}
-                    {{ $v := "[vV]" }}
-                    {{ $w := "[wW]" }}
-                    {{ $x := "[xX]" }}
-                    {{ $y := "[yY]" }}
-                    {{ $z := $s }}
-                    
-                    {{/* ^\\b$ will never match anything and is a comment for the following regex. Since I can't put comments in otherwise :/ */}}
-                    {{ $acronymRegex := (joinStr "|"
-                    "^\\b$  shi"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $s $h $i) $SUFIX)
-                    "^\\b$  ffs"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f $f $s) $SUFIX)
-                    "^\\b$  fu"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f $u) $SUFIX)
-                    "^\\b$  lmfao"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $l $m $f $a (joinStr "" $o "*")) $SUFIX)
-                    "^\\b$  fml"
-                    (joinStr "" "(?:^|[^A-z0-9]forge.)+" (joinStr $SPLITTER $f $m $l) $SUFIX)
-                    "^\\b$  nss"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $n $s $s) $SUFIX)
-                    "^\\b$  idfk/c"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $i $d $f "[kKcC]") $SUFIX)
-                    "^\\b$  stfu"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $s $t $f $u) $SUFIX)
-                    "^\\b$  bamf"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $b $a $m $f) $SUFIX)
-                    "^\\b$  gtfo"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $g $t $f $o) $SUFIX)
-                    "^\\b$  omfg"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $o $m $f $g) $SUFIX)
-                    "^\\b$  atfo"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $a $t $f $o) $SUFIX)
-                    "^\\b$  cbt"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $c $b $t) $SUFIX)
-                    "^\\b$  rtfm"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $r $t $f $m) $SUFIX)
-                    "^\\b$  fyfi"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f $y $f $i) $SUFIX)
-                    "^\\b$  af"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $a $f) $SUFIX)
-                    "^\\b$  wtf"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $w $t $f) $SUFIX)
-                    "^\\b$  ass"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $a $s $s) $SUFIX)
-                    "^\\b$  dumbass"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $d $u $m $b $a $s $s) $SUFIX)
-                    "^\\b$  milf"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $m $i $l $f) $SUFIX)
-                    "^\\b$  hell(a)"
-                    (joinStr "" $PREFIX (joinStr "[^A-z0-9'`]*" $h $e $l $l (joinStr "" $a "?") ) $SUFIX)
-                    "^\\b$  mf/tf"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER_SPECIAL (joinStr "" "(" $m "|" $t ")") $f) $SUFIX)
-                    "^\\b$  asf"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $s $s $f) $SUFIX)
-                    )}}
-                    
-                    {{/* when concatanating we add regex to make sure the word starts/ends with a space/new line character */}}
-                    {{ $exactWordRegex := (joinStr "|"
-                    "^\\b$  free nitro site"
-                    ".+nitro.+(http(s?))?:\\\\/\\\\/(www\\\\.)?[-a-zA-Z0-9@:%._\\\\+~#=]{1,256}\\\\.[a-zA-Z0-9()]{1,6}\\\\b([-a-zA-Z0-9()@:%_\\\\+.~#?&\\\\/=]*)"
-                    
-                    "^\\b$  dam[m/n](it/ed)"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $d (joinStr "" "(" $a "|[*#])+") (joinStr "" $m "+") "[mMnN]*" (joinStr "" "(" (joinStr "" $i $t) "|" (joinStr "" $e $d) ")?") ) $SUFIX)
-                    "^\\b$  [d/z]am[m/n]"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER (joinStr "|" "(" $d $z ")") (joinStr "" $a "+") (joinStr "" $m "+") "[mMnN]+" ) $SUFIX)
-                    "^\\b$  [god]dammn"
-                    (joinStr "" (joinStr $SPLITTER $d $a (joinStr "" $m "+") $n) $SUFIX)
-                    "^\\b$  d(r)am[m/n]"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $d (joinStr "" $r "?") (joinStr "" $a "+") (joinStr "" $m "+") "[mMnN]+" ) $SUFIX)
-                    "^\\b$  dayum"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $d $a $y $u $m) $SUFIX)
-                    "^\\b$  arse"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $a $r $s $e) $SUFIX)
-                    "^\\b$  piss(ed)"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $p $i $s $s (joinStr "" "(" $e $d ")?") ) $SUFIX)
-                    "^\\b$  orgasm"
-                    (joinStr "" (joinStr $SPLITTER $o $r $g $a $s $m ))
-                    "^\\b$  bast(a/u)rd"
-                    (joinStr "" (joinStr $SPLITTER $b $a $s $t (joinStr "|" "(" $a $u ")") $r $d ) $SUFIX)
-                    "^\\b$  bitch"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $b $i $t $c $h ))
-                    "^\\b$  sh(i/e)t"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $s $h (joinStr "|" "(" $i $e ")") $t) $SUFIX)
-                    "^\\b$ (bull/dog)shit(me)"
-                    (joinStr "" (joinStr "" $s $h $i $t))
-                    "^\\b$  cock"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $c $o (joinStr "" $c "?") $k) $SUFIX)
-                    "^\\b$  dick"
-                    (joinStr "" (joinStr $SPLITTER $d $i $c $k))
-                    "^\\b$  fag(git/got)"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f $a $g (joinStr "" "(" (joinStr "" $g $i $t) "|" (joinStr "" $g $o $t) ")?") ) $SUFIX)
-                    "^\\b$  f(u)(c)k"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f (joinStr "" $u "*") (joinStr "" $c "*") $k))
-                    "^\\b$  _fuuuccck"
-                    (joinStr "" (joinStr $SPLITTER $f (joinStr "" $u "+") (joinStr "" $c "+") $k))
-                    "^\\b$  fk"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $f $k) $SUFIX)
-                    "^\\b$  jizz"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $j $i $z $z) $SUFIX)
-                    "^\\b$  negro"
-                    (joinStr "" (joinStr $SPLITTER $n $e $g $r $o))
-                    "^\\b$  nig(ga)(ger)(s)"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $n (joinStr "" "(" $i "|" $o "|8)") $g (joinStr "" "(" (joinStr "" $g $a) "|" (joinStr "" $g $e $r) ")?") (joinStr "" "(" $s ")?") ) $SUFIX)
-                    "^\\b$  penis"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $p $e $n $i $s))
-                    "^\\b$  retarted"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $r $e $t $a $r $t $e $d) $SUFIX)
-                    "^\\b$  orgasm"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $o $r $g $a $s $m) $SUFIX)
-                    "^\\b$  pussy"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $p $u $s $s $y) $SUFIX)
-                    "^\\b$  whore"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $w $h $o $r $e) $SUFIX)
-                    "^\\b$  slut"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $s $l $u $t) $SUFIX)
-                    "^\\b$  cunt"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $c $u $n $t) $SUFIX)
-                    "^\\b$  porn"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $p $o $r $n))
-                    "^\\b$  hent(a)i"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $h $e $n $t (joinStr "" $a "?") $i))
-                    "^\\b$  retard"
-                    (joinStr "" $PREFIX (joinStr $SPLITTER $r $e $t $a $r $d))
-                    )}}
-                    
-                    {{ $regex := (joinStr "|" $acronymRegex $exactWordRegex ) }}
-                    
-                    {{ $blockedMessageResponse := "Be nice, keep the chat PG. \\n\\n**You've been sent a DM** (if you have DM's enabled) **with the blocked message** so it can be edited. \\n\\nAttempting to circumvent this bot may cause the blocks to become more strict." }}
-                    {{ $tempMessageDisplayTimeInSeconds := 25 }}
-                    
-                    
-                    
-                    {{/* find all regex matches */}}
-                    {{$regexMatches := reFindAll $regex .Message.Content}}
-                    
-                    
-                    {{if ne (len $regexMatches) 0 }}
-                    	{{/* This message contained at least one blocked word */}}
-                    
-                    
-                    
-                    	{{/* underline the blocked words */}}
-                    	{{$messageUnderlined := ""}}
-                    	{{/* Loops through every substring between the regex matches */}}
-                    	{{- range $regexMatchCount, $subString := (reSplit $regex .Message.Content)}}
-                    		{{$messageUnderlined = (joinStr "" $messageUnderlined $subString)}}
-                    
-                    		{{/* Skips adding the underlined regex match, after the final substring  */}}
-                    		{{if (gt (len $regexMatches) $regexMatchCount)}}
-                    			{{$messageUnderlined = (joinStr ""  $messageUnderlined "__" (index $regexMatches $regexMatchCount) "__")}}
-                    		{{end}}
-                    	{{- end}}
-                    
-                    
-                    	{{/* send a direct message to the offender */}}
-                    	{{$embed := cembed\s
-                    		"title" "Message Deleted"\s
-                    		"description" $blockedMessageResponse
-                    		"color" 4645612\s
-                    		"fields" (cslice\s
-                    			(sdict "name" "Your Message" "value" $messageUnderlined "inline" false)
-                    			(sdict "name" "Blocked Word(s)" "value" (joinStr ", " (reFindAll $regex .Message.Content)) "inline" false)
-                    			(sdict "name" "Note" "value" "Attempting to circumvent this bot may cause the blocks to become more strict." "inline" false)\s
-                    		)
-                    	}}
-                    	{{ sendDM $embed }}
-                    
-                    
-                    
-                    
-                    	{{ deleteMessage nil .Message.ID 0 }}
-                    
-                    
-                    	{{/* send a message in the chat that the message was deleted */}}
-                    	{{$embed := cembed\s
-                    		"description" (joinStr " " .User.Mention $blockedMessageResponse)
-                    		"color" 4645612\s
-                    	}}
-                    	{{ $tempMessageId := sendMessageRetID nil $embed }}
-                    	{{ deleteMessage nil $tempMessageId $tempMessageDisplayTimeInSeconds }}
-                    
-                    
-                    	{{/* Log the deleted message */}}
-                    	{{$embed := cembed\s
-                    		"title" "Deleted Message"\s
-                    		"description" $messageUnderlined
-                    		"color" 4645612\s
-                    		"fields" (cslice\s
-                    			(sdict "name" "Blocked Word(s)" "value" (joinStr ", " (reFindAll $regex .Message.Content)) "inline" false)
-                    			(sdict "name" "User" "value" (.User.Mention) "inline" true)\s
-                    			(sdict "name" "Channel" "value" (.Channel.Mention) "inline" true)\s
-                    		)
-                    		"thumbnail" (sdict "url" (joinStr "" "https://cdn.discordapp.com/avatars/" (toString .User.ID) "/" .User.Avatar ".png"))\s
-                    		"footer" (sdict\s
-                    			"text" "YAGPDB.xyz "\s
-                    			"icon_url" "https://cdn.discordapp.com/avatars/204255221017214977/2fa57b425415134d4f8b279174131ad6.png"
-                    		)
-                    		"timestamp" .Message.Timestamp
-                    	}}
-                    	{{ sendMessage "bot-log" $embed }}
-                    
-                    {{ end }}
-                    """);
-        }
+    /**
+     * Start out with the script cached from the last download, or the fallback script if there is none.
+     * {@link RulesetReloader} swaps in the remote one once it arrived
+     *
+     * @param cache where the last download of {@code url} was kept, may be null
+     */
+    static void loadParser(boolean debug, MatchEngine.Kind matchEngine, ScriptCache cache, String url) {
+        long start = System.nanoTime();
+        configure(debug, matchEngine);
+        instance.scriptCache = cache;
+        String source = "cached";
+        if (cache == null || !instance.loadCached(cache, url)) {
+            source = "fallback";
+            instance.loadFallback();
+        }
+        LOGGER.info("Censoring chat with the {} ruleset ({} patterns) after {} ms", source, instance.getPatternCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
-    public void loadFromUrl(String urlString) throws IOException, URISyntaxException {
-        URL url = new URI(urlString).toURL();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()))) {
-            StringBuilder content = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+    /**
+     * Activate the fallback script, from the ruleset precompiled at build time unless it is missing or out of date
+     */
+    private void loadFallback() {
+        try (InputStream in = YAGPDBParser.class.getResourceAsStream(FALLBACK_RULESET)) {
+            if (in != null) {
+                RulesetSnapshot snapshot = RulesetSnapshot.read(in);
+                if (snapshot.scriptSha256().equals(ScriptCache.sha256(FALLBACK_SCRIPT))) {
+                    publish(compileSnapshot(snapshot), FALLBACK_SCRIPT);
+                    return;
+                }
+                LOGGER.warn("Precompiled fallback ruleset is out of date, parsing the fallback script instead");
             }
-            parseContent(content.toString());
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read the precompiled fallback ruleset, parsing the fallback script instead: {}", e.getMessage());
         }
+        parseContent(FALLBACK_SCRIPT);
     }
 
-    public void parseContent(String content) {
-        censoredPatterns.clear();
-        variables.clear();
-
-        // 1. Extract all variable definitions (PREFIX, SUFIX, character classes, etc.)
-        Matcher varMatcher = VARIABLE_PATTERN.matcher(content);
-        while (varMatcher.find()) {
-            String name = varMatcher.group(1);
-            String value = varMatcher.group(2);
-            variables.put(name, value);
-        }
-
-        // 2. Process special character class case for $l and $z
-        if (variables.containsKey("i") && !variables.containsKey("l")) {
-            variables.put("l", variables.get("i"));
-        }
-        if (variables.containsKey("s") && !variables.containsKey("z")) {
-            variables.put("z", variables.get("s"));
-        }
-
-        if (debug) {
-            System.out.println("Loaded variables: " + variables.size());
-            for (Map.Entry<String, String> entry : variables.entrySet()) {
-                System.out.println("$" + entry.getKey() + " = " + entry.getValue());
-            }
-        }
-
-        // 3. Find and process each regex section (acronymRegex, exactWordRegex)
-        Matcher sectionMatcher = SECTION_PATTERN.matcher(content);
-        while (sectionMatcher.find()) {
-            String sectionName = sectionMatcher.group(1);
-            String sectionContent = sectionMatcher.group(2);
-            if (debug) {
-                System.out.println("Processing section: " + sectionName);
-            }
-            processRegexSection(sectionContent);
-        }
-
-        // 4. Handle special case for nitro scam pattern
-        Matcher nitroMatcher = FREE_NITRO_PATTERN.matcher(content);
-        if (nitroMatcher.find()) {
-            String nitroPattern = ".+nitro.+(http(s?))?://(www\\.)?[-a-zA-Z0-9@:%._\\+~#=]{1,256}\\.[a-zA-Z0-9()]{1,6}\\b([-a-zA-Z0-9()@:%_\\+.~#?&/=]*)";
-            censoredPatterns.add(new CensoredPattern("free nitro site", nitroPattern));
-        }
+    /**
+     * Activate the cached script, its patterns are only parsed again when the cached ones belong to another script
+     *
+     * @return false if nothing usable was cached
+     */
+    private boolean loadCached(ScriptCache cache, String url) {
+        ScriptCache.Entry entry = cache.load(url);
+        if (entry == null) return false;
+
+        CensorRuleset compiled = compileCached(entry.script());
+        if (compiled.size() == 0) return false;
+        publish(compiled, entry.script());
+        return true;
     }
 
     /**
-     * Process a regex section like acronymRegex or exactWordRegex
+     * Set how the next parsed script is compiled
      */
-    private void processRegexSection(String sectionContent) {
-        Matcher patternMatcher = PATTERN_ENTRY.matcher(sectionContent);
-        while (patternMatcher.find()) {
-            String description = patternMatcher.group(1).trim();
-            String patternDefinition = patternMatcher.group(2).trim();
-
-            if (debug) {
-                System.out.println("\nFound pattern: " + description);
-                System.out.println("Definition: " + patternDefinition);
-            }
+    static void configure(boolean debug, MatchEngine.Kind matchEngine) {
+        instance.debug = debug;
+        instance.matchEngine = matchEngine;
+    }
 
-            String javaRegex = extractJoinStrContent(patternDefinition, description);
-
-            if (javaRegex != null && !javaRegex.isEmpty()) {
-                // Clean up the final regex by removing extraneous quotes and spaces
-                javaRegex = cleanupFinalRegex(javaRegex);
-                
-                // Properly handle word boundaries by using lookahead/lookbehind
-                // This ensures the parser can match words like "asshole" while filtering "ass"
-                if (javaRegex.endsWith(variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+"))) {
-                    // Instead of removing SUFIX entirely, use negative lookahead for common word extensions
-                    String suffixPattern = variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+");
-                    javaRegex = javaRegex.substring(0, javaRegex.length() - suffixPattern.length()) + 
-                                "(?:$|[^a-zA-Z0-9]|(?=[a-zA-Z0-9]*(?:hole|man|er|ers|ish|ing|ed|es|y|ity|ment)))";
-                }
-                
-                // Make sure patterns are accurate to the original regex
-                if (debug) {
-                    System.out.println("Parsed regex: " + javaRegex);
-                }
-                censoredPatterns.add(new CensoredPattern(description, javaRegex));
-            } else {
-                // Fall back to simple pattern if extraction failed
-                String simplePattern = createSimplePatternFromDescription(description);
-                if (debug) {
-                    System.out.println("Using fallback pattern for '" + description + "': " + simplePattern);
-                }
-                censoredPatterns.add(new CensoredPattern(description, simplePattern));
-            }
-        }
+    static void setEvaluationBudget(EvaluationBudget budget) {
+        instance.budget = budget;
     }
 
     /**
-     * Clean up quotes and spaces in the final regex
+     * Matches within one of these words are dropped
      */
-    private String cleanupFinalRegex(String regex) {
-        // General fix for quoted expressions
-        regex = regex.replaceAll("\"\\s*([^\"]+)\\s*\"", "$1");
-        
-        // Fix character classes that might still have quotes
-        regex = regex.replaceAll("\"\\[([^\\]]+)\\]\"", "[$1]");
-        
-        // Fix nested alternations with multiple options
-        regex = regex.replaceAll("\\(([^()]+)\\|([^()]+)\\|([^()]+)\\)", "($1|$2|$3)");
-        regex = regex.replaceAll("\\(([^()]+)\\|([^()]+)\\)", "($1|$2)");
-        
-        // Fix double quotes around alternations
-        regex = regex.replaceAll("\"\\(([^)]+)\\)\"", "($1)");
-        
-        // Fix alternations with character classes
-        regex = regex.replaceAll("\\[([^\\]]+)\\]\\s*\\|\\s*\\[([^\\]]+)\\]", "[$1]|[$2]");
-        
-        // Handle empty option at start of alternation (used to make alternation optional)
-        regex = regex.replaceAll("\\(\\|", "(|");
-        
-        // Clean up extra spaces around alternation pipes
-        regex = regex.replaceAll("\\|\\s+", "\\|");
-        regex = regex.replaceAll("\\s+\\|", "\\|");
-        
-        // Remove any remaining double quotes
-        regex = regex.replaceAll("\"", "");
-        
-        return regex;
+    static void setAllowList(AllowList allowList) {
+        instance.allowList = allowList;
     }
 
     /**
-     * Extract the content from a joinStr expression
+     * Cache up to {@code size} verdicts, 0 disables the cache
      */
-    private String extractJoinStrContent(String joinStr, String description) {
-        try {
-            if (joinStr.startsWith("(joinStr \"\"")) {
-                // Get the content after the opening declaration
-                int contentStart = joinStr.indexOf("(joinStr \"\"") + "(joinStr \"\"".length();
-                // Find the position of the last closing parenthesis
-                int lastParen = findMatchingClosingParenthesis(joinStr, 0);
-
-                if (lastParen > contentStart) {
-                    String content = joinStr.substring(contentStart, lastParen).trim();
-                    return processJoinStrParts(content);
-                }
-            }
+    static void setVerdictCacheSize(int size) {
+        instance.verdictCache = size > 0 ? new VerdictCache(size) : null;
+    }
 
-            // Try to extract just the inner part of the first join string
-            Pattern innerJoinPattern = Pattern.compile("\\(joinStr\\s+\"\"\\s+(.*?)\\)", Pattern.DOTALL);
-            Matcher innerMatcher = innerJoinPattern.matcher(joinStr);
-            if (innerMatcher.find()) {
-                return processJoinStrParts(innerMatcher.group(1).trim());
+    public void loadFromUrl(String urlString) throws IOException, URISyntaxException {
+        URLConnection connection = new URI(urlString).toURL().openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+            StringBuilder content = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append("\n");
             }
-        } catch (Exception e) {
-            LOGGER.error("{}{}", "Error extracting joinStr for '" + description + "': ", e.getMessage());
+            CensorRuleset compiled = compileCached(content.toString());
+            publish(compiled, content.toString());
+            if (compiled.size() > 0) cacheDownload(urlString, content.toString(), null, null);
         }
-
-        return null;
     }
 
     /**
-     * Process the parts inside a joinStr expression
+     * Like {@link #compileScript(String)}, but takes the cached patterns instead of parsing the script when the cache
+     * holds exactly this script
      */
-    private String processJoinStrParts(String joinContent) {
-        StringBuilder result = new StringBuilder();
-        String[] parts = splitJoinContentParts(joinContent);
-
-        for (String part : parts) {
-            part = part.trim();
-            if (part.isEmpty()) continue;
-
-            if (part.startsWith("$PREFIX")) {
-                result.append(variables.getOrDefault("PREFIX", "(?:^|[^a-zA-Z0-9])+"));
-            } else if (part.startsWith("$SUFIX")) {
-                result.append(variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+"));
-            } else if (part.startsWith("(joinStr $SPLITTER")) {
-                result.append(processLetterSequence(part));
-            } else if (part.startsWith("(joinStr $SPLITTER_SPECIAL")) {
-                result.append(processLetterSequence(part));
-            } else if (part.startsWith("(joinStr \"[^A-z0-9'`]*\"")) {
-                // Special case for hell(a) pattern with custom splitter
-                result.append(processCustomSplitterSequence(part, "[^A-z0-9'`]*"));
-            } else if (part.startsWith("(joinStr \"\"")) {
-                result.append(processNestedJoinStr(part));
-            } else if (part.startsWith("(joinStr \"|\"")) {
-                // Detect special case for sh(i/e)t pattern: (joinStr "|" "(" $i $e ")")
-                if (part.contains("\"(\"") && part.contains("$") && part.endsWith("\")\"")) {
-                    result.append(processNestedJoinStr(part));
-                } else {
-                    result.append(processOptionJoinStr(part));
-                }
-            } else if (part.startsWith("\"(?:^|[^A-z0-9]forge.)+\"")) {
-                result.append("(?:^|[^A-z0-9]forge.)+");
-            } else if (part.startsWith("[^A-z0-9'`]*")) {
-                result.append(part);
-            } else if (part.startsWith("$")) {
-                String varName = part.substring(1);
-                result.append(variables.getOrDefault(varName, part));
-            } else if (part.startsWith("\"") && part.endsWith("\"")) {
-                // Handle quoted strings - remove quotes and process any nested expressions
-                String unquoted = part.substring(1, part.length()-1);
-                // Check if the quoted string contains joinStr expressions and process them
-                if (unquoted.contains("(joinStr")) {
-                    result.append(processNestedExpressions(unquoted));
-                } else {
-                    result.append(replaceVariables(unquoted));
-                }
-            } else {
-                result.append(part);
-            }
-        }
-
-        return result.toString();
+    public CensorRuleset compileCached(String content) {
+        ScriptCache cache = scriptCache;
+        if (cache == null) return compileScript(content);
+
+        String sha256 = ScriptCache.sha256(content);
+        RulesetSnapshot snapshot = cache.loadSnapshot(sha256);
+        if (snapshot != null) return compileSnapshot(snapshot);
+        CensorRuleset compiled = compileScript(content);
+        if (compiled.size() > 0) cache.saveSnapshot(RulesetSnapshot.of(sha256, compiled));
+        return compiled;
     }
 
     /**
-     * Process a letter sequence with a custom splitter pattern
+     * Keep a downloaded script for the next start, its patterns were already cached by {@link #compileCached(String)}
      */
-    private String processCustomSplitterSequence(String joinStr, String splitterPattern) {
-        StringBuilder result = new StringBuilder();
-
-        // Extract content between first opening parenthesis and matching closing parenthesis
-        int openParen = joinStr.indexOf('(');
-        if (openParen >= 0) {
-            int closeParen = findMatchingClosingParenthesis(joinStr, openParen);
-            if (closeParen > openParen) {
-                String content = joinStr.substring(openParen + 1, closeParen);
-
-                // Find where the parameters start after "joinStr "splitterPattern""
-                int paramsStart = content.indexOf("joinStr \"" + splitterPattern + "\"");
-                if (paramsStart >= 0) {
-                    // Skip past the splitter pattern declaration
-                    String params = content.substring(paramsStart + ("joinStr \"" + splitterPattern + "\"").length()).trim();
-                    String[] parts = splitJoinContentParts(params);
-
-                    for (int i = 0; i < parts.length; i++) {
-                        String part = parts[i].trim();
-                        if (part.isEmpty()) continue;
-
-                        if (part.startsWith("$")) {
-                            String varName = part.substring(1);
-                            result.append(variables.getOrDefault(varName, part));
-                        } else if (part.startsWith("(joinStr \"\"")) {
-                            // Handle nested joinStr - for cases like (joinStr "" $a "?")
-                            String processedNested = processNestedJoinStr(part);
-                            // If it's optional (like $a "?"), add a question mark
-                            if (part.contains("\"?\"")) {
-                                result.append(processedNested).append("?");
-                            } else {
-                                result.append(processedNested);
-                            }
-                        } else if (part.startsWith("(joinStr")) {
-                            result.append(processNestedJoinStr(part));
-                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
-                            String unquoted = part.substring(1, part.length()-1);
-                            result.append(unquoted);
-                        } else {
-                            result.append(part);
-                        }
-
-                        // Add custom splitter between parts (except after the last part)
-                        if (i < parts.length - 1) {
-                            result.append(splitterPattern);
-                        }
-                    }
-                }
-            }
-        }
-
-        return result.toString();
+    public void cacheDownload(String url, String content, String etag, String lastModified) {
+        ScriptCache cache = scriptCache;
+        if (cache != null) cache.save(url, content, etag, lastModified);
     }
 
     /**
-     * Replace variable references ($var) with their values
+     * Parse and compile a script and make it the active ruleset
      */
-    private String replaceVariables(String text) {
-        // Process special case where text contains ($var1|$var2) or similar
-        if (text.contains("(") && text.contains(")") && text.contains("$") && text.contains("|")) {
-            int openParen = text.indexOf('(');
-            if (openParen >= 0) {
-                int closeParen = findMatchingClosingParenthesis(text, openParen);
-                if (closeParen > openParen) {
-                    String prefix = text.substring(0, openParen);
-                    String suffix = text.substring(closeParen + 1);
-                    String group = text.substring(openParen, closeParen + 1);
-
-                    return prefix + processParenthesizedVarGroup(group) + suffix;
-                }
-            }
-        }
-
-        // Standard variable replacement
-        Matcher matcher = VAR_REF_PATTERN.matcher(text);
-        StringBuilder result = new StringBuilder();
-
-        while (matcher.find()) {
-            String varName = matcher.group(1);
-            String replacement = variables.getOrDefault(varName, "$" + varName);
-            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(result);
-
-        return result.toString();
+    public CensorRuleset parseContent(String content) {
+        CensorRuleset compiled = compileScript(content);
+        publish(compiled, content);
+        return compiled;
     }
 
     /**
-     * Split a join content into its constituent parts, respecting nested parentheses and quotes
+     * Parse and compile a script without activating it, chat keeps being checked against the current ruleset meanwhile
      */
-    private String[] splitJoinContentParts(String joinContent) {
-        List<String> parts = new ArrayList<>();
-        StringBuilder currentPart = new StringBuilder();
-        int parenthesesDepth = 0;
-        boolean inQuotes = false;
-
-        for (int i = 0; i < joinContent.length(); i++) {
-            char c = joinContent.charAt(i);
-
-            if (c == '"') {
-                inQuotes = !inQuotes;
-                currentPart.append(c);
-            } else if (c == '(') {
-                parenthesesDepth++;
-                currentPart.append(c);
-            } else if (c == ')') {
-                parenthesesDepth--;
-                currentPart.append(c);
-            } else if (c == ' ' && parenthesesDepth == 0 && !inQuotes) {
-                if (!currentPart.isEmpty()) {
-                    parts.add(currentPart.toString());
-                    currentPart = new StringBuilder();
-                }
-            } else {
-                currentPart.append(c);
-            }
+    public synchronized CensorRuleset compileScript(String content) {
+        try {
+            return compileScript(new StringReader(content));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        if (!currentPart.isEmpty()) {
-            parts.add(currentPart.toString());
-        }
+    /**
+     * Same as {@link #compileScript(String)}, reading the script as it goes
+     */
+    public synchronized CensorRuleset compileScript(Reader script) throws IOException {
+        long start = System.nanoTime();
+        List<CensoredPattern> censoredPatterns = parseScript(script);
 
-        return parts.toArray(new String[0]);
+        // 3. Compile everything once, the chat path only reads the resulting ruleset
+        return compile(censoredPatterns, variables, start);
     }
 
     /**
-     * Process a letter sequence like (joinStr $SPLITTER $a $b $c)
+     * Turn a script into its patterns in a single pass, its variables end up in {@link #variables}
      */
-    private String processLetterSequence(String joinStr) {
-        StringBuilder result = new StringBuilder();
+    synchronized List<CensoredPattern> parseScript(Reader script) throws IOException {
+        List<CensoredPattern> censoredPatterns = new ArrayList<>();
+        variables.clear();
 
-        // Extract all parameters inside the joinStr
-        String splitterVar = "$SPLITTER";
-        if (joinStr.contains("$SPLITTER_SPECIAL")) {
-            splitterVar = "$SPLITTER_SPECIAL";
-        }
+        // 1. Walk the actions one by one, binding variables and turning the entries of pattern sections into regexes
+        TemplateParser parser = new TemplateParser(script);
+        TemplateEvaluator evaluator = new TemplateEvaluator();
+        try {
+            for (TemplateNode action = parser.nextAction(); action != null; action = parser.nextAction()) {
+                if (!(action instanceof TemplateNode.Declaration declaration)) continue;
 
-        // Extract content between first opening parenthesis and matching closing parenthesis
-        int openParen = joinStr.indexOf('(');
-        if (openParen >= 0) {
-            int closeParen = findMatchingClosingParenthesis(joinStr, openParen);
-            if (closeParen > openParen) {
-                String content = joinStr.substring(openParen + 1, closeParen);
-
-                // Get everything after the splitter variable
-                int splitterIndex = content.indexOf(splitterVar);
-                if (splitterIndex >= 0) {
-                    String afterSplitter = content.substring(splitterIndex + splitterVar.length()).trim();
-                    String[] parts = splitJoinContentParts(afterSplitter);
-
-                    String splitter = variables.getOrDefault(
-                        splitterVar.substring(1), // remove $ prefix
-                        splitterVar.equals("$SPLITTER") ? "[^a-zA-Z0-9]*" : "[^a-zA-Z0-9:\"~_*]*"
-                    );
-
-                    for (int i = 0; i < parts.length; i++) {
-                        String part = parts[i].trim();
-
-                        if (part.isEmpty()) continue;
-
-                        // Add the current part
-                        if (part.startsWith("$")) {
-                            String varName = part.substring(1);
-                            result.append(variables.getOrDefault(varName, part));
-                        } else if (part.startsWith("(joinStr \"|\"") && part.contains("\"(\"") && part.contains("\")\"")) {
-                            // This is a special alternation pattern (i|e)
-                            String alternation = processNestedJoinStr(part);
-                            result.append(alternation);
-                        } else if (part.startsWith("(joinStr")) {
-                            result.append(processNestedJoinStr(part));
-                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
-                            // Remove quotes and check for nested expressions
-                            String unquoted = part.substring(1, part.length()-1);
-                            if (unquoted.contains("(joinStr")) {
-                                result.append(processNestedExpressions(unquoted));
-                            } else if (unquoted.contains("$")) {
-                                // Make sure we process any variables in quoted strings
-                                result.append(replaceVariables(unquoted));
-                            } else {
-                                result.append(unquoted);
-                            }
-                        } else {
-                            result.append(part);
-                        }
-
-                        // Add splitter after each part except the last one
-                        if (i < parts.length - 1) {
-                            result.append(splitter);
-                        }
+                if (declaration.value() instanceof TemplateNode.Call call && isPatternSection(call)) {
+                    if (debug) {
+                        System.out.println("Processing section: " + declaration.variable());
                     }
+                    evaluator.bind(declaration.variable(), processRegexSection(call.arguments(), evaluator, censoredPatterns));
+                    continue;
+                }
+                // 2. Plain strings and aliases of them are the template variables ($a, $SPLITTER, ...)
+                if (evaluator.declare(declaration)
+                        && (declaration.value() instanceof TemplateNode.StringLiteral || declaration.value() instanceof TemplateNode.Variable)) {
+                    variables.put(declaration.variable(), evaluator.value(declaration.variable()));
                 }
             }
+        } catch (TemplateException e) {
+            LOGGER.error("Censor script isn't a valid template, ignoring everything after: {}", e.getMessage());
         }
 
-        return result.toString();
-    }
-
-    /**
-     * Process a nested joinStr expression
-     */
-    private String processNestedJoinStr(String nestedJoinStr) {
-        // Find the outermost matching parentheses
-        int firstParen = nestedJoinStr.indexOf('(');
-        if (firstParen == -1) return nestedJoinStr;
-
-        int lastParen = findMatchingClosingParenthesis(nestedJoinStr, firstParen);
-        if (lastParen == -1) return nestedJoinStr;
-
-        // Extract the content within the parentheses
-        String innerExpression = nestedJoinStr.substring(firstParen + 1, lastParen);
-
-        // Handle different joinStr formats
-        if (innerExpression.startsWith("joinStr \"\"")) {
-            // Format: (joinStr "" $var1 $var2)
-            String params = innerExpression.substring("joinStr \"\"".length()).trim();
-            return processJoinStrParts(params);
-        } else if (innerExpression.startsWith("joinStr \"|\"")) {
-            // Special case for format: (joinStr "|" "(" $i $e ")") or variations
-            if (innerExpression.contains("\"(\"") && innerExpression.contains("\")\"")) {
-                // Extract content between parentheses for alternation
-                int openParenPos = innerExpression.indexOf("\"(\"");
-                int closeParenPos = innerExpression.lastIndexOf("\")\"");
-                
-                if (openParenPos >= 0 && closeParenPos > openParenPos) {
-                    StringBuilder result = new StringBuilder("(");
-                    String varContent = innerExpression.substring(openParenPos + 3, closeParenPos).trim();
-                    String[] parts = splitJoinContentParts(varContent);
-                    boolean first = true;
-                    
-                    // Handle the case where the entire alternation is optional (like "sh(i/e)t" matching "sht")
-                    // We first add an empty option at the beginning
-                    result.append("|");
-                    
-                    for (String part : parts) {
-                        if (part.trim().isEmpty()) continue;
-                        
-                        if (!first) result.append("|");
-                        first = false;
-                        
-                        if (part.startsWith("$")) {
-                            String varName = part.substring(1);
-                            result.append(variables.getOrDefault(varName, "$" + varName));
-                        } else if (part.startsWith("\"") && part.endsWith("\"")) {
-                            String unquoted = part.substring(1, part.length() - 1);
-                            result.append(replaceVariables(unquoted));
-                        } else {
-                            result.append(part);
-                        }
-                    }
-                    
-                    result.append(")");
-                    // Make the alternation optional using ?
-                    return result.toString() + "?";
-                }
+        if (debug) {
+            System.out.println("Loaded variables: " + variables.size());
+            for (Map.Entry<String, String> entry : variables.entrySet()) {
+                System.out.println("$" + entry.getKey() + " = " + entry.getValue());
             }
-
-            // Other "|" join formats
-            return processOptionJoinStr(nestedJoinStr);
         }
 
-        return nestedJoinStr; // Return unchanged if format not recognized
+        return censoredPatterns;
     }
 
     /**
-     * Process nested joinStr expressions within a string
+     * Compile patterns that were parsed before, skipping the script entirely
      */
-    private String processNestedExpressions(String text) {
-        if (!text.contains("(joinStr") && !text.contains("$")) {
-            return text;
-        }
-
-        // Handle simple variable replacement if there are no nested expressions
-        if (!text.contains("(joinStr")) {
-            return replaceVariables(text);
-        }
-
-        StringBuilder result = new StringBuilder();
-        int start = 0;
-
-        while (start < text.length()) {
-            int joinStrPos = text.indexOf("(joinStr", start);
-
-            if (joinStrPos == -1) {
-                // No more joinStr expressions, process the rest of the text
-                result.append(replaceVariables(text.substring(start)));
-                break;
-            }
-
-            // Append everything before the joinStr expression with variable substitution
-            if (joinStrPos > start) {
-                result.append(replaceVariables(text.substring(start, joinStrPos)));
-            }
-
-            // Find the matching closing parenthesis for this joinStr
-            int closeParen = findMatchingClosingParenthesis(text, joinStrPos);
-            if (closeParen == -1) {
-                // Unmatched parenthesis, just append the rest and break
-                result.append(replaceVariables(text.substring(joinStrPos)));
-                break;
-            }
-
-            // Process this complete joinStr expression
-            String joinStrExpr = text.substring(joinStrPos, closeParen + 1);
-            String processed = processNestedJoinStr(joinStrExpr);
-            result.append(processed);
+    public synchronized CensorRuleset compileSnapshot(RulesetSnapshot snapshot) {
+        return compile(snapshot.patterns(), snapshot.variables(), System.nanoTime());
+    }
 
-            // Move past this expression
-            start = closeParen + 1;
+    private CensorRuleset compile(List<CensoredPattern> censoredPatterns, Map<String, String> variables, long start) {
+        CensorRuleset ruleset = CensorRuleset.compile(censoredPatterns, variables, matchEngine.engine());
+        CensorshipMetrics.instance.recordRulesetLoad(System.nanoTime() - start);
+        if (debug) {
+            System.out.println("Normalizer maps every char onto one of " + ruleset.normalizer().classCount() + " canonical chars");
+            System.out.println("Prefilter has a skeleton for " + ruleset.prefilter().skeletonCount() + " of " + ruleset.size() + " patterns");
+            System.out.println(ruleset.matcher().describeStats());
         }
-
-        return result.toString();
+        return ruleset;
     }
 
     /**
-     * Process a parenthesized group containing variable references like ($i|$e)
+     * Swap in a compiled ruleset in one go, checks that already started finish with the ruleset they started with
+     *
+     * @param script the script the ruleset was compiled from
      */
-    private String processParenthesizedVarGroup(String group) {
-        if (!group.startsWith("(") || !group.endsWith(")")) {
-            return group; // Not a proper group
-        }
-
-        // Remove the outer parentheses
-        String content = group.substring(1, group.length() - 1);
+    public void publish(CensorRuleset ruleset, String script) {
+        // Patterns the old ruleset shares with this one keep the order learnt for them, on startup it comes from disk
+        Map<String, long[]> stats = this.ruleset.patternOrder().snapshot();
+        ScriptCache cache = scriptCache;
+        if (stats.isEmpty() && cache != null) stats = cache.loadPatternStats();
+        ruleset.patternOrder().seed(stats);
+        this.ruleset = ruleset;
+        this.script = script;
+        // Verdicts of the old ruleset can't be hit anymore, no need to keep them around
+        VerdictCache verdictCache = this.verdictCache;
+        if (verdictCache != null) verdictCache.invalidateAll();
+    }
 
-        // Check if this contains nested joinStr expressions
-        if (content.contains("(joinStr")) {
-            return "(" + processNestedExpressions(content) + ")";
-        }
+    /**
+     * A joinStr "|" whose arguments are commented with "^\b$ description", like acronymRegex or exactWordRegex
+     */
+    private static boolean isPatternSection(TemplateNode.Call call) {
+        return call.function().equals("joinStr")
+                && !call.arguments().isEmpty()
+                && call.arguments().getFirst() instanceof TemplateNode.StringLiteral separator && separator.value().equals("|")
+                && call.arguments().stream().anyMatch(argument -> commentOf(argument) != null);
+    }
 
-        // Standard processing - preserve the alternation structure
-        String[] parts = content.split("\\|");
-        StringBuilder result = new StringBuilder("(");
+    /**
+     * The description of a "^\b$ description" comment, null if the node isn't one
+     */
+    private static String commentOf(TemplateNode node) {
+        if (!(node instanceof TemplateNode.StringLiteral literal)) return null;
+        if (literal.value().startsWith(COMMENT_MARKER)) return literal.value().substring(COMMENT_MARKER.length()).trim();
+        if (literal.value().startsWith(RAW_COMMENT_MARKER)) return literal.value().substring(RAW_COMMENT_MARKER.length()).trim();
+        return null;
+    }
 
-        for (int i = 0; i < parts.length; i++) {
-            String part = parts[i].trim();
-            if (part.startsWith("$")) {
-                String varName = part.substring(1);
-                result.append(variables.getOrDefault(varName, part));
-            } else {
-                // Process any nested variable references within this part
-                result.append(replaceVariables(part));
+    /**
+     * Process a regex section like acronymRegex or exactWordRegex, every comment describes the arguments up to the next one.
+     * Every argument is evaluated once, for its pattern and for the value of the section itself
+     *
+     * @return the value of the section, null if part of it can't be evaluated
+     */
+    private String processRegexSection(List<TemplateNode> arguments, TemplateEvaluator evaluator, List<CensoredPattern> censoredPatterns) {
+        List<String> sectionValues = new ArrayList<>(arguments.size() - 1);
+        boolean evaluable = true;
+        String description = null;
+        List<TemplateNode> definition = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        TemplateException failure = null;
+        for (TemplateNode argument : arguments.subList(1, arguments.size())) {
+            String comment = commentOf(argument);
+            if (comment != null) {
+                addPattern(description, definition, failure == null ? values : null, failure, censoredPatterns);
+                description = comment;
+                definition = new ArrayList<>();
+                values = new ArrayList<>();
+                failure = null;
+                sectionValues.add(((TemplateNode.StringLiteral) argument).value());
+                continue;
             }
 
-            if (i < parts.length - 1) {
-                result.append("|");
+            definition.add(argument);
+            try {
+                String value = evaluator.evaluate(argument);
+                values.add(value);
+                sectionValues.add(value);
+            } catch (TemplateException e) {
+                failure = e;
+                evaluable = false;
             }
         }
-
-        result.append(")");
-        return result.toString();
+        addPattern(description, definition, failure == null ? values : null, failure, censoredPatterns);
+        return evaluable ? TemplateEvaluator.joinStr("|", sectionValues) : null;
     }
 
     /**
-     * Find the matching closing parenthesis for an opening parenthesis
+     * @param values the evaluated definition, null if it failed to evaluate with {@code failure}
      */
-    private int findMatchingClosingParenthesis(String text, int openPos) {
-        if (openPos >= text.length() || text.charAt(openPos) != '(') {
-            return -1;
+    private void addPattern(String description, List<TemplateNode> definition, List<String> values, TemplateException failure, List<CensoredPattern> censoredPatterns) {
+        if (description == null || definition.isEmpty()) return;
+        if (debug) {
+            System.out.println("\nFound pattern: " + description);
+            System.out.println("Definition: " + definition);
         }
 
-        Stack<Integer> stack = new Stack<>();
-        stack.push(openPos);
-
-        for (int i = openPos + 1; i < text.length(); i++) {
-            if (text.charAt(i) == '(') {
-                stack.push(i);
-            } else if (text.charAt(i) == ')') {
-                stack.pop();
-                if (stack.isEmpty()) {
-                    return i;
-                }
+        if (values == null) {
+            // Fall back to simple pattern if the definition can't be evaluated
+            String simplePattern = createSimplePatternFromDescription(description);
+            if (debug) {
+                System.out.println("Using fallback pattern for '" + description + "' (" + failure.getMessage() + "): " + simplePattern);
             }
+            censoredPatterns.add(new CensoredPattern(description, simplePattern));
+            return;
         }
+        // The section joins everything with |, so should a single entry
+        String javaRegex = JavaRegexGenerator.generate(TemplateEvaluator.joinStr("|", values));
+        if (javaRegex.isEmpty()) return;
 
-        return -1; // No matching closing parenthesis found
+        // Properly handle word boundaries by using lookahead/lookbehind
+        // This ensures the parser can match words like "asshole" while filtering "ass"
+        String suffixPattern = variables.getOrDefault("SUFIX", "(?:$|[^a-zA-Z0-9])+");
+        if (javaRegex.endsWith(suffixPattern)) {
+            // Instead of removing SUFIX entirely, use negative lookahead for common word extensions
+            javaRegex = javaRegex.substring(0, javaRegex.length() - suffixPattern.length()) +
+                        "(?:$|[^a-zA-Z0-9]|(?=[a-zA-Z0-9]*(?:hole|man|er|ers|ish|ing|ed|es|y|ity|ment)))";
+        }
+
+        // Make sure patterns are accurate to the original regex
+        if (debug) {
+            System.out.println("Parsed regex: " + javaRegex);
+        }
+        censoredPatterns.add(new CensoredPattern(description, javaRegex));
     }
 
     /**
@@ -932,190 +659,240 @@ public class YAGPDBParser {
     }
 
     /**
-     * Process a joinStr with options like (joinStr "|" "($a|$e)")
+     * Check if content contains censored words
      */
-    private String processOptionJoinStr(String optionStr) {
-        StringBuilder result = new StringBuilder();
-
-        // Extract content between first opening parenthesis and matching closing parenthesis
-        int openParen = optionStr.indexOf('(');
-        if (openParen >= 0) {
-            int closeParen = findMatchingClosingParenthesis(optionStr, openParen);
-            if (closeParen > openParen) {
-                String content = optionStr.substring(openParen + 1, closeParen);
-
-                // Find where the parameters start after "joinStr "|""
-                int paramsStart = content.indexOf("joinStr \"|\"");
-                if (paramsStart >= 0) {
-                    String params = content.substring(paramsStart + "joinStr \"|\"".length()).trim();
-                    String[] options = splitJoinContentParts(params);
-
-                    // Special case for patterns with "(" $i $e ")" format
-                    // These need to be treated as alternation in optional section
-                    if (options.length >= 3 && options[0].equals("\"(\"") && options[options.length-1].equals("\")\"")) {
-                        result.append("(");
-                        
-                        // Make the entire alternation optional by adding an empty alternative
-                        result.append("|");
-                        
-                        for (int i = 1; i < options.length - 1; i++) {
-                            String option = options[i].trim();
-                            if (option.isEmpty()) continue;
-
-                            if (option.startsWith("$")) {
-                                String varName = option.substring(1);
-                                result.append(variables.getOrDefault(varName, "$" + varName));
-                            } else if (option.startsWith("\"") && option.endsWith("\"")) {
-                                // Handle quoted string
-                                String unquoted = option.substring(1, option.length() - 1);
-                                result.append(replaceVariables(unquoted));
-                            } else {
-                                result.append(option);
-                            }
-
-                            // Add pipe between items (but not after the last one)
-                            if (i < options.length - 2 && !options[i+1].isEmpty() && !options[i+1].equals("\")\"")) {
-                                result.append("|");
-                            }
-                        }
-                        result.append(")");
-                        // Make the alternation optional
-                        return result.toString() + "?";
-                    }
+    public boolean containsCensoredContent(String content) {
+        return findCensoredContent(content) != null;
+    }
 
-                    // Special handling for option strings with the pattern "($i|$e)" format
-                    if (options.length == 1 && options[0].startsWith("\"(") && options[0].endsWith("\")\"")) {
-                        String innerContent = options[0].substring(2, options[0].length()-2);
-
-                        // Split by pipe for alternation - need to handle nested parentheses correctly
-                        String[] vars = innerContent.split("\\|");
-                        result.append("(");
-                        
-                        // Make the entire alternation optional by adding an empty alternative
-                        result.append("|");
-                        
-                        for (int i = 0; i < vars.length; i++) {
-                            String varRef = vars[i].trim();
-                            if (varRef.startsWith("$")) {
-                                String varName = varRef.substring(1);
-                                result.append(variables.getOrDefault(varName, "$" + varName));
-                            } else {
-                                result.append(replaceVariables(varRef));
-                            }
-
-                            if (i < vars.length - 1) {
-                                result.append("|");
-                            }
-                        }
-                        result.append(")");
-                        // Make the alternation optional
-                        return result.toString() + "?";
-                    }
+    /**
+     * Find the first censored word in content, the whole content if a rule ran out of its budget under the block policy
+     */
+    public String findCensoredContent(String content) {
+        FirstMatch first = findFirstMatch(content, budget);
+        return first.timedOut() ? content : first.match();
+    }
 
-                    // Regular processing for multiple distinct options
-                    for (int i = 0; i < options.length; i++) {
-                        String option = options[i].trim();
-                        if (option.isEmpty()) continue;
-
-                        if (option.startsWith("\"") && option.endsWith("\"")) {
-                            // Remove quotes and process content
-                            String unquoted = option.substring(1, option.length() - 1);
-
-                            // Process nested joinStr expressions if any exist
-                            if (unquoted.contains("(joinStr")) {
-                                result.append(processNestedExpressions(unquoted));
-                            } else if (unquoted.startsWith("(") && unquoted.endsWith(")") && unquoted.contains("|")) {
-                                // Handle potential grouped options/variables
-                                result.append(processParenthesizedVarGroup(unquoted));
-                            } else {
-                                result.append(replaceVariables(unquoted));
-                            }
-                        } else if (option.startsWith("$")) {
-                            String varName = option.substring(1);
-                            result.append(variables.getOrDefault(varName, "$" + varName));
-                        } else if (option.startsWith("(joinStr")) {
-                            result.append(processNestedJoinStr(option));
-                        } else {
-                            result.append(option);
-                        }
-
-                        // Add pipe between options
-                        if (i < options.length - 1 && !options[i+1].trim().isEmpty()) {
-                            result.append("|");
-                        }
-                    }
+    /**
+     * Find the first censored word in content, trying the rules in the order of the ruleset's {@link PatternOrder}
+     *
+     * @param budget what the rules may take, a rule running out of it only ends the search under the block policy
+     */
+    public FirstMatch findFirstMatch(String content, EvaluationBudget budget) {
+        CensorRuleset ruleset = this.ruleset;
+        ConfusableNormalizer.Text text = ruleset.normalizer().normalize(content);
+        BitSet candidates = ruleset.prefilter().candidates(text.normalized());
+        if (candidates.isEmpty()) return FirstMatch.NONE;
+
+        MatchEngine.Pass pass = ruleset.matcher().start(text, allowList, budget, true);
+        PatternOrder patternOrder = ruleset.patternOrder();
+        boolean sample = patternOrder.sample();
+
+        FirstMatch first = FirstMatch.NONE;
+        for (int id : patternOrder.order()) {
+            if (!candidates.get(id)) continue;
+            CensorRuleset.Rule rule = ruleset.rule(id);
+            long ruleStart = sample ? System.nanoTime() : 0;
+            int[] spans = spans(ruleset, rule, pass, text);
+            if (sample) patternOrder.record(id, System.nanoTime() - ruleStart, spans != null && spans.length > 0);
+            if (spans == null) {
+                if (budget.policy() == EvaluationBudget.TimeoutPolicy.BLOCK) {
+                    first = FirstMatch.TIMED_OUT;
+                    break;
                 }
+                continue;
             }
+            if (spans.length == 0) continue;
+
+            first = new FirstMatch(content.substring(spans[0], spans[1]), false); // The actual matched text
+            if (debug) {
+                System.out.println("Pattern " + rule.description() + " matched: " + first.match());
+            }
+            break;
         }
+        if (sample) sampled(ruleset);
+        return first;
+    }
 
-        return result.toString();
+    /**
+     * Find every censored word in content, the underlined message is only rendered once {@link MatchResult#indication()}
+     * is called
+     */
+    public MatchResult findCensoredContent_Indicated(String content) {
+        long start = System.nanoTime();
+        CensorRuleset ruleset = this.ruleset;
+        VerdictCache verdictCache = this.verdictCache;
+        MatchResult result = verdictCache == null ? null : verdictCache.get(ruleset.version(), content);
+        if (result == null) {
+            result = matches(ruleset, content);
+            // Another attempt may well finish in time
+            if (verdictCache != null && !result.timedOut()) verdictCache.put(ruleset.version(), content, result);
+        }
+        CensorshipMetrics.instance.recordMessage(System.nanoTime() - start, result.blocked(), result.patterns());
+        return result;
     }
 
     /**
-     * Check if content contains censored words
+     * Check several short texts that belong together, like the lines of a sign, in a single pass. They are scanned as
+     * the lines of one text, so a word split over two of them is found as well.
      */
-    public boolean containsCensoredContent(String content) {
-        return findCensoredContent(content) != null;
+    public SegmentMatches findCensoredSegments(List<String> segments) {
+        long start = System.nanoTime();
+        MatchResult result = matches(this.ruleset, String.join("\n", segments));
+        CensorshipMetrics.instance.recordMessage(System.nanoTime() - start, result.blocked(), result.patterns());
+        return new SegmentMatches(segments, result);
     }
 
     /**
-     * Find the first censored word in content
+     * Descriptions of every rule that matches the content, for offline audits. Neither the verdict cache nor the metrics
+     * are touched.
      */
-    public String findCensoredContent(String content) {
-        for (CensoredPattern pattern : censoredPatterns) {
-            try {
-                if (pattern.pattern == null || pattern.pattern.isEmpty()) {
+    public List<String> findCensoredPatterns(String content) {
+        return matches(this.ruleset, content).patterns();
+    }
+
+    /**
+     * Scan a text with every candidate rule, collecting the spans of all matches
+     */
+    private MatchResult matches(CensorRuleset ruleset, String content) {
+        MatchResult.Builder result = new MatchResult.Builder(content);
+        ConfusableNormalizer.Text text = ruleset.normalizer().normalize(content);
+        BitSet candidates = ruleset.prefilter().candidates(text.normalized());
+
+        if (!candidates.isEmpty()) {
+            MatchEngine.Pass pass = ruleset.matcher().start(text, allowList, budget, false);
+
+            // Collect the spans of every rule against the original text. Every candidate has to run for the warning to
+            // underline all matches, so the PatternOrder of findCensoredContent wouldn't save anything here
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                int[] ruleSpans = spans(ruleset, ruleset.rule(id), pass, text);
+                if (ruleSpans == null) {
+                    // Nothing can be pointed at, with the block policy the whole message is blocked
+                    boolean blockAll = budget.policy() == EvaluationBudget.TimeoutPolicy.BLOCK;
+                    result.timedOut(blockAll);
+                    if (blockAll) break;
                     continue;
                 }
+                result.add(id, ruleset.rule(id).description(), ruleSpans);
+            }
+        }
+        return result.build();
+    }
 
-                Pattern compiledPattern = Pattern.compile(pattern.pattern, Pattern.CASE_INSENSITIVE);
-                Matcher matcher = compiledPattern.matcher(content);
-                if (matcher.find()) {
-                    if (debug) {
-                        System.out.println("Pattern " + pattern.description + " matched: " + matcher.group(0));
-                    }
-                    return matcher.group(0); // Return the actual matched text
-                }
-            } catch (Exception e) {
-                LOGGER.error("{}{}", "Error with pattern: " + pattern.description + " - ", e.getMessage());
+    /**
+     * A sampled message was done, a newly learnt order is saved in the background
+     */
+    private void sampled(CensorRuleset ruleset) {
+        if (!ruleset.patternOrder().sampled()) return;
+        ScriptCache cache = scriptCache;
+        if (cache == null) return;
+        Map<String, long[]> stats = ruleset.patternOrder().snapshot();
+        CompletableFuture.runAsync(() -> cache.savePatternStats(stats));
+    }
+
+    /**
+     * Matches of a rule outside of allowed words as [start0, end0, start1, end1, ...] in offsets of the original content,
+     * null if the rule ran out of its {@link EvaluationBudget}
+     */
+    private int[] spans(CensorRuleset ruleset, CensorRuleset.Rule rule, MatchEngine.Pass pass, ConfusableNormalizer.Text text) {
+        try {
+            return pass.spans(rule);
+        } catch (EvaluationBudget.Exceeded e) {
+            if (ruleset.recordTimeout(rule.id())) {
+                LOGGER.warn("Pattern '{}' ran out of its evaluation budget on a {} char message", rule.description(), text.original().length());
             }
+            if (debug) {
+                System.out.println("Pattern " + rule.description() + " timed out");
+            }
+            return null;
         }
-        return null;
     }
 
-    public auto findCensoredContent_Indicated(String content) {
-        String indication = content;
-        @SuppressWarnings("UnusedAssignment") String match = null;
+    /**
+     * Get the number of patterns
+     */
+    public int getPatternCount() {
+        return ruleset.size();
+    }
 
-        for (CensoredPattern pattern : censoredPatterns) {
-            try {
-                if (pattern.pattern == null || pattern.pattern.isEmpty()) {
-                    continue;
-                }
+    /**
+     * Get the verdict cache, null if it is disabled
+     */
+    public VerdictCache getVerdictCache() {
+        return verdictCache;
+    }
 
-                Pattern compiledPattern = Pattern.compile(pattern.pattern, Pattern.CASE_INSENSITIVE);
-                Matcher matcher = compiledPattern.matcher(indication);
+    public AllowList getAllowList() {
+        return allowList;
+    }
 
-                StringBuilder sb = new StringBuilder();
-                while (matcher.find()) {
-                    match = matcher.group(0);
-                    matcher.appendReplacement(sb, "§n" + Matcher.quoteReplacement(match) + "§r");
-                }
-                matcher.appendTail(sb);
-                indication = sb.toString();
-            } catch (Exception e) {
-                LOGGER.error("{}{}", "Error with pattern: " + pattern.description + " - ", e.getMessage());
+    public EvaluationBudget getEvaluationBudget() {
+        return budget;
+    }
+
+    /**
+     * Where downloaded scripts are kept, null when they aren't
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Get the script the active ruleset was compiled from
+     */
+    public String getScript() {
+        return script;
+    }
+
+    /**
+     * Get the currently active compiled ruleset
+     */
+    public CensorRuleset getRuleset() {
+        return ruleset;
+    }
+
+    /**
+     * What {@link #findCensoredSegments} found
+     *
+     * @param result the matches in the segments joined by line breaks, a match over two segments is cut at the break
+     */
+    public record SegmentMatches(List<String> segments, MatchResult result) {
+        public boolean blocked() {
+            return result.blocked();
+        }
+
+        /**
+         * The blocked phrases, null if every segment is clean
+         */
+        public String match() {
+            return result.blocked() ? result.match().replaceAll("\\s*\n\\s*", " ").strip() : null;
+        }
+
+        /**
+         * The segments with their matches underlined, joined with {@code separator}
+         */
+        public String indication(String separator) {
+            StringBuilder sb = new StringBuilder();
+            int offset = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                if (i > 0) sb.append(separator);
+                int end = offset + segments.get(i).length();
+                sb.append(MatchResult.render(result.content(), result.spans(), offset, end));
+                offset = end + 1;
             }
+            return sb.toString();
         }
-
-        return (match, indication);
     }
 
     /**
-     * Get the number of patterns
+     * What {@link #findFirstMatch} found
+     *
+     * @param match    the first censored word, null if there is none or a rule ran out of its budget
+     * @param timedOut whether a rule ran out of its budget under the block policy, nothing can be pointed at then
      */
-    public int getPatternCount() {
-        return censoredPatterns.size();
+    public record FirstMatch(String match, boolean timedOut) {
+        static final FirstMatch NONE = new FirstMatch(null, false);
+        static final FirstMatch TIMED_OUT = new FirstMatch(null, true);
     }
 
     /**
@@ -1123,7 +900,7 @@ public class YAGPDBParser {
      */
     public record CensoredPattern(String description, String pattern) {
         @Override
-        public String description() {
+        public String toString() {
             return description + ": " + pattern;
         }
     }
@@ -1142,11 +919,15 @@ public class YAGPDBParser {
         for (String word : testWords) {
             boolean censored = instance.containsCensoredContent(word);
             System.out.println(word + ": " + (censored ? "CENSORED - " +
-                    instance.findCensoredContent_Indicated(word).match : "allowed"));
+                    instance.findCensoredContent_Indicated(word).match() : "allowed"));
         }
 
         // Print all patterns for verification
         System.out.println("\nAll Censored Words Patterns:");
-        instance.censoredPatterns.forEach(pattern -> System.out.println(pattern.description()));
+        instance.ruleset.rules().forEach(System.out::println);
+
+        System.out.println();
+        System.out.println(instance.ruleset.prefilter().describeStats());
+        System.out.println(instance.ruleset.describeTimeouts());
     }
 }
@@ -0,0 +1,75 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compresses the 65536 UTF-16 chars into the few classes that a list of char sets can actually tell apart,
+ * so transition tables are indexed by class instead of by char
+ */
+public final class Alphabet {
+    private final char[] classOf = new char[Character.MAX_VALUE + 1];
+    private final char[] representatives;
+    private final long[][] members;
+
+    public Alphabet(List<CharSet> sets) {
+        // Every range start and every char after a range end is a boundary where membership can change
+        TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        for (CharSet set : sets) {
+            for (int r = 0; r < set.rangeCount(); r++) {
+                boundaries.add((int) set.rangeStart(r));
+                if (set.rangeEnd(r) < Character.MAX_VALUE) boundaries.add(set.rangeEnd(r) + 1);
+            }
+        }
+
+        Map<String, Integer> classes = new HashMap<>();
+        StringBuilder reps = new StringBuilder();
+        Integer[] starts = boundaries.toArray(new Integer[0]);
+        for (int i = 0; i < starts.length; i++) {
+            int lo = starts[i];
+            int hi = i + 1 < starts.length ? starts[i + 1] - 1 : Character.MAX_VALUE;
+
+            // Chars in one interval are members of exactly the same sets
+            char[] signature = new char[(sets.size() + 15) / 16];
+            for (int s = 0; s < sets.size(); s++) {
+                if (sets.get(s).contains((char) lo)) signature[s / 16] |= (char) (1 << (s % 16));
+            }
+            int id = classes.computeIfAbsent(new String(signature), key -> {
+                reps.append((char) lo);
+                return reps.length() - 1;
+            });
+            Arrays.fill(classOf, lo, hi + 1, (char) id);
+        }
+
+        representatives = reps.toString().toCharArray();
+        members = new long[sets.size()][(representatives.length + 63) / 64];
+        for (int s = 0; s < sets.size(); s++) {
+            for (int c = 0; c < representatives.length; c++) {
+                if (sets.get(s).contains(representatives[c])) members[s][c >> 6] |= 1L << c;
+            }
+        }
+    }
+
+    public int classOf(char c) {
+        return classOf[c];
+    }
+
+    public int size() {
+        return representatives.length;
+    }
+
+    /**
+     * Some char of the class, every char of a class behaves the same
+     */
+    public char representative(int charClass) {
+        return representatives[charClass];
+    }
+
+    public boolean contains(int setIndex, int charClass) {
+        return (members[setIndex][charClass >> 6] & (1L << charClass)) != 0;
+    }
+}
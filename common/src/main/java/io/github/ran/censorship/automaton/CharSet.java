@@ -0,0 +1,185 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of UTF-16 chars stored as sorted, non-overlapping inclusive ranges
+ */
+public final class CharSet {
+    public static final CharSet EMPTY = new CharSet(new int[0]);
+    public static final CharSet ANY = range(Character.MIN_VALUE, Character.MAX_VALUE);
+    // java.util.regex '.' without DOTALL, everything except the line terminators
+    public static final CharSet DOT = of('\n', '\r', '\u0085', '\u2028', '\u2029').complement();
+    public static final CharSet DIGIT = range('0', '9');
+    public static final CharSet WORD = range('a', 'z').union(range('A', 'Z')).union(DIGIT).union(of('_'));
+    public static final CharSet SPACE = of(' ', '\t', '\n', '\u000B', '\f', '\r');
+
+    // lo0, hi0, lo1, hi1, ...
+    private final int[] ranges;
+
+    private CharSet(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    public static CharSet of(char... chars) {
+        CharSet set = EMPTY;
+        for (char c : chars) set = set.union(range(c, c));
+        return set;
+    }
+
+    public static CharSet range(char lo, char hi) {
+        if (lo > hi) return EMPTY;
+        return new CharSet(new int[]{lo, hi});
+    }
+
+    /**
+     * Every char of the given {@link Character#getType(char)} category
+     */
+    public static CharSet ofType(int type) {
+        int[] ranges = new int[64];
+        int n = 0;
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            if (Character.getType((char) c) != type) continue;
+            if (n > 0 && ranges[n - 1] == c - 1) {
+                ranges[n - 1] = c;
+            } else {
+                if (n == ranges.length) ranges = Arrays.copyOf(ranges, n * 2);
+                ranges[n++] = c;
+                ranges[n++] = c;
+            }
+        }
+        return new CharSet(Arrays.copyOf(ranges, n));
+    }
+
+    public boolean contains(char c) {
+        // Binary search over the range starts
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[mid * 2]) hi = mid - 1;
+            else if (c > ranges[mid * 2 + 1]) lo = mid + 1;
+            else return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    public int rangeCount() {
+        return ranges.length / 2;
+    }
+
+    public char rangeStart(int index) {
+        return (char) ranges[index * 2];
+    }
+
+    public char rangeEnd(int index) {
+        return (char) ranges[index * 2 + 1];
+    }
+
+    /**
+     * Number of chars in the set
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) size += ranges[i + 1] - ranges[i] + 1;
+        return size;
+    }
+
+    public CharSet union(CharSet other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+
+        int[] merged = new int[ranges.length + other.ranges.length];
+        int a = 0, b = 0, n = 0;
+        while (a < ranges.length || b < other.ranges.length) {
+            int lo, hi;
+            if (b >= other.ranges.length || (a < ranges.length && ranges[a] <= other.ranges[b])) {
+                lo = ranges[a]; hi = ranges[a + 1]; a += 2;
+            } else {
+                lo = other.ranges[b]; hi = other.ranges[b + 1]; b += 2;
+            }
+
+            // Merge overlapping or touching ranges
+            if (n > 0 && lo <= merged[n - 1] + 1) {
+                merged[n - 1] = Math.max(merged[n - 1], hi);
+            } else {
+                merged[n++] = lo;
+                merged[n++] = hi;
+            }
+        }
+        return new CharSet(Arrays.copyOf(merged, n));
+    }
+
+    public CharSet complement() {
+        int[] result = new int[ranges.length + 2];
+        int n = 0;
+        int next = Character.MIN_VALUE;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[n++] = next;
+                result[n++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            result[n++] = next;
+            result[n++] = Character.MAX_VALUE;
+        }
+        return new CharSet(Arrays.copyOf(result, n));
+    }
+
+    public CharSet intersect(CharSet other) {
+        return complement().union(other.complement()).complement();
+    }
+
+    /**
+     * Add the other ASCII case of every ASCII letter, which is what {@link java.util.regex.Pattern#CASE_INSENSITIVE} does without UNICODE_CASE
+     */
+    public CharSet foldAsciiCase() {
+        CharSet folded = this;
+        CharSet lower = intersect(range('a', 'z'));
+        CharSet upper = intersect(range('A', 'Z'));
+        for (int i = 0; i < lower.rangeCount(); i++) {
+            folded = folded.union(range((char) (lower.rangeStart(i) - 32), (char) (lower.rangeEnd(i) - 32)));
+        }
+        for (int i = 0; i < upper.rangeCount(); i++) {
+            folded = folded.union(range((char) (upper.rangeStart(i) + 32), (char) (upper.rangeEnd(i) + 32)));
+        }
+        return folded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharSet other && Arrays.equals(ranges, other.ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            appendChar(sb, ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-');
+                appendChar(sb, ranges[i + 1]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void appendChar(StringBuilder sb, int c) {
+        if (c >= 0x20 && c < 0x7F) {
+            if ("\\[]^-&".indexOf(c) >= 0) sb.append('\\');
+            sb.append((char) c);
+        } else {
+            sb.append(String.format("\\u%04X", c));
+        }
+    }
+}
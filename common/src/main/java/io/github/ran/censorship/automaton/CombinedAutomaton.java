@@ -0,0 +1,246 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Every supported pattern of a ruleset compiled into one unanchored lazy DFA, so a message is scanned once in linear
+ * time no matter how many patterns there are. Per pattern reverse and anchored DFAs are kept to recover the
+ * leftmost-longest spans of the patterns that matched.
+ */
+public final class CombinedAutomaton {
+    public static final int DEFAULT_MAX_STATES = 10_000;
+
+    private final Nfa nfa;
+    private final PositionFlags positionFlags;
+    private final LazyDfa forward;
+    private final LazyDfa[] anchored;
+    private final LazyDfa[] reverse;
+    private final int patternCount;
+    private final int supportedCount;
+
+    private CombinedAutomaton(Nfa nfa, PositionFlags positionFlags, LazyDfa forward, LazyDfa[] anchored, LazyDfa[] reverse, int supportedCount) {
+        this.nfa = nfa;
+        this.positionFlags = positionFlags;
+        this.forward = forward;
+        this.anchored = anchored;
+        this.reverse = reverse;
+        this.patternCount = anchored.length;
+        this.supportedCount = supportedCount;
+    }
+
+    /**
+     * Compile the parsed patterns, pattern ids are their index in the list. Patterns that can't be expressed as an
+     * automaton are reported to {@code unsupported} and left out, callers have to check them with java.util.regex
+     * themselves. Null patterns are left out silently.
+     */
+    public static CombinedAutomaton compile(List<RegexNode> nodes, UnsupportedHandler unsupported) {
+        Nfa nfa = new Nfa();
+        int[] forwardEntries = new int[nodes.size()];
+        int[] reverseEntries = new int[nodes.size()];
+        Arrays.fill(forwardEntries, -1);
+
+        int supportedCount = 0;
+        for (int id = 0; id < nodes.size(); id++) {
+            if (nodes.get(id) == null) continue;
+            try {
+                int entry = nfa.compile(nodes.get(id), id, false);
+                reverseEntries[id] = nfa.compile(nodes.get(id), id, true);
+                forwardEntries[id] = entry;
+                supportedCount++;
+            } catch (UnsupportedRegexException e) {
+                unsupported.accept(id, e);
+            }
+        }
+
+        int start = nfa.fork(Arrays.stream(forwardEntries).filter(entry -> entry >= 0).toArray());
+        PositionFlags positionFlags;
+        try {
+            positionFlags = new PositionFlags(nfa);
+        } catch (UnsupportedRegexException e) {
+            // Lookahead bodies were validated while compiling the patterns
+            throw new IllegalStateException(e);
+        }
+        Alphabet alphabet = new Alphabet(nfa.sets());
+        positionFlags.link(alphabet, DEFAULT_MAX_STATES);
+
+        LazyDfa forward = new LazyDfa(nfa, alphabet, start, true, DEFAULT_MAX_STATES);
+        LazyDfa[] anchored = new LazyDfa[nodes.size()];
+        LazyDfa[] reverse = new LazyDfa[nodes.size()];
+        for (int id = 0; id < nodes.size(); id++) {
+            if (forwardEntries[id] < 0) continue;
+            anchored[id] = new LazyDfa(nfa, alphabet, forwardEntries[id], false, DEFAULT_MAX_STATES);
+            reverse[id] = new LazyDfa(nfa, alphabet, reverseEntries[id], true, DEFAULT_MAX_STATES);
+        }
+        return new CombinedAutomaton(nfa, positionFlags, forward, anchored, reverse, supportedCount);
+    }
+
+    public boolean supports(int id) {
+        return anchored[id] != null;
+    }
+
+    public int supportedCount() {
+        return supportedCount;
+    }
+
+    public int nfaSize() {
+        return nfa.size();
+    }
+
+    public long cacheResets() {
+        return forward.cacheResets();
+    }
+
+    /**
+     * Scan the text once and collect every supported pattern that matches somewhere in it
+     *
+     * @param stopAtFirst stop as soon as any pattern matched, when only a verdict is needed
+     */
+    public Scan scan(CharSequence text, boolean stopAtFirst) {
+        int[] flags = positionFlags.compute(text);
+        BitSet matched = new BitSet(patternCount);
+        int[] firstEnd = null;
+
+        LazyDfa.State state = forward.initial();
+        int length = text.length();
+        for (int i = 0; ; i++) {
+            LazyDfa.Closed closed = state.close(flags[i]);
+            if (closed.accepting()) {
+                if (firstEnd == null) {
+                    firstEnd = new int[patternCount];
+                    Arrays.fill(firstEnd, -1);
+                }
+                for (int id : closed.accepts()) {
+                    if (firstEnd[id] < 0) {
+                        firstEnd[id] = i;
+                        matched.set(id);
+                    }
+                }
+                if (stopAtFirst || matched.cardinality() == supportedCount) break;
+            }
+            if (i == length) break;
+            state = closed.step(text.charAt(i));
+        }
+        return new Scan(text, flags, matched, firstEnd);
+    }
+
+    /**
+     * Continue scanning a text that arrives in pieces, like the chat of a player, without going over what came before.
+     * Only matches that end inside {@code text} are reported, the ones ending before it were reported by the previous
+     * call.
+     *
+     * @param state    {@link Resumed#state()} of the previous piece, null for the first piece
+     * @param previous the last char of the previous piece, the assertions at the seam depend on it
+     */
+    public Resumed resume(int[] state, char previous, CharSequence text) {
+        boolean seam = state != null;
+        int[] flags = positionFlags.compute(seam ? previous + text.toString() : text);
+        int offset = seam ? 1 : 0;
+        boolean matched = false;
+
+        LazyDfa.State current = seam ? forward.state(state) : forward.initial();
+        int length = text.length();
+        for (int i = 0; ; i++) {
+            LazyDfa.Closed closed = current.close(flags[i + offset]);
+            if (closed.accepting() && (i > 0 || !seam)) matched = true;
+            if (i == length) break;
+            current = closed.step(text.charAt(i));
+        }
+        // The state before closing, the assertions at the end change once the next piece arrives
+        return new Resumed(current.nfaStates(), matched);
+    }
+
+    /**
+     * @param state   where the scan stopped, primitive so it can be kept around without pinning a thread's DFA cache
+     * @param matched whether a supported pattern has a match ending inside the piece
+     */
+    public record Resumed(int[] state, boolean matched) {
+    }
+
+    public final class Scan {
+        private final CharSequence text;
+        private final int[] flags;
+        private final BitSet matched;
+        private final int[] firstEnd;
+
+        private Scan(CharSequence text, int[] flags, BitSet matched, int[] firstEnd) {
+            this.text = text;
+            this.flags = flags;
+            this.matched = matched;
+            this.firstEnd = firstEnd;
+        }
+
+        public boolean supports(int id) {
+            return CombinedAutomaton.this.supports(id);
+        }
+
+        public boolean matched(int id) {
+            return matched.get(id);
+        }
+
+        public boolean any() {
+            return !matched.isEmpty();
+        }
+
+        /**
+         * Ids of every pattern that matched, in ascending order
+         */
+        public int[] matchedIds() {
+            return matched.stream().toArray();
+        }
+
+        /**
+         * Where the earliest match of a pattern ends, -1 if it didn't match
+         */
+        public int firstEnd(int id) {
+            return firstEnd == null ? -1 : firstEnd[id];
+        }
+
+        /**
+         * Non-overlapping leftmost-longest matches of a pattern as [start0, end0, start1, end1, ...]
+         */
+        public int[] spans(int id) {
+            if (!matched(id)) return new int[0];
+            int length = text.length();
+
+            // Scanning the reversed pattern right to left marks every position a match can start at
+            BitSet starts = new BitSet(length + 1);
+            LazyDfa.State state = reverse[id].initial();
+            for (int i = length; ; i--) {
+                LazyDfa.Closed closed = state.close(flags[i]);
+                if (closed.accepting()) starts.set(i);
+                if (i == 0) break;
+                state = closed.step(text.charAt(i - 1));
+            }
+
+            int[] spans = new int[8];
+            int count = 0;
+            for (int start = starts.nextSetBit(0); start >= 0 && start <= length; ) {
+                int end = longestMatch(id, start);
+                if (count + 2 > spans.length) spans = Arrays.copyOf(spans, spans.length * 2);
+                spans[count++] = start;
+                spans[count++] = end;
+                start = starts.nextSetBit(end > start ? end : end + 1);
+            }
+            return Arrays.copyOf(spans, count);
+        }
+
+        private int longestMatch(int id, int start) {
+            int end = start;
+            LazyDfa.State state = anchored[id].initial();
+            for (int i = start; ; i++) {
+                LazyDfa.Closed closed = state.close(flags[i]);
+                if (closed.accepting()) end = i;
+                if (i == text.length() || closed.dead()) break;
+                state = closed.step(text.charAt(i));
+            }
+            return end;
+        }
+    }
+
+    @FunctionalInterface
+    public interface UnsupportedHandler {
+        void accept(int id, UnsupportedRegexException e);
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps every char of a message onto a canonical char once, so patterns can be rewritten to match canonical chars only.
+ * <p>
+ * Chars are partitioned by the char sets the patterns use ({@code $a}, {@code $s}, {@code $SPLITTER}, ...). Two chars
+ * in the same part are interchangeable for every pattern, e.g. {@code a}, {@code A} and the Cyrillic {@code а} when
+ * nothing tells them apart, and are replaced by one canonical char, preferably a plain lowercase letter. Chars the
+ * patterns do tell apart keep their own class, so a {@code !} stays a splitter as well as an {@code i}. Invisible
+ * format chars such as zero-width spaces are dropped completely, an offset map leads back to the original text.
+ */
+public final class ConfusableNormalizer {
+    // Sets that java.util.regex and the automaton look at outside of the patterns themselves
+    private static final CharSet[] BUILTIN_SETS = {
+            CharSet.WORD,
+            CharSet.DOT,
+            CharSet.of('\r'),
+            CharSet.of('\n'),
+            CharSet.range('\uD800', '\uDBFF'),
+            CharSet.range('\uDC00', '\uDFFF'),
+            // Word boundaries treat a combining mark after a word char as part of the word
+            CharSet.ofType(Character.NON_SPACING_MARK),
+    };
+    private static final CharSet FORMAT = CharSet.ofType(Character.FORMAT);
+    private static final String PREFERRED = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final Alphabet alphabet;
+    private final char[] canonical;
+    private final boolean[] dropped;
+    private final Map<CharSet, CharSet> rewritten = new HashMap<>();
+
+    private ConfusableNormalizer(Alphabet alphabet) {
+        this.alphabet = alphabet;
+        this.canonical = new char[alphabet.size()];
+        this.dropped = new boolean[alphabet.size()];
+
+        boolean[] assigned = new boolean[alphabet.size()];
+        for (int i = 0; i < PREFERRED.length(); i++) {
+            int charClass = alphabet.classOf(PREFERRED.charAt(i));
+            if (assigned[charClass]) continue;
+            canonical[charClass] = PREFERRED.charAt(i);
+            assigned[charClass] = true;
+        }
+        for (int charClass = 0; charClass < alphabet.size(); charClass++) {
+            if (!assigned[charClass]) canonical[charClass] = alphabet.representative(charClass);
+            dropped[charClass] = FORMAT.contains(alphabet.representative(charClass));
+        }
+    }
+
+    /**
+     * Build the normalizer for the given parsed patterns
+     */
+    public static ConfusableNormalizer build(List<RegexNode> nodes) {
+        List<CharSet> sets = new ArrayList<>(List.of(BUILTIN_SETS));
+        sets.add(FORMAT);
+        for (RegexNode node : nodes) collectSets(node, sets);
+        return new ConfusableNormalizer(new Alphabet(sets));
+    }
+
+    private static void collectSets(RegexNode node, List<CharSet> sets) {
+        switch (node) {
+            case RegexNode.Chars chars -> sets.add(chars.set());
+            case RegexNode.Concat concat -> concat.nodes().forEach(child -> collectSets(child, sets));
+            case RegexNode.Alternation alternation -> alternation.nodes().forEach(child -> collectSets(child, sets));
+            case RegexNode.Repeat repeat -> collectSets(repeat.node(), sets);
+            case RegexNode.LookAhead lookAhead -> collectSets(lookAhead.node(), sets);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Number of distinct canonical chars
+     */
+    public int classCount() {
+        return alphabet.size();
+    }
+
+    /**
+     * Rewrite a pattern that was part of {@link #build(List)} to match the normalized text instead
+     */
+    public RegexNode rewrite(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Chars chars -> new RegexNode.Chars(rewritten.computeIfAbsent(chars.set(), this::rewrite));
+            case RegexNode.Concat concat -> new RegexNode.Concat(concat.nodes().stream().map(this::rewrite).toList());
+            case RegexNode.Alternation alternation -> new RegexNode.Alternation(alternation.nodes().stream().map(this::rewrite).toList());
+            case RegexNode.Repeat repeat -> new RegexNode.Repeat(rewrite(repeat.node()), repeat.min(), repeat.max(), repeat.lazy());
+            case RegexNode.LookAhead lookAhead -> new RegexNode.LookAhead(rewrite(lookAhead.node()), lookAhead.negated());
+            default -> node;
+        };
+    }
+
+    private CharSet rewrite(CharSet set) {
+        // Only canonical chars ever reach the patterns, every other char may or may not be part of the rewritten set
+        StringBuilder inside = new StringBuilder();
+        StringBuilder outside = new StringBuilder();
+        for (int charClass = 0; charClass < alphabet.size(); charClass++) {
+            if (dropped[charClass]) continue;
+            (set.contains(alphabet.representative(charClass)) ? inside : outside).append(canonical[charClass]);
+        }
+        // Negated classes in the script stay negated, which keeps them short
+        if (!set.contains(Character.MIN_HIGH_SURROGATE)) return CharSet.of(inside.toString().toCharArray());
+        return CharSet.of(outside.toString().toCharArray()).complement();
+    }
+
+    public Text normalize(String text) {
+        char[] normalized = null;
+        int[] offsets = null;
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int charClass = alphabet.classOf(c);
+            if (dropped[charClass]) {
+                if (offsets == null) {
+                    // Only needed once something is dropped, until then offsets are the identity
+                    offsets = new int[text.length() + 1];
+                    for (int j = 0; j < length; j++) offsets[j] = j;
+                }
+                if (normalized == null) normalized = text.toCharArray();
+                continue;
+            }
+
+            char replacement = canonical[charClass];
+            if (replacement != c && normalized == null) normalized = text.toCharArray();
+            if (normalized != null) normalized[length] = replacement;
+            if (offsets != null) offsets[length] = i;
+            length++;
+        }
+
+        if (normalized == null) return new Text(text, text, null);
+        if (offsets != null) offsets[length] = text.length();
+        return new Text(text, new String(normalized, 0, length), offsets);
+    }
+
+    /**
+     * A message and its normalized form
+     */
+    public static final class Text {
+        private final String original;
+        private final String normalized;
+        // Original index of every normalized char, null when no char was dropped
+        private final int[] offsets;
+
+        private Text(String original, String normalized, int[] offsets) {
+            this.original = original;
+            this.normalized = normalized;
+            this.offsets = offsets;
+        }
+
+        public String original() {
+            return original;
+        }
+
+        public String normalized() {
+            return normalized;
+        }
+
+        /**
+         * Translate spans [start0, end0, start1, end1, ...] of the normalized text to the original text
+         */
+        public int[] toOriginal(int[] spans) {
+            if (offsets == null) return spans;
+            int[] result = new int[spans.length];
+            for (int i = 0; i < spans.length; i += 2) {
+                int start = offsets[spans[i]];
+                result[i] = start;
+                result[i + 1] = spans[i + 1] > spans[i] ? offsets[spans[i + 1] - 1] + 1 : start;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DFA that is built from an {@link Nfa} one state at a time while scanning, so only states real text reaches exist.
+ * <p>
+ * A DFA state is the set of NFA states reached after consuming a char. Before the next char is consumed it is closed
+ * under the assertion flags of the current position, which gives a {@link Closed} state holding the accepted pattern ids
+ * and the outgoing transitions. Every step costs at most O(NFA size) when a state is new and O(1) afterwards, so a scan
+ * is linear in the text length no matter what the patterns look like.
+ * <p>
+ * Each thread gets its own cache, the chat path never has to synchronize on it. States belong to the cache of the thread
+ * that got them. Neither a cache nor its states refer back to the DFA, so the caches a thread holds in its
+ * {@link ThreadLocal} map don't keep the DFA of a replaced ruleset alive.
+ */
+public final class LazyDfa {
+    private static final int[] NO_IDS = new int[0];
+
+    private final Alphabet alphabet;
+    private final ThreadLocal<Cache> cache;
+    private final LongAdder cacheResets;
+
+    /**
+     * @param unanchored re-enter {@code start} at every position, which finds matches that start anywhere
+     * @param maxStates  how many states a thread may cache before its cache is thrown away and rebuilt
+     */
+    public LazyDfa(Nfa nfa, Alphabet alphabet, int start, boolean unanchored, int maxStates) {
+        LongAdder cacheResets = new LongAdder();
+        this.alphabet = alphabet;
+        this.cacheResets = cacheResets;
+        // Only captures what the cache needs, a cache that referred to this DFA would keep it and its ThreadLocal alive
+        this.cache = ThreadLocal.withInitial(() -> new Cache(nfa, alphabet, start, unanchored, maxStates, cacheResets));
+    }
+
+    /**
+     * The state before anything has been consumed
+     */
+    public State initial() {
+        return cache.get().initial();
+    }
+
+    /**
+     * The state made of exactly these NFA states, to pick up a scan where {@link State#nfaStates()} left it, possibly
+     * on another thread
+     */
+    public State state(int[] nfaStates) {
+        return cache.get().intern(nfaStates);
+    }
+
+    public Alphabet alphabet() {
+        return alphabet;
+    }
+
+    /**
+     * How often a thread had to throw its state cache away, a high number means the patterns blow up the DFA
+     */
+    public long cacheResets() {
+        return cacheResets.sum();
+    }
+
+    public static final class State {
+        private final Cache cache;
+        private final int[] nfaStates;
+        private final Closed[] closed;
+
+        private State(Cache cache, int[] nfaStates) {
+            this.cache = cache;
+            this.nfaStates = nfaStates;
+            this.closed = new Closed[1 << cache.nfa.flagBitCount()];
+        }
+
+        /**
+         * The NFA states this state is made of, sorted and shared, don't modify
+         */
+        public int[] nfaStates() {
+            return nfaStates;
+        }
+
+        /**
+         * Close this state under the assertions that hold at the current position
+         */
+        public Closed close(int flags) {
+            Closed result = closed[flags];
+            if (result == null) {
+                result = cache.close(this, flags);
+                closed[flags] = result;
+            }
+            return result;
+        }
+    }
+
+    public static final class Closed {
+        private final Cache cache;
+        private final int[] accepts;
+        private final int[] charStates;
+        private final State[] next;
+
+        private Closed(Cache cache, int[] accepts, int[] charStates) {
+            this.cache = cache;
+            this.accepts = accepts;
+            this.charStates = charStates;
+            this.next = new State[charStates.length == 0 && !cache.unanchored ? 0 : cache.alphabet.size()];
+        }
+
+        /**
+         * Pattern ids that have a match ending at the current position, sorted and shared, don't modify
+         */
+        public int[] accepts() {
+            return accepts;
+        }
+
+        public boolean accepting() {
+            return accepts.length != 0;
+        }
+
+        /**
+         * No further char can lead to a match, only possible for anchored scans
+         */
+        public boolean dead() {
+            return next.length == 0;
+        }
+
+        public State step(char c) {
+            int charClass = cache.alphabet.classOf(c);
+            State result = next[charClass];
+            if (result == null) {
+                result = cache.step(this, charClass);
+                next[charClass] = result;
+            }
+            return result;
+        }
+    }
+
+    private static final class Cache {
+        private final Nfa nfa;
+        private final Alphabet alphabet;
+        private final int start;
+        private final boolean unanchored;
+        private final int maxStates;
+        private final LongAdder cacheResets;
+        private Map<Key, State> states = new HashMap<>();
+        private State initial;
+
+        // Scratch space for closures, marks are compared against a generation so they never need clearing
+        private int[] stack = new int[64];
+        private final int[] mark;
+        private int generation = 0;
+        private int[] buffer = new int[64];
+
+        Cache(Nfa nfa, Alphabet alphabet, int start, boolean unanchored, int maxStates, LongAdder cacheResets) {
+            this.nfa = nfa;
+            this.alphabet = alphabet;
+            this.start = start;
+            this.unanchored = unanchored;
+            this.maxStates = maxStates;
+            this.cacheResets = cacheResets;
+            this.mark = new int[nfa.size()];
+        }
+
+        State initial() {
+            if (initial == null) initial = intern(unanchored ? NO_IDS : new int[]{start});
+            return initial;
+        }
+
+        Closed close(State state, int flags) {
+            int count = 0;
+            int top = 0;
+            nextGeneration();
+            for (int s : state.nfaStates) top = push(s, top);
+            if (unanchored) top = push(start, top);
+
+            int[] accepts = new int[4];
+            int acceptCount = 0;
+            while (top > 0) {
+                int s = stack[--top];
+                switch (nfa.op(s)) {
+                    case Nfa.CHAR -> {
+                        if (count == buffer.length) buffer = Arrays.copyOf(buffer, count * 2);
+                        buffer[count++] = s;
+                    }
+                    case Nfa.SPLIT -> {
+                        top = push(nfa.out1(s), top);
+                        top = push(nfa.out(s), top);
+                    }
+                    case Nfa.ASSERT -> {
+                        if ((flags & (1 << nfa.arg(s))) != 0) top = push(nfa.out(s), top);
+                    }
+                    case Nfa.MATCH -> {
+                        if (acceptCount == accepts.length) accepts = Arrays.copyOf(accepts, acceptCount * 2);
+                        accepts[acceptCount++] = nfa.arg(s);
+                    }
+                }
+            }
+
+            int[] charStates = Arrays.copyOf(buffer, count);
+            Arrays.sort(charStates);
+            return new Closed(this, acceptCount == 0 ? NO_IDS : sortedUnique(accepts, acceptCount), charStates);
+        }
+
+        State step(Closed closed, int charClass) {
+            int count = 0;
+            nextGeneration();
+            for (int s : closed.charStates) {
+                if (!alphabet.contains(nfa.arg(s), charClass)) continue;
+                int target = nfa.out(s);
+                if (mark[target] == generation) continue;
+                mark[target] = generation;
+                if (count == buffer.length) buffer = Arrays.copyOf(buffer, count * 2);
+                buffer[count++] = target;
+            }
+
+            int[] targets = Arrays.copyOf(buffer, count);
+            Arrays.sort(targets);
+            return intern(targets);
+        }
+
+        State intern(int[] nfaStates) {
+            Key key = new Key(nfaStates);
+            State state = states.get(key);
+            if (state == null) {
+                if (states.size() >= maxStates) {
+                    // Start over instead of growing without bound, states already handed out stay usable
+                    states = new HashMap<>();
+                    initial = null;
+                    cacheResets.increment();
+                }
+                state = new State(this, nfaStates);
+                states.put(key, state);
+            }
+            return state;
+        }
+
+        private int push(int s, int top) {
+            if (mark[s] == generation) return top;
+            mark[s] = generation;
+            if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+            stack[top] = s;
+            return top + 1;
+        }
+
+        private void nextGeneration() {
+            if (++generation == 0) {
+                Arrays.fill(mark, 0);
+                generation = 1;
+            }
+        }
+    }
+
+    private static int[] sortedUnique(int[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n == 0 || values[n - 1] != values[i]) values[n++] = values[i];
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    private record Key(int[] states) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Arrays.equals(states, other.states);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(states);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thompson NFA holding every compiled fragment of an automaton in flat primitive arrays.
+ * Zero-width assertions and lookaheads are not evaluated by the NFA itself, they are looked up in a per-position flag mask
+ * computed by {@link PositionFlags} so the automaton never has to backtrack.
+ */
+public final class Nfa {
+    public static final int CHAR = 0;
+    public static final int SPLIT = 1;
+    public static final int ASSERT = 2;
+    public static final int MATCH = 3;
+
+    // Upper bound for the states a single pattern may expand to, counted repetitions are unrolled
+    private static final int MAX_STATES = 1 << 20;
+    // Flag masks are ints and the DFA keeps one slot per flag combination, so keep the number of distinct assertions small
+    public static final int MAX_FLAG_BITS = 8;
+
+    private int[] op = new int[256];
+    private int[] arg = new int[256];
+    private int[] out = new int[256];
+    private int[] out1 = new int[256];
+    private int size = 0;
+
+    private final List<CharSet> sets = new ArrayList<>();
+    private final Map<CharSet, Integer> setIndex = new HashMap<>();
+
+    // Assertion kinds and lookahead bodies are mapped to dense flag bits on first use
+    private final Map<Object, Integer> flagBits = new HashMap<>();
+    private final List<Object> flagSources = new ArrayList<>();
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int state) {
+        return op[state];
+    }
+
+    /** The char set index for CHAR, the flag bit for ASSERT or the pattern id for MATCH */
+    public int arg(int state) {
+        return arg[state];
+    }
+
+    public int out(int state) {
+        return out[state];
+    }
+
+    public int out1(int state) {
+        return out1[state];
+    }
+
+    public CharSet set(int index) {
+        return sets.get(index);
+    }
+
+    public int setCount() {
+        return sets.size();
+    }
+
+    public List<CharSet> sets() {
+        return Collections.unmodifiableList(sets);
+    }
+
+    public int flagBitCount() {
+        return flagSources.size();
+    }
+
+    /**
+     * What a flag bit stands for, either an {@link RegexNode.Assertion.Kind} or a {@link RegexNode.LookAhead}
+     */
+    public Object flagSource(int bit) {
+        return flagSources.get(bit);
+    }
+
+    /**
+     * Compile a pattern so that it reports {@code patternId} once it has matched, returns the entry state
+     */
+    public int compile(RegexNode node, int patternId, boolean reverse) throws UnsupportedRegexException {
+        int mark = size;
+        int flagMark = flagSources.size();
+        try {
+            int match = add(MATCH, patternId, -1, -1);
+            return build(node, match, reverse);
+        } catch (UnsupportedRegexException e) {
+            // Roll back the partial fragment so a failed pattern doesn't leave dead states or flag bits behind
+            size = mark;
+            while (flagSources.size() > flagMark) {
+                flagBits.remove(flagSources.removeLast());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add a state that forks into every given entry, used for the combined start state
+     */
+    public int fork(int[] entries) {
+        if (entries.length == 0) {
+            // A CHAR state over the empty set never moves anywhere
+            return add(CHAR, setIndex(CharSet.EMPTY), -1, -1);
+        }
+        int state = entries[entries.length - 1];
+        for (int i = entries.length - 2; i >= 0; i--) {
+            state = add(SPLIT, 0, entries[i], state);
+        }
+        return state;
+    }
+
+    private int build(RegexNode node, int next, boolean reverse) throws UnsupportedRegexException {
+        if (size > MAX_STATES) {
+            throw new UnsupportedRegexException("Pattern expands to too many states", String.valueOf(node), 0);
+        }
+
+        return switch (node) {
+            case RegexNode.Empty empty -> next;
+            case RegexNode.Chars chars -> add(CHAR, setIndex(chars.set()), next, -1);
+            case RegexNode.Concat concat -> {
+                List<RegexNode> nodes = concat.nodes();
+                // Continuation passing: build the tail first, a reversed pattern builds the head first
+                if (reverse) {
+                    for (RegexNode child : nodes) next = build(child, next, true);
+                } else {
+                    for (int i = nodes.size() - 1; i >= 0; i--) next = build(nodes.get(i), next, false);
+                }
+                yield next;
+            }
+            case RegexNode.Alternation alternation -> {
+                int[] entries = new int[alternation.nodes().size()];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = build(alternation.nodes().get(i), next, reverse);
+                }
+                yield fork(entries);
+            }
+            case RegexNode.Repeat repeat -> compileRepeat(repeat, next, reverse);
+            case RegexNode.Assertion assertion -> add(ASSERT, flagBit(assertion.kind()), next, -1);
+            // Lookaheads are evaluated per position, so a reversed pattern keeps them where they are
+            case RegexNode.LookAhead lookAhead -> add(ASSERT, flagBit(lookAhead), next, -1);
+        };
+    }
+
+    private int compileRepeat(RegexNode.Repeat repeat, int next, boolean reverse) throws UnsupportedRegexException {
+        int state = next;
+        if (repeat.max() == RegexNode.Repeat.UNBOUNDED) {
+            // x* loops through a split that either enters the body again or leaves
+            int loop = add(SPLIT, 0, -1, next);
+            // The arrays may grow while the body is built, so don't index into them before that
+            int body = build(repeat.node(), loop, reverse);
+            out[loop] = body;
+            state = loop;
+        } else {
+            // x{0,n} unrolls into nested optionals (x(x(x)?)?)?
+            for (int i = repeat.min(); i < repeat.max(); i++) {
+                state = add(SPLIT, 0, build(repeat.node(), state, reverse), next);
+            }
+        }
+        for (int i = 0; i < repeat.min(); i++) {
+            state = build(repeat.node(), state, reverse);
+        }
+        return state;
+    }
+
+    private int flagBit(Object source) throws UnsupportedRegexException {
+        Integer bit = flagBits.get(source);
+        if (bit != null) return bit;
+        if (flagSources.size() >= MAX_FLAG_BITS) {
+            throw new UnsupportedRegexException("Too many distinct assertions", String.valueOf(source), 0);
+        }
+        if (source instanceof RegexNode.LookAhead lookAhead && containsAssertion(lookAhead.node())) {
+            throw new UnsupportedRegexException("Assertion inside a lookahead", String.valueOf(source), 0);
+        }
+
+        flagBits.put(source, flagSources.size());
+        flagSources.add(source);
+        return flagSources.size() - 1;
+    }
+
+    private static boolean containsAssertion(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Assertion assertion -> true;
+            case RegexNode.LookAhead lookAhead -> true;
+            case RegexNode.Concat concat -> concat.nodes().stream().anyMatch(Nfa::containsAssertion);
+            case RegexNode.Alternation alternation -> alternation.nodes().stream().anyMatch(Nfa::containsAssertion);
+            case RegexNode.Repeat repeat -> containsAssertion(repeat.node());
+            default -> false;
+        };
+    }
+
+    private int setIndex(CharSet set) {
+        return setIndex.computeIfAbsent(set, s -> {
+            sets.add(s);
+            return sets.size() - 1;
+        });
+    }
+
+    private int add(int op, int arg, int out, int out1) {
+        if (size == this.op.length) {
+            int capacity = size * 2;
+            this.op = Arrays.copyOf(this.op, capacity);
+            this.arg = Arrays.copyOf(this.arg, capacity);
+            this.out = Arrays.copyOf(this.out, capacity);
+            this.out1 = Arrays.copyOf(this.out1, capacity);
+        }
+        this.op[size] = op;
+        this.arg[size] = arg;
+        this.out[size] = out;
+        this.out1[size] = out1;
+        return size++;
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.ran.censorship.automaton;
+
+/**
+ * Evaluates every zero-width assertion of an {@link Nfa} for every position of a text up front.
+ * Lookaheads are answered with one right-to-left scan of their reversed body, so they cost linear time as well.
+ */
+public final class PositionFlags {
+    private final Nfa nfa;
+    private final LazyDfa[] lookAheads;
+    private final int[] lookAheadBits;
+    private final int[] bodyEntries;
+
+    /**
+     * Must be created before the {@link Alphabet}, since it adds the reversed lookahead bodies to the NFA
+     */
+    PositionFlags(Nfa nfa) throws UnsupportedRegexException {
+        this.nfa = nfa;
+        int count = 0;
+        for (int bit = 0; bit < nfa.flagBitCount(); bit++) {
+            if (nfa.flagSource(bit) instanceof RegexNode.LookAhead) count++;
+        }
+        lookAheads = new LazyDfa[count];
+        lookAheadBits = new int[count];
+        bodyEntries = new int[count];
+
+        int index = 0;
+        for (int bit = 0; bit < nfa.flagBitCount(); bit++) {
+            if (nfa.flagSource(bit) instanceof RegexNode.LookAhead lookAhead) {
+                bodyEntries[index] = nfa.compile(lookAhead.node(), bit, true);
+                lookAheadBits[index++] = bit;
+            }
+        }
+    }
+
+    /**
+     * Build the lookahead DFAs once the NFA and its alphabet are final
+     */
+    void link(Alphabet alphabet, int maxStates) {
+        for (int i = 0; i < lookAheads.length; i++) {
+            lookAheads[i] = new LazyDfa(nfa, alphabet, bodyEntries[i], true, maxStates);
+        }
+    }
+
+    /**
+     * Flags for positions 0..length, bit {@code b} of {@code flags[i]} is set when flag source {@code b} holds before char {@code i}
+     */
+    public int[] compute(CharSequence text) {
+        int length = text.length();
+        int[] flags = new int[length + 1];
+        for (int bit = 0; bit < nfa.flagBitCount(); bit++) {
+            if (nfa.flagSource(bit) instanceof RegexNode.Assertion.Kind kind) {
+                applyAssertion(text, flags, kind, 1 << bit);
+            }
+        }
+        for (int i = 0; i < lookAheads.length; i++) {
+            applyLookAhead(text, flags, i);
+        }
+        return flags;
+    }
+
+    private static void applyAssertion(CharSequence text, int[] flags, RegexNode.Assertion.Kind kind, int mask) {
+        int length = text.length();
+        switch (kind) {
+            case BEGIN_INPUT -> flags[0] |= mask;
+            case END_INPUT -> flags[length] |= mask;
+            case END_LINE -> {
+                // $ also matches in front of a line terminator that ends the input, but never inside \r\n
+                flags[length] |= mask;
+                if (length >= 2 && text.charAt(length - 2) == '\r' && text.charAt(length - 1) == '\n') {
+                    flags[length - 2] |= mask;
+                } else if (length >= 1 && !CharSet.DOT.contains(text.charAt(length - 1))) {
+                    flags[length - 1] |= mask;
+                }
+            }
+            case WORD_BOUNDARY, NOT_WORD_BOUNDARY -> {
+                boolean boundary = kind == RegexNode.Assertion.Kind.WORD_BOUNDARY;
+                boolean previous = false;
+                for (int i = 0; i <= length; i++) {
+                    boolean current = i < length && CharSet.WORD.contains(text.charAt(i));
+                    if ((previous != current) == boundary) flags[i] |= mask;
+                    previous = current;
+                }
+            }
+        }
+    }
+
+    private void applyLookAhead(CharSequence text, int[] flags, int index) {
+        RegexNode.LookAhead lookAhead = (RegexNode.LookAhead) nfa.flagSource(lookAheadBits[index]);
+        int mask = 1 << lookAheadBits[index];
+
+        // Scanning the reversed body right to left, an accept at i means the body matches text starting at i
+        LazyDfa.State state = lookAheads[index].initial();
+        for (int i = text.length(); ; i--) {
+            LazyDfa.Closed closed = state.close(0);
+            if (closed.accepting() != lookAhead.negated()) flags[i] |= mask;
+            if (i == 0) break;
+            state = closed.step(text.charAt(i - 1));
+        }
+    }
+}
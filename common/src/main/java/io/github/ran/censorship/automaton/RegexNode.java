@@ -0,0 +1,40 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.List;
+
+/**
+ * Syntax tree for the subset of java.util.regex that the automaton engine understands
+ */
+public sealed interface RegexNode {
+    /** Matches the empty string */
+    record Empty() implements RegexNode {}
+
+    /** Matches a single char from the set */
+    record Chars(CharSet set) implements RegexNode {}
+
+    record Concat(List<RegexNode> nodes) implements RegexNode {}
+
+    record Alternation(List<RegexNode> nodes) implements RegexNode {}
+
+    /** A quantifier, {@code max} is {@link #UNBOUNDED} for * and +. Laziness only changes which match java.util.regex prefers */
+    record Repeat(RegexNode node, int min, int max, boolean lazy) implements RegexNode {
+        public static final int UNBOUNDED = -1;
+    }
+
+    /** A zero-width assertion that only depends on the text around the current position */
+    record Assertion(Kind kind) implements RegexNode {
+        public enum Kind {
+            /** ^ without MULTILINE, and \A */
+            BEGIN_INPUT,
+            /** $ without MULTILINE, and \Z */
+            END_LINE,
+            /** \z */
+            END_INPUT,
+            WORD_BOUNDARY,
+            NOT_WORD_BOUNDARY
+        }
+    }
+
+    /** (?=...) and (?!...) */
+    record LookAhead(RegexNode node, boolean negated) implements RegexNode {}
+}
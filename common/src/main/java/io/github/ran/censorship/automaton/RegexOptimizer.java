@@ -0,0 +1,380 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rewrites the regexes that stay on java.util.regex so they backtrack less, without changing what they match.
+ * <p>
+ * A greedy quantifier over a char class only ever gives chars back when the rest of the pattern could start with one
+ * of them. When it can't, like {@code [^a-zA-Z0-9]*} followed by {@code [hH]}, the quantifier is made possessive and
+ * a run of separators is consumed once instead of being retried char by char. The leading {@code (?:^|[^a-zA-Z0-9])+}
+ * of the generated patterns is split into {@code (?:^|[^a-zA-Z0-9])[^a-zA-Z0-9]*} so the same applies to it, which
+ * also spares java.util.regex a level of recursion per separator that overflows the stack on long runs. Such a pattern
+ * is guarded so it is only tried where a run starts, and alternation branches that start alike share their prefix.
+ * <p>
+ * Quantifiers that are next to another quantifier over some of the same chars, or nested within one, can still take
+ * polynomial time on a long run of those chars and are reported as hazards. Every rewrite is
+ * checked against the original regex on strings generated from the pattern, a rewrite that finds anything different
+ * is thrown away.
+ */
+public final class RegexOptimizer {
+    private static final int SAMPLES = 16;
+    private static final int MAX_SAMPLE_REPEAT = 3;
+    private static final CharSet SURROGATES = CharSet.range(Character.MIN_SURROGATE, Character.MAX_SURROGATE);
+    private static final CharSet FILLER = CharSet.of(' ', '.', '_', 'a', 'x', '0');
+
+    private final Set<RegexNode.Repeat> possessive = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<String> hazards = new ArrayList<>();
+    private int rewrites;
+
+    private RegexOptimizer() {
+    }
+
+    /**
+     * Rewrite a parsed pattern that doesn't need any flags, like the ones {@link RegexPrinter} prints
+     *
+     * @throws PatternSyntaxException if the printed pattern itself doesn't compile
+     */
+    public static Optimized optimize(RegexNode node) {
+        RegexOptimizer optimizer = new RegexOptimizer();
+        RegexNode rewritten = optimizer.rewrite(node, Follow.END);
+        String guard = leadingGuard(node);
+        String original = RegexPrinter.print(node);
+        if (optimizer.rewrites == 0 && optimizer.possessive.isEmpty() && guard.isEmpty()) {
+            return new Optimized(original, false, optimizer.hazards);
+        }
+
+        Pattern originalPattern = Pattern.compile(original);
+        String regex = guard + RegexPrinter.print(rewritten, optimizer.possessive);
+        String problem;
+        try {
+            String difference = difference(originalPattern, Pattern.compile(regex), samples(node));
+            if (difference == null) return new Optimized(regex, true, optimizer.hazards);
+            problem = "rewrite differs on \"" + difference + "\"";
+        } catch (PatternSyntaxException e) {
+            problem = "rewrite doesn't compile: " + e.getDescription();
+        }
+        // Keep the original, the hazards it has are still worth knowing about
+        List<String> hazards = new ArrayList<>(optimizer.hazards);
+        hazards.add(problem);
+        return new Optimized(original, false, hazards);
+    }
+
+    private RegexNode rewrite(RegexNode node, Follow follow) {
+        return switch (node) {
+            case RegexNode.Concat concat -> rewriteConcat(concat.nodes(), follow);
+            case RegexNode.Alternation alternation -> {
+                List<RegexNode> branches = factor(alternation.nodes());
+                if (branches.size() < alternation.nodes().size()) rewrites++;
+                List<RegexNode> rewritten = new ArrayList<>(branches.size());
+                for (RegexNode branch : branches) rewritten.add(rewrite(branch, follow));
+                yield rewritten.size() == 1 ? rewritten.getFirst() : new RegexNode.Alternation(List.copyOf(rewritten));
+            }
+            case RegexNode.Repeat repeat -> rewriteRepeat(repeat, follow);
+            // Only whether a lookahead matches counts, not how far it got
+            case RegexNode.LookAhead lookAhead -> new RegexNode.LookAhead(rewrite(lookAhead.node(), Follow.END), lookAhead.negated());
+            case RegexNode.Empty empty -> empty;
+            case RegexNode.Chars chars -> chars;
+            case RegexNode.Assertion assertion -> assertion;
+        };
+    }
+
+    private RegexNode rewriteConcat(List<RegexNode> nodes, Follow follow) {
+        nodes = splitLeadingSeparators(nodes);
+        // Right to left, so each node knows what may come after it
+        RegexNode[] rewritten = new RegexNode[nodes.size()];
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            rewritten[i] = rewrite(nodes.get(i), follow);
+            follow = follow.after(nodes.get(i));
+        }
+        return new RegexNode.Concat(List.of(rewritten));
+    }
+
+    private RegexNode rewriteRepeat(RegexNode.Repeat repeat, Follow follow) {
+        if (repeat.node() instanceof RegexNode.Chars chars) {
+            if (repeat.lazy() || repeat.min() == repeat.max()) return repeat;
+            if (canBePossessive(chars.set(), follow)) {
+                RegexNode.Repeat rewritten = new RegexNode.Repeat(chars, repeat.min(), repeat.max(), false);
+                possessive.add(rewritten);
+                return rewritten;
+            }
+            // A run both this and the next quantifier may take is split up every possible way before a match fails
+            if (repeat.max() == RegexNode.Repeat.UNBOUNDED && !chars.set().intersect(follow.repeated()).isEmpty()) {
+                hazards.add(RegexPrinter.print(repeat) + " is next to a quantifier over the same chars");
+            }
+            return repeat;
+        }
+
+        // Another iteration or whatever follows the quantifier may come after the body
+        RegexNode body = rewrite(repeat.node(), follow.union(first(repeat.node())));
+        if (repeat.max() == RegexNode.Repeat.UNBOUNDED && containsRepeat(repeat.node())) {
+            hazards.add(RegexPrinter.print(repeat) + " nests quantifiers");
+        }
+        return new RegexNode.Repeat(body, repeat.min(), repeat.max(), repeat.lazy());
+    }
+
+    /**
+     * A quantifier that never has to give anything back: nothing it consumes could start what follows, and what follows
+     * can't match without consuming anything. java.util.regex reads a surrogate pair as one code point, so sets that
+     * both hold surrogates count as overlapping
+     */
+    private static boolean canBePossessive(CharSet set, Follow follow) {
+        if (follow.open()) return false;
+        if (!set.intersect(SURROGATES).isEmpty() && !follow.chars().intersect(SURROGATES).isEmpty()) return false;
+        return set.intersect(follow.chars()).isEmpty();
+    }
+
+    /**
+     * A pattern that starts with a run of {@code S} can always start its match one char earlier if that char is another
+     * {@code S}, so the leftmost match never starts in the middle of a run. Saying so up front keeps find() from trying
+     * every position of a long run of separators, each time scanning to its end. \G still allows a match to start right
+     * where the last one ended, wherever that is
+     *
+     * @return the guard to put in front of the pattern, empty if it doesn't start with such a run
+     */
+    private static String leadingGuard(RegexNode node) {
+        RegexNode first = node instanceof RegexNode.Concat concat ? concat.nodes().getFirst() : node;
+        if (!(first instanceof RegexNode.Repeat repeat) || repeat.lazy() || repeat.max() != RegexNode.Repeat.UNBOUNDED) return "";
+        CharSet run = repeat.node() instanceof RegexNode.Chars chars ? chars.set() : beginOrChars(repeat.node());
+        if (run == null || run.isEmpty()) return "";
+        return "(?:\\G|(?<!" + RegexPrinter.print(new RegexNode.Chars(run)) + "))";
+    }
+
+    /**
+     * {@code (?:^|S)+} is {@code (?:^|S)S*}, ^ can't match again once a char was consumed. The new {@code S*} can then
+     * be made possessive like any other quantifier
+     */
+    private List<RegexNode> splitLeadingSeparators(List<RegexNode> nodes) {
+        List<RegexNode> split = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            RegexNode node = nodes.get(i);
+            CharSet separators = node instanceof RegexNode.Repeat repeat && !repeat.lazy() && repeat.min() >= 1
+                    && repeat.max() == RegexNode.Repeat.UNBOUNDED ? beginOrChars(repeat.node()) : null;
+            if (separators == null) {
+                if (split != null) split.add(node);
+                continue;
+            }
+            if (split == null) split = new ArrayList<>(nodes.subList(0, i));
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            for (int n = 0; n < repeat.min(); n++) split.add(repeat.node());
+            split.add(new RegexNode.Repeat(new RegexNode.Chars(separators), 0, RegexNode.Repeat.UNBOUNDED, false));
+            rewrites++;
+        }
+        return split == null ? nodes : split;
+    }
+
+    /**
+     * The chars of an alternation of ^ and single chars, null if it is anything else
+     */
+    private static CharSet beginOrChars(RegexNode node) {
+        if (!(node instanceof RegexNode.Alternation alternation)) return null;
+        CharSet chars = CharSet.EMPTY;
+        boolean begin = false;
+        for (RegexNode branch : alternation.nodes()) {
+            if (branch instanceof RegexNode.Assertion assertion && assertion.kind() == RegexNode.Assertion.Kind.BEGIN_INPUT) {
+                begin = true;
+            } else if (branch instanceof RegexNode.Chars set) {
+                chars = chars.union(set.set());
+            } else {
+                return null;
+            }
+        }
+        return begin && !chars.isEmpty() ? chars : null;
+    }
+
+    /**
+     * Join neighbouring branches that start with the same node, {@code er|ers|ed} becomes {@code e(?:r|rs|d)}. Only
+     * neighbours are joined, so the branches are still tried in the same order
+     */
+    private static List<RegexNode> factor(List<RegexNode> branches) {
+        List<RegexNode> factored = new ArrayList<>(branches.size());
+        int i = 0;
+        while (i < branches.size()) {
+            List<RegexNode> first = elements(branches.get(i));
+            int j = i + 1;
+            while (j < branches.size() && !first.isEmpty() && first.getFirst().equals(head(branches.get(j)))) j++;
+            if (j - i == 1) {
+                factored.add(branches.get(i));
+            } else {
+                List<RegexNode> rests = new ArrayList<>(j - i);
+                for (int k = i; k < j; k++) {
+                    List<RegexNode> rest = elements(branches.get(k));
+                    rests.add(concat(rest.subList(1, rest.size())));
+                }
+                List<RegexNode> rest = factor(rests);
+                factored.add(concat(List.of(first.getFirst(), rest.size() == 1 ? rest.getFirst() : new RegexNode.Alternation(List.copyOf(rest)))));
+            }
+            i = j;
+        }
+        return factored;
+    }
+
+    private static RegexNode head(RegexNode node) {
+        List<RegexNode> elements = elements(node);
+        return elements.isEmpty() ? null : elements.getFirst();
+    }
+
+    private static List<RegexNode> elements(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Concat concat -> concat.nodes();
+            case RegexNode.Empty empty -> List.of();
+            default -> List.of(node);
+        };
+    }
+
+    private static RegexNode concat(List<RegexNode> nodes) {
+        if (nodes.isEmpty()) return new RegexNode.Empty();
+        return nodes.size() == 1 ? nodes.getFirst() : new RegexNode.Concat(List.copyOf(nodes));
+    }
+
+    private static boolean containsRepeat(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Repeat repeat -> repeat.max() != repeat.min();
+            case RegexNode.Concat concat -> concat.nodes().stream().anyMatch(RegexOptimizer::containsRepeat);
+            case RegexNode.Alternation alternation -> alternation.nodes().stream().anyMatch(RegexOptimizer::containsRepeat);
+            default -> false;
+        };
+    }
+
+    /**
+     * What a node may start with
+     */
+    static Follow first(RegexNode node) {
+        return Follow.END.after(node);
+    }
+
+    /**
+     * What may come next at some point of a pattern
+     *
+     * @param chars    every char that may be consumed next
+     * @param repeated the chars of {@code chars} an unbounded quantifier may consume a run of
+     * @param open     whether an assertion or lookahead may decide next, nothing can be told from {@code chars} then
+     */
+    record Follow(CharSet chars, CharSet repeated, boolean open) {
+        /** The end of the pattern, nothing can fail there */
+        static final Follow END = new Follow(CharSet.EMPTY, CharSet.EMPTY, false);
+
+        Follow union(Follow other) {
+            return new Follow(chars.union(other.chars), repeated.union(other.repeated), open || other.open);
+        }
+
+        /**
+         * What may come next in front of {@code node} when this may come after it
+         */
+        Follow after(RegexNode node) {
+            return switch (node) {
+                case RegexNode.Empty empty -> this;
+                case RegexNode.Chars set -> new Follow(set.set(), CharSet.EMPTY, false);
+                case RegexNode.Concat concat -> {
+                    Follow follow = this;
+                    for (int i = concat.nodes().size() - 1; i >= 0; i--) follow = follow.after(concat.nodes().get(i));
+                    yield follow;
+                }
+                case RegexNode.Alternation alternation -> {
+                    Follow follow = null;
+                    for (RegexNode branch : alternation.nodes()) {
+                        Follow branchFollow = after(branch);
+                        follow = follow == null ? branchFollow : follow.union(branchFollow);
+                    }
+                    yield follow == null ? this : follow;
+                }
+                case RegexNode.Repeat repeat -> {
+                    Follow body = after(repeat.node());
+                    if (repeat.max() == RegexNode.Repeat.UNBOUNDED) body = new Follow(body.chars, body.repeated.union(first(repeat.node()).chars), body.open);
+                    yield repeat.min() == 0 ? body.union(this) : body;
+                }
+                case RegexNode.Assertion assertion -> new Follow(chars, repeated, true);
+                case RegexNode.LookAhead lookAhead -> new Follow(chars, repeated, true);
+            };
+        }
+    }
+
+    /**
+     * The first input the two patterns find different matches in, null if they agree on all of them
+     */
+    static String difference(Pattern original, Pattern rewritten, List<String> samples) {
+        for (String sample : samples) {
+            Matcher expected = original.matcher(sample);
+            Matcher actual = rewritten.matcher(sample);
+            while (true) {
+                boolean found = expected.find();
+                if (found != actual.find()) return sample;
+                if (!found) break;
+                if (expected.start() != actual.start() || expected.end() != actual.end()) return sample;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Strings the pattern matches, with separators doubled, chars dropped and text around them, always the same ones
+     */
+    static List<String> samples(RegexNode node) {
+        Random random = new Random(RegexPrinter.print(node).hashCode());
+        List<String> samples = new ArrayList<>(SAMPLES * 4);
+        for (int i = 0; i < SAMPLES; i++) {
+            StringBuilder sb = new StringBuilder();
+            generate(node, random, sb);
+            String sample = sb.toString();
+            samples.add(sample);
+            samples.add(pick(FILLER, random) + sample + pick(FILLER, random));
+            samples.add(sample + pick(FILLER, random) + sample);
+            samples.add(sample + sample);
+            if (!sample.isEmpty()) {
+                int at = random.nextInt(sample.length());
+                samples.add(sample.substring(0, at) + sample.charAt(at) + sample.substring(at));
+                samples.add(sample.substring(0, at) + sample.substring(at + 1));
+            }
+        }
+        return samples;
+    }
+
+    private static void generate(RegexNode node, Random random, StringBuilder sb) {
+        switch (node) {
+            case RegexNode.Chars chars -> {
+                if (!chars.set().isEmpty()) sb.append(pick(chars.set(), random));
+            }
+            case RegexNode.Concat concat -> {
+                for (RegexNode child : concat.nodes()) generate(child, random, sb);
+            }
+            case RegexNode.Alternation alternation -> generate(alternation.nodes().get(random.nextInt(alternation.nodes().size())), random, sb);
+            case RegexNode.Repeat repeat -> {
+                int max = repeat.max() == RegexNode.Repeat.UNBOUNDED ? repeat.min() + MAX_SAMPLE_REPEAT : Math.min(repeat.max(), repeat.min() + MAX_SAMPLE_REPEAT);
+                int count = repeat.min() + random.nextInt(max - repeat.min() + 1);
+                for (int i = 0; i < count; i++) generate(repeat.node(), random, sb);
+            }
+            case RegexNode.Empty empty -> {
+            }
+            case RegexNode.Assertion assertion -> {
+            }
+            case RegexNode.LookAhead lookAhead -> {
+            }
+        }
+    }
+
+    /**
+     * A char of the set, mostly from its first ranges which hold the ASCII chars chat is made of
+     */
+    private static char pick(CharSet set, Random random) {
+        int range = random.nextInt(Math.min(set.rangeCount(), 4));
+        int lo = set.rangeStart(range);
+        int hi = Math.min(set.rangeEnd(range), lo + 127);
+        return (char) (lo + random.nextInt(hi - lo + 1));
+    }
+
+    /**
+     * @param regex     what should run, the original pattern unless a verified rewrite was found
+     * @param rewritten whether {@code regex} differs from the original
+     * @param hazards   quantifiers that may still backtrack
+     */
+    public record Optimized(String regex, boolean rewritten, List<String> hazards) {
+    }
+}
@@ -0,0 +1,297 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Recursive descent parser for the java.util.regex subset the YAGPDB scripts generate.
+ * Anything with backtracking-only semantics (backreferences, lookbehind, possessive or atomic groups) is rejected.
+ */
+public final class RegexParser {
+    private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE;
+
+    private final String regex;
+    private final boolean caseInsensitive;
+    private int pos = 0;
+
+    private RegexParser(String regex, int flags) {
+        this.regex = regex;
+        this.caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+    }
+
+    public static RegexNode parse(String regex, int flags) throws UnsupportedRegexException {
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            throw new UnsupportedRegexException("Unsupported flags " + flags, regex, 0);
+        }
+
+        RegexParser parser = new RegexParser(regex, flags);
+        RegexNode node = parser.parseAlternation();
+        if (parser.pos < regex.length()) {
+            throw parser.unsupported("Unbalanced ')'");
+        }
+        return node;
+    }
+
+    private RegexNode parseAlternation() throws UnsupportedRegexException {
+        List<RegexNode> branches = new ArrayList<>();
+        branches.add(parseConcat());
+        while (peek('|')) {
+            pos++;
+            branches.add(parseConcat());
+        }
+        return branches.size() == 1 ? branches.getFirst() : new RegexNode.Alternation(List.copyOf(branches));
+    }
+
+    private RegexNode parseConcat() throws UnsupportedRegexException {
+        List<RegexNode> nodes = new ArrayList<>();
+        while (pos < regex.length() && !peek('|') && !peek(')')) {
+            nodes.add(parseQuantifier(parseAtom()));
+        }
+        if (nodes.isEmpty()) return new RegexNode.Empty();
+        return nodes.size() == 1 ? nodes.getFirst() : new RegexNode.Concat(List.copyOf(nodes));
+    }
+
+    private RegexNode parseQuantifier(RegexNode atom) throws UnsupportedRegexException {
+        while (pos < regex.length()) {
+            int min, max;
+            char c = regex.charAt(pos);
+            if (c == '*') {
+                min = 0; max = RegexNode.Repeat.UNBOUNDED; pos++;
+            } else if (c == '+') {
+                min = 1; max = RegexNode.Repeat.UNBOUNDED; pos++;
+            } else if (c == '?') {
+                min = 0; max = 1; pos++;
+            } else if (c == '{') {
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (peek(',')) {
+                    pos++;
+                    max = peek('}') ? RegexNode.Repeat.UNBOUNDED : parseNumber();
+                }
+                expect('}');
+            } else {
+                return atom;
+            }
+
+            if (atom instanceof RegexNode.Assertion || atom instanceof RegexNode.LookAhead) {
+                throw unsupported("Quantified assertion");
+            }
+
+            // Lazy quantifiers accept the same strings, only the preferred match differs
+            boolean lazy = peek('?');
+            if (lazy) {
+                pos++;
+            } else if (peek('+')) {
+                throw unsupported("Possessive quantifier");
+            }
+            atom = new RegexNode.Repeat(atom, min, max, lazy);
+        }
+        return atom;
+    }
+
+    private int parseNumber() throws UnsupportedRegexException {
+        int start = pos;
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) pos++;
+        if (start == pos || pos - start > 6) throw unsupported("Bad repetition count");
+        return Integer.parseInt(regex, start, pos, 10);
+    }
+
+    private RegexNode parseAtom() throws UnsupportedRegexException {
+        char c = regex.charAt(pos++);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return new RegexNode.Chars(fold(parseClass()));
+            case '.':
+                return new RegexNode.Chars(CharSet.DOT);
+            case '^':
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.BEGIN_INPUT);
+            case '$':
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.END_LINE);
+            case '\\':
+                return parseEscape();
+            case '*', '+', '?', '{':
+                throw unsupported("Dangling quantifier");
+            default:
+                return new RegexNode.Chars(fold(CharSet.of(c)));
+        }
+    }
+
+    private RegexNode parseGroup() throws UnsupportedRegexException {
+        RegexNode node;
+        if (peek('?')) {
+            pos++;
+            if (pos >= regex.length()) throw unsupported("Unterminated group");
+            char kind = regex.charAt(pos++);
+            if (kind == ':') {
+                node = parseAlternation();
+            } else if (kind == '=' || kind == '!') {
+                node = new RegexNode.LookAhead(parseAlternation(), kind == '!');
+            } else if (kind == '<' && pos < regex.length() && Character.isLetter(regex.charAt(pos))) {
+                // Named capturing group, captures don't matter to an automaton
+                while (pos < regex.length() && regex.charAt(pos) != '>') pos++;
+                expect('>');
+                node = parseAlternation();
+            } else {
+                throw unsupported("Unsupported group (?" + kind);
+            }
+        } else {
+            node = parseAlternation();
+        }
+        expect(')');
+        return node;
+    }
+
+    private RegexNode parseEscape() throws UnsupportedRegexException {
+        if (pos >= regex.length()) throw unsupported("Trailing backslash");
+        char c = regex.charAt(pos);
+        switch (c) {
+            case 'b':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.WORD_BOUNDARY);
+            case 'B':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.NOT_WORD_BOUNDARY);
+            case 'A':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.BEGIN_INPUT);
+            case 'Z':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.END_LINE);
+            case 'z':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.END_INPUT);
+            default:
+                return new RegexNode.Chars(fold(parseCharEscape()));
+        }
+    }
+
+    /**
+     * Parse an escape that stands for a set of chars, shared between classes and plain atoms
+     */
+    private CharSet parseCharEscape() throws UnsupportedRegexException {
+        char c = regex.charAt(pos++);
+        return switch (c) {
+            case 'd' -> CharSet.DIGIT;
+            case 'D' -> CharSet.DIGIT.complement();
+            case 'w' -> CharSet.WORD;
+            case 'W' -> CharSet.WORD.complement();
+            case 's' -> CharSet.SPACE;
+            case 'S' -> CharSet.SPACE.complement();
+            case 't' -> CharSet.of('\t');
+            case 'n' -> CharSet.of('\n');
+            case 'r' -> CharSet.of('\r');
+            case 'f' -> CharSet.of('\f');
+            case 'a' -> CharSet.of('\u0007');
+            case 'e' -> CharSet.of('\u001B');
+            case 'x' -> CharSet.of((char) parseHex(2));
+            case 'u' -> CharSet.of((char) parseHex(4));
+            case '0' -> {
+                int start = pos;
+                while (pos < regex.length() && pos - start < 3 && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7') pos++;
+                if (start == pos) throw unsupported("Bad octal escape");
+                yield CharSet.of((char) Integer.parseInt(regex, start, pos, 8));
+            }
+            default -> {
+                if (Character.isLetterOrDigit(c)) throw unsupported("Unsupported escape \\" + c);
+                yield CharSet.of(c);
+            }
+        };
+    }
+
+    private int parseHex(int digits) throws UnsupportedRegexException {
+        if (pos + digits > regex.length()) throw unsupported("Bad hex escape");
+        try {
+            int value = Integer.parseInt(regex, pos, pos + digits, 16);
+            pos += digits;
+            return value;
+        } catch (NumberFormatException e) {
+            throw unsupported("Bad hex escape");
+        }
+    }
+
+    /**
+     * Parse a character class, the opening '[' has already been consumed. Case folding is applied by the caller.
+     */
+    private CharSet parseClass() throws UnsupportedRegexException {
+        boolean negated = false;
+        if (peek('^')) {
+            negated = true;
+            pos++;
+        }
+
+        CharSet set = CharSet.EMPTY;
+        boolean first = true;
+        while (true) {
+            if (pos >= regex.length()) throw unsupported("Unterminated character class");
+            char c = regex.charAt(pos);
+            if (c == ']' && !first) {
+                pos++;
+                break;
+            }
+            first = false;
+
+            if (c == '[' || regex.startsWith("&&", pos)) {
+                throw unsupported("Nested character class");
+            }
+
+            CharSet item;
+            char lo;
+            pos++;
+            if (c == '\\') {
+                if (pos >= regex.length()) throw unsupported("Trailing backslash");
+                item = parseCharEscape();
+                if (item.rangeCount() != 1 || item.rangeStart(0) != item.rangeEnd(0)) {
+                    set = set.union(item);
+                    continue;
+                }
+                lo = item.rangeStart(0);
+            } else {
+                lo = c;
+            }
+
+            // A '-' followed by ']' is a literal dash
+            if (peek('-') && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                pos++;
+                char hi = regex.charAt(pos++);
+                if (hi == '[') throw unsupported("Nested character class");
+                if (hi == '\\') {
+                    if (pos >= regex.length()) throw unsupported("Trailing backslash");
+                    CharSet escaped = parseCharEscape();
+                    if (escaped.rangeCount() != 1 || escaped.rangeStart(0) != escaped.rangeEnd(0)) {
+                        throw unsupported("Bad range end");
+                    }
+                    hi = escaped.rangeStart(0);
+                }
+                if (hi < lo) throw unsupported("Illegal range");
+                set = set.union(CharSet.range(lo, hi));
+            } else {
+                set = set.union(CharSet.of(lo));
+            }
+        }
+
+        // java.util.regex folds the positive class first and then negates it
+        if (negated) return fold(set).complement();
+        return set;
+    }
+
+    private CharSet fold(CharSet set) {
+        return caseInsensitive ? set.foldAsciiCase() : set;
+    }
+
+    private boolean peek(char c) {
+        return pos < regex.length() && regex.charAt(pos) == c;
+    }
+
+    private void expect(char c) throws UnsupportedRegexException {
+        if (!peek(c)) throw unsupported("Expected '" + c + "'");
+        pos++;
+    }
+
+    private UnsupportedRegexException unsupported(String message) {
+        return new UnsupportedRegexException(message, regex, pos);
+    }
+}
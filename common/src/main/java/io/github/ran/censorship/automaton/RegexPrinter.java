@@ -0,0 +1,124 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.Set;
+
+/**
+ * Turns a {@link RegexNode} back into java.util.regex source that matches the same strings without any flags.
+ * Groups come out non-capturing, only the whole match is ever used.
+ */
+public final class RegexPrinter {
+    private RegexPrinter() {
+    }
+
+    public static String print(RegexNode node) {
+        return print(node, Set.of());
+    }
+
+    /**
+     * Like {@link #print(RegexNode)}, but the given quantifiers come out possessive. They are told apart by identity,
+     * not by equality
+     */
+    public static String print(RegexNode node, Set<RegexNode.Repeat> possessive) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, node, possessive);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, RegexNode node, Set<RegexNode.Repeat> possessive) {
+        switch (node) {
+            case RegexNode.Empty empty -> {
+            }
+            case RegexNode.Chars chars -> appendChars(sb, chars.set());
+            case RegexNode.Concat concat -> {
+                for (RegexNode child : concat.nodes()) append(sb, child, possessive);
+            }
+            case RegexNode.Alternation alternation -> {
+                sb.append("(?:");
+                for (int i = 0; i < alternation.nodes().size(); i++) {
+                    if (i > 0) sb.append('|');
+                    append(sb, alternation.nodes().get(i), possessive);
+                }
+                sb.append(')');
+            }
+            case RegexNode.Repeat repeat -> appendRepeat(sb, repeat, possessive);
+            case RegexNode.Assertion assertion -> sb.append(switch (assertion.kind()) {
+                case BEGIN_INPUT -> "^";
+                case END_LINE -> "$";
+                case END_INPUT -> "\\z";
+                case WORD_BOUNDARY -> "\\b";
+                case NOT_WORD_BOUNDARY -> "\\B";
+            });
+            case RegexNode.LookAhead lookAhead -> {
+                sb.append(lookAhead.negated() ? "(?!" : "(?=");
+                append(sb, lookAhead.node(), possessive);
+                sb.append(')');
+            }
+        }
+    }
+
+    private static void appendRepeat(StringBuilder sb, RegexNode.Repeat repeat, Set<RegexNode.Repeat> possessive) {
+        if (repeat.node() instanceof RegexNode.Chars chars) {
+            appendChars(sb, chars.set());
+        } else {
+            sb.append("(?:");
+            append(sb, repeat.node(), possessive);
+            sb.append(')');
+        }
+
+        int min = repeat.min();
+        int max = repeat.max();
+        if (min == 0 && max == RegexNode.Repeat.UNBOUNDED) sb.append('*');
+        else if (min == 1 && max == RegexNode.Repeat.UNBOUNDED) sb.append('+');
+        else if (min == 0 && max == 1) sb.append('?');
+        else if (max == RegexNode.Repeat.UNBOUNDED) sb.append('{').append(min).append(",}");
+        else if (min == max) sb.append('{').append(min).append('}');
+        else sb.append('{').append(min).append(',').append(max).append('}');
+        if (repeat.lazy()) sb.append('?');
+        else if (possessive.contains(repeat)) sb.append('+');
+    }
+
+    private static void appendChars(StringBuilder sb, CharSet set) {
+        if (set.isEmpty()) {
+            sb.append("(?!)");
+            return;
+        }
+        if (set.rangeCount() == 1 && set.rangeStart(0) == set.rangeEnd(0) && !Character.isSurrogate(set.rangeStart(0))) {
+            appendChar(sb, set.rangeStart(0));
+            return;
+        }
+
+        // java.util.regex reads a surrogate pair as one code point, which should match when both halves would
+        boolean supplementary = set.contains(Character.MIN_HIGH_SURROGATE) && set.contains(Character.MIN_LOW_SURROGATE);
+        CharSet complement = set.complement();
+        boolean negated = complement.rangeCount() < set.rangeCount();
+        if (negated && complement.isEmpty()) {
+            sb.append("(?s:.)");
+            return;
+        }
+
+        CharSet printed = negated ? complement : set;
+        sb.append(negated ? "[^" : "[");
+        for (int i = 0; i < printed.rangeCount(); i++) {
+            appendChar(sb, printed.rangeStart(i));
+            if (printed.rangeEnd(i) != printed.rangeStart(i)) {
+                sb.append('-');
+                appendChar(sb, printed.rangeEnd(i));
+            }
+        }
+        if (supplementary != negated) sb.append("\\x{10000}-\\x{10FFFF}");
+        sb.append(']');
+    }
+
+    private static void appendChar(StringBuilder sb, char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            sb.append(c);
+        } else if (c > ' ' && c < 0x7F) {
+            sb.append('\\').append(c);
+        } else if (Character.isSurrogate(c)) {
+            // Two \\u escapes in a row would be joined into one supplementary code point
+            sb.append(String.format("\\x{%04X}", (int) c));
+        } else {
+            sb.append(String.format("\\u%04X", (int) c));
+        }
+    }
+}
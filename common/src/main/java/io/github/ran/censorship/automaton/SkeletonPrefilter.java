@@ -0,0 +1,255 @@
+package io.github.ran.censorship.automaton;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cheap first pass that rules out patterns before any regex runs.
+ * <p>
+ * Every pattern has a skeleton of letter classes that any match has to contain in order, e.g. {@code $s $h $i} for
+ * {@code (joinStr $SPLITTER $s $h $i)}, where only splitter or optional chars may appear between two classes. The
+ * skeletons of all patterns are packed into one bit vector and run together as an extended Shift-And over the text, with
+ * chars normalized to the few classes the skeletons can tell apart. A pattern whose skeleton never completes can't match
+ * and doesn't have to be evaluated. Patterns without a usable skeleton are always candidates.
+ */
+public final class SkeletonPrefilter {
+    private final int patternCount;
+    private final int words;
+    private final Alphabet alphabet;
+    // Per char class: bits of skeleton positions the class satisfies, and bits that may stay active across it
+    private final long[][] advance;
+    private final long[][] stay;
+    private final long[] first;
+    private final long[] last;
+    private final int[] owner;
+    private final BitSet alwaysCandidates;
+    private final int skeletonCount;
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder messagesWithCandidates = new LongAdder();
+    private final LongAdder candidatePatterns = new LongAdder();
+
+    private SkeletonPrefilter(int patternCount, List<Skeleton> skeletons, BitSet alwaysCandidates) {
+        this.patternCount = patternCount;
+        this.alwaysCandidates = alwaysCandidates;
+        this.skeletonCount = skeletons.size();
+
+        int bits = 0;
+        List<CharSet> sets = new ArrayList<>();
+        for (Skeleton skeleton : skeletons) {
+            bits += skeleton.classes.size();
+            sets.addAll(skeleton.classes);
+            sets.addAll(skeleton.gaps);
+        }
+        this.words = Math.max(1, (bits + 63) / 64);
+        this.alphabet = new Alphabet(sets);
+        this.advance = new long[alphabet.size()][words];
+        this.stay = new long[alphabet.size()][words];
+        this.first = new long[words];
+        this.last = new long[words];
+        this.owner = new int[bits];
+
+        int bit = 0;
+        for (Skeleton skeleton : skeletons) {
+            for (int i = 0; i < skeleton.classes.size(); i++, bit++) {
+                owner[bit] = skeleton.patternId;
+                if (i == 0) first[bit >> 6] |= 1L << bit;
+                if (i == skeleton.classes.size() - 1) last[bit >> 6] |= 1L << bit;
+
+                CharSet required = skeleton.classes.get(i);
+                CharSet gap = skeleton.gaps.get(i);
+                for (int c = 0; c < alphabet.size(); c++) {
+                    char representative = alphabet.representative(c);
+                    if (required.contains(representative)) advance[c][bit >> 6] |= 1L << bit;
+                    if (gap.contains(representative)) stay[c][bit >> 6] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the prefilter for the given parsed patterns, pattern ids are their index in the list. Null patterns simply
+     * have no skeleton.
+     */
+    public static SkeletonPrefilter build(List<RegexNode> nodes) {
+        List<Skeleton> skeletons = new ArrayList<>();
+        BitSet alwaysCandidates = new BitSet(nodes.size());
+        for (int id = 0; id < nodes.size(); id++) {
+            Skeleton skeleton = nodes.get(id) == null ? null : extract(id, nodes.get(id));
+            if (skeleton == null) {
+                alwaysCandidates.set(id);
+            } else {
+                skeletons.add(skeleton);
+            }
+        }
+        return new SkeletonPrefilter(nodes.size(), skeletons, alwaysCandidates);
+    }
+
+    /**
+     * Ids of the patterns that may match the text, every other pattern is guaranteed not to match
+     */
+    public BitSet candidates(CharSequence text) {
+        BitSet candidates = (BitSet) alwaysCandidates.clone();
+        long[] state = new long[words];
+        for (int i = 0; i < text.length(); i++) {
+            int charClass = alphabet.classOf(text.charAt(i));
+            long[] advance = this.advance[charClass];
+            long[] stay = this.stay[charClass];
+
+            long carry = 0;
+            for (int w = 0; w < words; w++) {
+                long previous = state[w];
+                long next = (((previous << 1) | carry | first[w]) & advance[w]) | (previous & stay[w]);
+                carry = previous >>> 63;
+                state[w] = next;
+
+                long completed = next & last[w];
+                while (completed != 0) {
+                    int bit = (w << 6) + Long.numberOfTrailingZeros(completed);
+                    candidates.set(owner[bit]);
+                    completed &= completed - 1;
+                }
+            }
+        }
+
+        int count = candidates.cardinality();
+        messages.increment();
+        if (count > 0) messagesWithCandidates.increment();
+        candidatePatterns.add(count);
+        return candidates;
+    }
+
+    public int skeletonCount() {
+        return skeletonCount;
+    }
+
+    /**
+     * Share of messages where at least one pattern still had to be evaluated
+     */
+    public double messageHitRate() {
+        long total = messages.sum();
+        return total == 0 ? 0 : (double) messagesWithCandidates.sum() / total;
+    }
+
+    /**
+     * Share of pattern evaluations that got past the prefilter, everything else was skipped
+     */
+    public double patternHitRate() {
+        long total = messages.sum() * patternCount;
+        return total == 0 ? 0 : (double) candidatePatterns.sum() / total;
+    }
+
+    public String describeStats() {
+        return String.format("Prefilter: %d messages, %.1f%% had candidates, %.1f%% of pattern evaluations skipped (%d of %d patterns have a skeleton)",
+                messages.sum(), messageHitRate() * 100, (1 - patternHitRate()) * 100, skeletonCount, patternCount);
+    }
+
+    /**
+     * Find the longest run of single char classes in the top level sequence that only nullable elements separate
+     */
+    private static Skeleton extract(int patternId, RegexNode node) {
+        List<RegexNode> elements = new ArrayList<>();
+        flatten(node, elements);
+
+        Skeleton best = null;
+        Skeleton run = new Skeleton(patternId);
+        CharSet gap = CharSet.EMPTY;
+        for (RegexNode element : elements) {
+            CharSet single = singleChar(element);
+            if (single == null && element instanceof RegexNode.Repeat repeat && repeat.min() >= 1) {
+                single = singleChar(repeat.node());
+                if (single != null) {
+                    run.add(single, gap);
+                    // Further repetitions of the class may sit between this one and the next
+                    gap = repeat.max() == 1 ? CharSet.EMPTY : single;
+                    continue;
+                }
+            }
+
+            if (single != null) {
+                run.add(single, gap);
+                gap = CharSet.EMPTY;
+            } else if (nullable(element)) {
+                gap = gap.union(charsOf(element));
+            } else {
+                if (best == null || run.classes.size() > best.classes.size()) best = run;
+                run = new Skeleton(patternId);
+                gap = CharSet.EMPTY;
+            }
+        }
+        if (best == null || run.classes.size() > best.classes.size()) best = run;
+        return best.classes.isEmpty() ? null : best;
+    }
+
+    private static void flatten(RegexNode node, List<RegexNode> elements) {
+        if (node instanceof RegexNode.Concat concat) {
+            for (RegexNode child : concat.nodes()) flatten(child, elements);
+        } else {
+            elements.add(node);
+        }
+    }
+
+    /**
+     * The chars a node matches when it always consumes exactly one char, null otherwise
+     */
+    private static CharSet singleChar(RegexNode node) {
+        if (node instanceof RegexNode.Chars chars) return chars.set();
+        if (node instanceof RegexNode.Alternation alternation) {
+            CharSet union = CharSet.EMPTY;
+            for (RegexNode branch : alternation.nodes()) {
+                CharSet branchSet = singleChar(branch);
+                if (branchSet == null) return null;
+                union = union.union(branchSet);
+            }
+            return union;
+        }
+        if (node instanceof RegexNode.Concat concat && concat.nodes().size() == 1) return singleChar(concat.nodes().getFirst());
+        return null;
+    }
+
+    private static boolean nullable(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Empty empty -> true;
+            case RegexNode.Chars chars -> false;
+            case RegexNode.Concat concat -> concat.nodes().stream().allMatch(SkeletonPrefilter::nullable);
+            case RegexNode.Alternation alternation -> alternation.nodes().stream().anyMatch(SkeletonPrefilter::nullable);
+            case RegexNode.Repeat repeat -> repeat.min() == 0 || nullable(repeat.node());
+            case RegexNode.Assertion assertion -> true;
+            case RegexNode.LookAhead lookAhead -> true;
+        };
+    }
+
+    /**
+     * Every char a node can consume, assertions and lookaheads consume nothing
+     */
+    private static CharSet charsOf(RegexNode node) {
+        return switch (node) {
+            case RegexNode.Chars chars -> chars.set();
+            case RegexNode.Concat concat -> concat.nodes().stream().map(SkeletonPrefilter::charsOf).reduce(CharSet.EMPTY, CharSet::union);
+            case RegexNode.Alternation alternation -> alternation.nodes().stream().map(SkeletonPrefilter::charsOf).reduce(CharSet.EMPTY, CharSet::union);
+            case RegexNode.Repeat repeat -> charsOf(repeat.node());
+            default -> CharSet.EMPTY;
+        };
+    }
+
+    /**
+     * classes[i] must appear in order, gaps[i] are the chars allowed between classes[i] and classes[i + 1]
+     */
+    private static final class Skeleton {
+        private final int patternId;
+        private final List<CharSet> classes = new ArrayList<>();
+        private final List<CharSet> gaps = new ArrayList<>();
+
+        private Skeleton(int patternId) {
+            this.patternId = patternId;
+        }
+
+        private void add(CharSet required, CharSet gapBefore) {
+            if (!classes.isEmpty()) gaps.set(gaps.size() - 1, gapBefore);
+            classes.add(required);
+            gaps.add(CharSet.EMPTY);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package io.github.ran.censorship.automaton;
+
+/**
+ * Thrown when a regex uses a construct the automaton engine can't express, those patterns stay on java.util.regex
+ */
+public class UnsupportedRegexException extends Exception {
+    public UnsupportedRegexException(String message, String regex, int index) {
+        super(message + " at index " + index + " in " + regex);
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.ran.censorship.mixins;
+
+import io.github.ran.censorship.Violations;
+import io.github.ran.censorship.YAGPDBParser;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.inventory.AnvilMenu;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.List;
+
+@Mixin(AnvilMenu.class)
+public abstract class AnvilMenuMixin {
+    @Shadow private String itemName;
+    // The last name checked and whether it was blocked, clicking the result again neither scans nor reports it again
+    @Unique private String censorship$checkedName;
+    @Unique private boolean censorship$blocked;
+
+    // The client sends the name on every keystroke, only the one on the item that is taken counts
+    @Inject(method = "mayPickup", cancellable = true, at = @At("HEAD"))
+    private void mayPickup(Player player, boolean hasStack, CallbackInfoReturnable<Boolean> cir) {
+        if (!(player instanceof ServerPlayer serverPlayer) || itemName == null || itemName.isBlank()) return;
+        AnvilMenu self = (AnvilMenu) (Object) this;
+        Component name = self.getSlot(self.getResultSlot()).getItem().get(DataComponents.CUSTOM_NAME);
+        // Not renamed, the name it already had was checked when it was given
+        if (name == null || !name.getString().equals(itemName)) return;
+
+        if (!itemName.equals(censorship$checkedName)) {
+            censorship$checkedName = itemName;
+            YAGPDBParser.SegmentMatches matches = YAGPDBParser.instance.findCensoredSegments(List.of(itemName));
+            censorship$blocked = matches.blocked();
+            if (censorship$blocked) Violations.block(serverPlayer, "Item name: " + matches.indication(""), matches.match());
+        }
+        // The client put the item on its cursor already, the rejected click resyncs the menu
+        if (censorship$blocked) cir.setReturnValue(false);
+    }
+}
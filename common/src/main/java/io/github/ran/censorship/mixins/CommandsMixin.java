@@ -0,0 +1,23 @@
+package io.github.ran.censorship.mixins;
+
+import com.mojang.brigadier.CommandDispatcher;
+import io.github.ran.censorship.CensorshipCommand;
+import net.minecraft.commands.CommandBuildContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(Commands.class)
+public abstract class CommandsMixin {
+    @Shadow @Final private CommandDispatcher<CommandSourceStack> dispatcher;
+
+    @Inject(method = "<init>", at = @At("RETURN"))
+    private void registerCommands(Commands.CommandSelection commandSelection, CommandBuildContext commandBuildContext, CallbackInfo ci) {
+        CensorshipCommand.register(dispatcher);
+    }
+}
@@ -1,36 +1,164 @@
 package io.github.ran.censorship.mixins;
 
-import io.github.ran.censorship.CensorshipConfig;
+import io.github.ran.censorship.BookScanner;
 import io.github.ran.censorship.CensorshipMod;
-import io.github.ran.censorship.DiscordWebhook;
+import io.github.ran.censorship.CrossMessageScanner;
+import io.github.ran.censorship.MatchResult;
+import io.github.ran.censorship.ModerationPipeline;
+import io.github.ran.censorship.Violations;
 import io.github.ran.censorship.YAGPDBParser;
+import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.game.ServerboundChatAckPacket;
+import net.minecraft.network.protocol.game.ServerboundChatCommandPacket;
+import net.minecraft.network.protocol.game.ServerboundChatCommandSignedPacket;
 import net.minecraft.network.protocol.game.ServerboundChatPacket;
+import net.minecraft.network.protocol.game.ServerboundEditBookPacket;
+import net.minecraft.network.protocol.game.ServerboundSignUpdatePacket;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.network.ServerGamePacketListenerImpl;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
 @Mixin(value = ServerGamePacketListenerImpl.class, priority = Integer.MAX_VALUE - 1000)
 public abstract class ServerGamePacketListenerImplMixin {
     @Shadow public ServerPlayer player;
 
     @Inject(method = "handleChat", cancellable = true, at = @At("HEAD"))
     private void handleChat(ServerboundChatPacket serverboundChatPacket, CallbackInfo ci) {
-        var indicatedCensoredContent = YAGPDBParser.instance.findCensoredContent_Indicated(serverboundChatPacket.message());
-        if (indicatedCensoredContent.match == null) return;
-        ci.cancel();
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        censorship$moderate(() -> {
+            MatchResult result = YAGPDBParser.instance.findCensoredContent_Indicated(serverboundChatPacket.message());
+            if (!result.blocked()) {
+                // Clean on its own, but it may finish a word the player started in an earlier message
+                CrossMessageScanner.Verdict verdict = CrossMessageScanner.instance().check(player.getUUID(), serverboundChatPacket.message());
+                return verdict.blocked() ? () -> censorship$block(verdict.indication(), verdict.match()) : null;
+            }
+            // What's left of the blocked message must not finish a word with the next one
+            CrossMessageScanner.instance().reset(player.getUUID());
+            return () -> censorship$block(result.indication(), result.match());
+        }, () -> self.handleChat(serverboundChatPacket), ci);
+    }
+
+    @Inject(method = "handleEditBook", cancellable = true, at = @At("HEAD"))
+    private void handleEditBook(ServerboundEditBookPacket serverboundEditBookPacket, CallbackInfo ci) {
+        // A book is checked in the lane of its author like their chat, a long one never holds up the network thread
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        String title = serverboundEditBookPacket.title().orElse(null);
+        censorship$moderate(() -> {
+            BookScanner.Verdict verdict = BookScanner.instance().scan(title, serverboundEditBookPacket.pages());
+            return verdict.blocked() ? () -> censorship$blockBook(verdict) : null;
+        }, () -> self.handleEditBook(serverboundEditBookPacket), ci);
+    }
 
-        var warningMessage = Component.literal(String.format(CensorshipMod.CENSOR_FORMAT, indicatedCensoredContent.indication, indicatedCensoredContent.match));
-        DiscordWebhook.sendWebhook(CensorshipConfig.discordWebhookURL.getValue(), player, indicatedCensoredContent.indication, indicatedCensoredContent.match);
+    @Inject(method = "handleSignUpdate", cancellable = true, at = @At("HEAD"))
+    private void handleSignUpdate(ServerboundSignUpdatePacket serverboundSignUpdatePacket, CallbackInfo ci) {
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        List<String> lines = Arrays.stream(serverboundSignUpdatePacket.getLines()).map(ChatFormatting::stripFormatting).toList();
+        censorship$moderate(() -> {
+            // All lines of the side in one pass, a word split over two lines is caught too
+            YAGPDBParser.SegmentMatches matches = YAGPDBParser.instance.findCensoredSegments(lines);
+            return matches.blocked() ? () -> censorship$block("Sign: " + matches.indication(" / "), matches.match()) : null;
+        }, () -> self.handleSignUpdate(serverboundSignUpdatePacket), ci);
+    }
+
+    // Commands and acknowledgements update the same last seen messages as chat, so they must not overtake queued chat
+    @Inject(method = "handleChatCommand", cancellable = true, at = @At("HEAD"))
+    private void handleChatCommand(ServerboundChatCommandPacket serverboundChatCommandPacket, CallbackInfo ci) {
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        censorship$keepOrder(() -> self.handleChatCommand(serverboundChatCommandPacket), ci);
+    }
+
+    @Inject(method = "handleSignedChatCommand", cancellable = true, at = @At("HEAD"))
+    private void handleSignedChatCommand(ServerboundChatCommandSignedPacket serverboundChatCommandSignedPacket, CallbackInfo ci) {
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        censorship$keepOrder(() -> self.handleSignedChatCommand(serverboundChatCommandSignedPacket), ci);
+    }
+
+    @Inject(method = "handleChatAck", cancellable = true, at = @At("HEAD"))
+    private void handleChatAck(ServerboundChatAckPacket serverboundChatAckPacket, CallbackInfo ci) {
+        ServerGamePacketListenerImpl self = (ServerGamePacketListenerImpl) (Object) this;
+        censorship$keepOrder(() -> self.handleChatAck(serverboundChatAckPacket), ci);
+    }
+
+    @Inject(method = "onDisconnect", at = @At("HEAD"))
+    private void onDisconnect(CallbackInfo ci) {
+        CrossMessageScanner.instance().forget(player.getUUID());
+    }
 
-        if (CensorshipConfig.kickPlayer.isSameValue(true)) {
-            player.connection.disconnect(warningMessage);
+    /**
+     * Check a packet right away, or in the lane of the player when moderation runs in the background, and hand it to
+     * vanilla once it passed
+     *
+     * @param check  what to do about the violation in the packet, null if there is none
+     * @param handle hands the packet to vanilla
+     */
+    @Unique
+    private void censorship$moderate(Supplier<Runnable> check, Runnable handle, CallbackInfo ci) {
+        // Replayed by the pipeline after it passed
+        if (ModerationPipeline.inLane()) return;
+
+        ModerationPipeline pipeline = ModerationPipeline.instance();
+        if (pipeline == null) {
+            Runnable block = check.get();
+            if (block == null) return;
+            ci.cancel();
+            block.run();
+            return;
+        }
+
+        ModerationPipeline.Admission admission = pipeline.submit(player.getUUID(), () -> {
+            Runnable block = check.get();
+            if (player.hasDisconnected()) return;
+            if (block == null) {
+                handle.run();
+                return;
+            }
+            player.server.execute(block);
+        }, () -> {
+            if (!player.hasDisconnected()) handle.run();
+        });
+
+        switch (admission) {
+            case QUEUED -> ci.cancel();
+            case PASS -> {
+            }
+            case DROPPED -> {
+                ci.cancel();
+                player.sendSystemMessage(Component.literal(CensorshipMod.OVERLOADED_MESSAGE));
+            }
+        }
+    }
+
+    @Unique
+    private void censorship$keepOrder(Runnable handle, CallbackInfo ci) {
+        ModerationPipeline pipeline = ModerationPipeline.instance();
+        if (pipeline == null || ModerationPipeline.inLane()) return;
+        if (pipeline.queueBehind(player.getUUID(), () -> {
+            if (!player.hasDisconnected()) handle.run();
+        })) ci.cancel();
+    }
+
+    @Unique
+    private void censorship$blockBook(BookScanner.Verdict verdict) {
+        if (verdict.overBudget()) {
+            player.sendSystemMessage(Component.literal(CensorshipMod.BOOK_OVER_BUDGET_MESSAGE));
             return;
         }
-        player.sendSystemMessage(warningMessage);
+        String where = verdict.page() == BookScanner.Verdict.TITLE ? "Book title" : "Book page " + (verdict.page() + 1);
+        censorship$block(where + ": " + verdict.indication(), verdict.match());
+    }
+
+    @Unique
+    private void censorship$block(String indication, String match) {
+        Violations.block(player, indication, match);
     }
 }
@@ -0,0 +1,125 @@
+package io.github.ran.censorship.template;
+
+import java.util.Map;
+
+/**
+ * Emits the java.util.regex source for a regex written for Go's RE2, which is what the template builds. The two agree
+ * on almost everything, the differences are named groups, POSIX classes and chars that are only special inside
+ * java.util.regex char classes.
+ */
+public final class JavaRegexGenerator {
+    private static final Map<String, String> POSIX_CLASSES = Map.ofEntries(
+            Map.entry("alnum", "Alnum"), Map.entry("alpha", "Alpha"), Map.entry("ascii", "ASCII"), Map.entry("blank", "Blank"),
+            Map.entry("cntrl", "Cntrl"), Map.entry("digit", "Digit"), Map.entry("graph", "Graph"), Map.entry("lower", "Lower"),
+            Map.entry("print", "Print"), Map.entry("punct", "Punct"), Map.entry("space", "Space"), Map.entry("upper", "Upper"),
+            Map.entry("xdigit", "XDigit"));
+
+    private final String regex;
+    private final StringBuilder out;
+    private int pos = 0;
+
+    private JavaRegexGenerator(String regex) {
+        this.regex = regex;
+        this.out = new StringBuilder(regex.length() + 8);
+    }
+
+    public static String generate(String regex) {
+        JavaRegexGenerator generator = new JavaRegexGenerator(regex);
+        generator.run();
+        return generator.out.toString();
+    }
+
+    private void run() {
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            if (c == '\\') {
+                escape();
+            } else if (c == '[') {
+                charClass();
+            } else if (regex.startsWith("(?P<", pos)) {
+                out.append("(?<");
+                pos += 4;
+            } else {
+                out.append(c);
+                pos++;
+            }
+        }
+    }
+
+    private void charClass() {
+        out.append('[');
+        pos++;
+        if (pos < regex.length() && regex.charAt(pos) == '^') {
+            out.append('^');
+            pos++;
+        }
+        // A ] right at the start is a literal in RE2
+        if (pos < regex.length() && regex.charAt(pos) == ']') {
+            out.append("\\]");
+            pos++;
+        }
+
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            if (c == ']') {
+                out.append(']');
+                pos++;
+                return;
+            }
+            if (c == '\\') {
+                escape();
+            } else if (regex.startsWith("[:", pos)) {
+                posixClass();
+            } else if (c == '[') {
+                // Would start a nested class in java.util.regex
+                out.append("\\[");
+                pos++;
+            } else if (regex.startsWith("&&", pos)) {
+                // Would be an intersection in java.util.regex
+                out.append("&\\&");
+                pos += 2;
+            } else {
+                out.append(c);
+                pos++;
+            }
+        }
+    }
+
+    private void posixClass() {
+        int end = regex.indexOf(":]", pos + 2);
+        String name = end < 0 ? null : regex.substring(pos + 2, end);
+        boolean negated = name != null && name.startsWith("^");
+        if (negated) name = name.substring(1);
+
+        if (name != null && name.equals("word")) {
+            out.append(negated ? "\\W" : "\\w");
+        } else if (name != null && POSIX_CLASSES.containsKey(name)) {
+            out.append(negated ? "\\P{" : "\\p{").append(POSIX_CLASSES.get(name)).append('}');
+        } else {
+            out.append("\\[");
+            pos++;
+            return;
+        }
+        pos = end + 2;
+    }
+
+    private void escape() {
+        if (pos + 1 >= regex.length()) {
+            out.append('\\');
+            pos++;
+            return;
+        }
+        char c = regex.charAt(pos + 1);
+        int end = pos + 2;
+        if (c == 'Q') {
+            // Quoted until \E, copied as is
+            int quoteEnd = regex.indexOf("\\E", end);
+            end = quoteEnd < 0 ? regex.length() : quoteEnd + 2;
+        } else if ((c == 'p' || c == 'P' || c == 'x') && end < regex.length() && regex.charAt(end) == '{') {
+            int braceEnd = regex.indexOf('}', end);
+            end = braceEnd < 0 ? regex.length() : braceEnd + 1;
+        }
+        out.append(regex, pos, end);
+        pos = end;
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.ran.censorship.template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the string building part of a template, variables holding strings and {@code joinStr} calls. Anything
+ * that needs a message or the bot to run can't be evaluated and throws instead.
+ */
+public final class TemplateEvaluator {
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Bind the variable of a declaration to its value
+     *
+     * @return false if the value can't be evaluated, the variable is unbound then
+     */
+    public boolean declare(TemplateNode.Declaration declaration) {
+        try {
+            values.put(declaration.variable(), evaluate(declaration.value()));
+            return true;
+        } catch (TemplateException e) {
+            values.remove(declaration.variable());
+            return false;
+        }
+    }
+
+    /**
+     * Bind a variable to a value that was already evaluated, null unbinds it
+     */
+    public void bind(String variable, String value) {
+        if (value == null) {
+            values.remove(variable);
+        } else {
+            values.put(variable, value);
+        }
+    }
+
+    /**
+     * The value of a bound variable, null if it isn't bound
+     */
+    public String value(String variable) {
+        return values.get(variable);
+    }
+
+    public String evaluate(TemplateNode node) throws TemplateException {
+        return switch (node) {
+            case TemplateNode.StringLiteral literal -> literal.value();
+            case TemplateNode.Constant constant when isNumber(constant.text()) -> constant.text();
+            case TemplateNode.Variable variable -> {
+                String value = values.get(variable.name());
+                if (value == null) throw new TemplateException("Undefined variable $" + variable.name());
+                yield value;
+            }
+            case TemplateNode.Call call when call.function().equals("joinStr") -> joinStr(call.arguments());
+            case TemplateNode.Call call -> throw new TemplateException("Can't evaluate " + call.function());
+            case TemplateNode.Pipeline pipeline -> {
+                // Every command gets the result of the one before it as an extra last argument
+                String result = evaluate(pipeline.commands().getFirst());
+                for (TemplateNode command : pipeline.commands().subList(1, pipeline.commands().size())) {
+                    if (!(command instanceof TemplateNode.Call call)) throw new TemplateException("Can't pipe into " + command);
+                    List<TemplateNode> arguments = new ArrayList<>(call.arguments());
+                    arguments.add(new TemplateNode.StringLiteral(result));
+                    result = evaluate(new TemplateNode.Call(call.function(), arguments));
+                }
+                yield result;
+            }
+            default -> throw new TemplateException("Can't evaluate " + node);
+        };
+    }
+
+    /**
+     * YAGPDB's joinStr: the separator only goes between arguments once something was written, so leading empty
+     * strings don't add one
+     */
+    private String joinStr(List<TemplateNode> arguments) throws TemplateException {
+        if (arguments.isEmpty()) throw new TemplateException("joinStr needs a separator");
+        String separator = evaluate(arguments.getFirst());
+        List<String> values = new ArrayList<>(arguments.size() - 1);
+        for (TemplateNode argument : arguments.subList(1, arguments.size())) values.add(evaluate(argument));
+        return joinStr(separator, values);
+    }
+
+    public static String joinStr(String separator, List<String> values) {
+        StringBuilder result = new StringBuilder();
+        for (String value : values) {
+            if (!result.isEmpty()) result.append(separator);
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+    private static boolean isNumber(String constant) {
+        char first = constant.charAt(0);
+        return Character.isDigit(first) || first == '-' || first == '+';
+    }
+}
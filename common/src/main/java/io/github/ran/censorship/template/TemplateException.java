@@ -0,0 +1,14 @@
+package io.github.ran.censorship.template;
+
+/**
+ * Thrown when a script isn't valid template syntax, or when an expression can't be turned into a string
+ */
+public class TemplateException extends Exception {
+    public TemplateException(String message) {
+        super(message);
+    }
+
+    public TemplateException(String message, int line) {
+        super(message + " on line " + line);
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.ran.censorship.template;
+
+import java.util.List;
+
+/**
+ * Syntax tree of a single template action, only as detailed as turning the censor script into patterns needs
+ */
+public sealed interface TemplateNode {
+    /** A "..." or `...` string, already unescaped */
+    record StringLiteral(String value) implements TemplateNode {}
+
+    /** Numbers, chars, nil and the like */
+    record Constant(String text) implements TemplateNode {}
+
+    /** $name, the name is empty for $ itself */
+    record Variable(String name) implements TemplateNode {}
+
+    /** .Message.Content */
+    record Field(String path) implements TemplateNode {}
+
+    /** A function or keyword and its arguments, e.g. (joinStr "" $a $b) */
+    record Call(String function, List<TemplateNode> arguments) implements TemplateNode {}
+
+    /** Commands chained with |, each one gets the result of the previous one as its last argument */
+    record Pipeline(List<TemplateNode> commands) implements TemplateNode {}
+
+    /**
+     * $name := value, or $name = value when {@code declare} is false. Range declares two variables at once, only the
+     * last one is kept
+     */
+    record Declaration(String variable, boolean declare, TemplateNode value) implements TemplateNode {}
+}
@@ -0,0 +1,133 @@
+package io.github.ran.censorship.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recursive descent parser that turns the actions of a Go template into {@link TemplateNode}s one action at a time, so
+ * a script is parsed in a single pass without ever holding more than one action in memory.
+ */
+public final class TemplateParser {
+    private static final Set<String> KEYWORDS = Set.of("if", "else", "end", "range", "with", "define", "block", "template", "break", "continue");
+    private static final Set<String> CONSTANTS = Set.of("nil", "true", "false");
+
+    private final TemplateTokenizer tokenizer;
+    private final List<TemplateToken> lookahead = new ArrayList<>();
+
+    public TemplateParser(Reader reader) {
+        this.tokenizer = new TemplateTokenizer(reader);
+    }
+
+    /**
+     * The next action of the script, null once the script ended
+     */
+    public TemplateNode nextAction() throws IOException, TemplateException {
+        TemplateToken token = next();
+        if (token.kind() == TemplateToken.Kind.EOF) return null;
+        if (token.kind() != TemplateToken.Kind.LEFT_DELIM) throw unexpected(token);
+
+        TemplateNode action = pipeline();
+        expect(TemplateToken.Kind.RIGHT_DELIM);
+        return action;
+    }
+
+    private TemplateNode pipeline() throws IOException, TemplateException {
+        if (peek(0).kind() == TemplateToken.Kind.VARIABLE) {
+            // $a, $b := range ... declares both, only the last one is of any interest
+            int declared = 1;
+            while (peek(declared).kind() == TemplateToken.Kind.COMMA && peek(declared + 1).kind() == TemplateToken.Kind.VARIABLE) declared += 2;
+            TemplateToken.Kind operator = peek(declared).kind();
+            if (operator == TemplateToken.Kind.DECLARE || operator == TemplateToken.Kind.ASSIGN) {
+                String variable = null;
+                for (int i = 0; i < declared; i++) {
+                    TemplateToken token = next();
+                    if (token.kind() == TemplateToken.Kind.VARIABLE) variable = token.text();
+                }
+                next();
+                return new TemplateNode.Declaration(variable, operator == TemplateToken.Kind.DECLARE, pipeline());
+            }
+        }
+
+        List<TemplateNode> commands = new ArrayList<>();
+        commands.add(command());
+        while (peek(0).kind() == TemplateToken.Kind.PIPE) {
+            next();
+            commands.add(command());
+        }
+        return commands.size() == 1 ? commands.getFirst() : new TemplateNode.Pipeline(List.copyOf(commands));
+    }
+
+    private TemplateNode command() throws IOException, TemplateException {
+        TemplateToken first = peek(0);
+        if (first.kind() == TemplateToken.Kind.IDENTIFIER && KEYWORDS.contains(first.text())) {
+            // Whatever follows a keyword is a pipeline of its own, range may even declare variables in it
+            next();
+            return new TemplateNode.Call(first.text(), endOfCommand() ? List.of() : List.of(pipeline()));
+        }
+
+        List<TemplateNode> operands = new ArrayList<>();
+        while (!endOfCommand()) operands.add(operand());
+        if (operands.isEmpty()) throw new TemplateException("Missing command", first.line());
+
+        if (first.kind() == TemplateToken.Kind.IDENTIFIER && operands.getFirst() instanceof TemplateNode.Call call) {
+            return new TemplateNode.Call(call.function(), List.copyOf(operands.subList(1, operands.size())));
+        }
+        if (operands.size() == 1) return operands.getFirst();
+        if (operands.getFirst() instanceof TemplateNode.Field field) {
+            // A method call, .Method arg
+            return new TemplateNode.Call(field.path(), List.copyOf(operands.subList(1, operands.size())));
+        }
+        throw new TemplateException("Can't give arguments to " + first, first.line());
+    }
+
+    private TemplateNode operand() throws IOException, TemplateException {
+        TemplateToken token = next();
+        return switch (token.kind()) {
+            case STRING -> new TemplateNode.StringLiteral(token.text());
+            case CONSTANT -> new TemplateNode.Constant(token.text());
+            case VARIABLE -> new TemplateNode.Variable(token.text());
+            case FIELD -> new TemplateNode.Field(token.text());
+            case IDENTIFIER -> CONSTANTS.contains(token.text())
+                    ? new TemplateNode.Constant(token.text())
+                    : new TemplateNode.Call(token.text(), List.of());
+            case LEFT_PAREN -> {
+                TemplateNode pipeline = pipeline();
+                expect(TemplateToken.Kind.RIGHT_PAREN);
+                yield pipeline;
+            }
+            default -> throw unexpected(token);
+        };
+    }
+
+    private boolean endOfCommand() throws IOException, TemplateException {
+        return switch (peek(0).kind()) {
+            case RIGHT_DELIM, RIGHT_PAREN, PIPE, EOF -> true;
+            default -> false;
+        };
+    }
+
+    private void expect(TemplateToken.Kind kind) throws IOException, TemplateException {
+        TemplateToken token = next();
+        if (token.kind() != kind) throw unexpected(token);
+    }
+
+    private TemplateToken peek(int index) throws IOException, TemplateException {
+        while (lookahead.size() <= index) {
+            // Never read past the end of the action, the tokenizer would skip the text after it
+            if (!lookahead.isEmpty() && lookahead.getLast().kind() == TemplateToken.Kind.RIGHT_DELIM) return lookahead.getLast();
+            lookahead.add(tokenizer.next());
+        }
+        return lookahead.get(index);
+    }
+
+    private TemplateToken next() throws IOException, TemplateException {
+        return lookahead.isEmpty() ? tokenizer.next() : lookahead.removeFirst();
+    }
+
+    private static TemplateException unexpected(TemplateToken token) {
+        return new TemplateException("Unexpected " + token, token.line());
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.ran.censorship.template;
+
+/**
+ * A single token of a template action, {@code text} is the unescaped value for strings and the bare name for
+ * variables
+ */
+public record TemplateToken(Kind kind, String text, int line) {
+    public enum Kind {
+        /** {{ */
+        LEFT_DELIM,
+        /** }} */
+        RIGHT_DELIM,
+        STRING,
+        /** Numbers, chars and anything else that is only ever passed along */
+        CONSTANT,
+        VARIABLE,
+        /** .Message.Content */
+        FIELD,
+        IDENTIFIER,
+        /** := */
+        DECLARE,
+        /** = */
+        ASSIGN,
+        PIPE,
+        LEFT_PAREN,
+        RIGHT_PAREN,
+        COMMA,
+        EOF
+    }
+
+    @Override
+    public String toString() {
+        return kind + (text.isEmpty() ? "" : " '" + text + "'");
+    }
+}
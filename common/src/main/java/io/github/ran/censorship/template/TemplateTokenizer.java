@@ -0,0 +1,290 @@
+package io.github.ran.censorship.template;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass tokenizer for Go templates, it reads the script straight from a {@link Reader} and never looks back more
+ * than a few chars. Text outside of actions and {@code {{/* comments *}}} are skipped, they never make it into a
+ * censor pattern.
+ */
+public final class TemplateTokenizer {
+    private final Reader reader;
+    // Read in chunks, the synchronized single char reads of Reader cost more than the tokenizing
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final int[] pushedBack = new int[3];
+    private int pushedBackCount;
+    // Reused for the text of every token
+    private final StringBuilder text = new StringBuilder();
+    private boolean inAction;
+    private int line = 1;
+
+    public TemplateTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    public TemplateToken next() throws IOException, TemplateException {
+        return inAction ? nextInAction() : nextAction();
+    }
+
+    /**
+     * Skip text up to the next action that isn't a comment
+     */
+    private TemplateToken nextAction() throws IOException, TemplateException {
+        while (true) {
+            int c = read();
+            if (c == -1) return token(TemplateToken.Kind.EOF, "");
+            if (c != '{' || !accept('{')) continue;
+
+            int actionLine = line;
+            // {{- trims the text before it, which doesn't matter here
+            if (accept('-')) {
+                int space = read();
+                if (!isSpace(space)) {
+                    unread(space);
+                    unread('-');
+                }
+            }
+            skipSpaces();
+            if (accept('/')) {
+                if (!accept('*')) throw new TemplateException("Unexpected '/'", line);
+                skipComment(actionLine);
+                continue;
+            }
+            inAction = true;
+            return new TemplateToken(TemplateToken.Kind.LEFT_DELIM, "", actionLine);
+        }
+    }
+
+    private TemplateToken nextInAction() throws IOException, TemplateException {
+        skipSpaces();
+        int c = read();
+        switch (c) {
+            case -1 -> throw new TemplateException("Unclosed action", line);
+            case '}' -> {
+                if (!accept('}')) throw new TemplateException("Unexpected '}'", line);
+                inAction = false;
+                return token(TemplateToken.Kind.RIGHT_DELIM, "");
+            }
+            case '-' -> {
+                // -}} trims the text after it, anything else is a negative number
+                if (accept('}')) {
+                    if (!accept('}')) throw new TemplateException("Unexpected '}'", line);
+                    inAction = false;
+                    return token(TemplateToken.Kind.RIGHT_DELIM, "");
+                }
+                return constant(c);
+            }
+            case '"' -> {
+                return token(TemplateToken.Kind.STRING, quoted());
+            }
+            case '`' -> {
+                return token(TemplateToken.Kind.STRING, raw());
+            }
+            case '\'' -> {
+                return token(TemplateToken.Kind.CONSTANT, "'" + character() + "'");
+            }
+            case '$' -> {
+                return token(TemplateToken.Kind.VARIABLE, word(-1, true));
+            }
+            case '.' -> {
+                return token(TemplateToken.Kind.FIELD, word('.', true));
+            }
+            case ':' -> {
+                if (!accept('=')) throw new TemplateException("Expected '=' after ':'", line);
+                return token(TemplateToken.Kind.DECLARE, "");
+            }
+            case '=' -> {
+                return token(TemplateToken.Kind.ASSIGN, "");
+            }
+            case '|' -> {
+                return token(TemplateToken.Kind.PIPE, "");
+            }
+            case '(' -> {
+                return token(TemplateToken.Kind.LEFT_PAREN, "");
+            }
+            case ')' -> {
+                return token(TemplateToken.Kind.RIGHT_PAREN, "");
+            }
+            case ',' -> {
+                return token(TemplateToken.Kind.COMMA, "");
+            }
+            default -> {
+                if (c == '+' || Character.isDigit(c)) return constant(c);
+                if (isWordChar(c)) return token(TemplateToken.Kind.IDENTIFIER, word(c, false));
+                throw new TemplateException("Unexpected '" + (char) c + "'", line);
+            }
+        }
+    }
+
+    private TemplateToken token(TemplateToken.Kind kind, String text) {
+        return new TemplateToken(kind, text, line);
+    }
+
+    private void skipComment(int commentLine) throws IOException, TemplateException {
+        while (true) {
+            int c = read();
+            if (c == -1) throw new TemplateException("Unclosed comment", commentLine);
+            if (c == '*' && accept('/')) break;
+        }
+        skipSpaces();
+        accept('-');
+        skipSpaces();
+        if (!accept('}') || !accept('}')) throw new TemplateException("Comment doesn't end the action", line);
+    }
+
+    /**
+     * A name after $ or ., including further .Field selectors
+     *
+     * @param first the char the name starts with, -1 if there is none
+     */
+    private String word(int first, boolean fields) throws IOException {
+        text.setLength(0);
+        if (first != -1) text.append((char) first);
+        while (true) {
+            int c = read();
+            if (isWordChar(c) || (fields && c == '.')) {
+                text.append((char) c);
+            } else {
+                unread(c);
+                return text.toString();
+            }
+        }
+    }
+
+    private TemplateToken constant(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        while (true) {
+            int c = read();
+            if (isWordChar(c) || c == '.' || c == '+' || c == '-') {
+                text.append((char) c);
+            } else {
+                unread(c);
+                return token(TemplateToken.Kind.CONSTANT, text.toString());
+            }
+        }
+    }
+
+    /**
+     * The value of a "..." string with Go escapes resolved
+     */
+    private String quoted() throws IOException, TemplateException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1 || c == '\n') throw new TemplateException("Unterminated string", line);
+            if (c == '"') return text.toString();
+            if (c == '\\') {
+                text.appendCodePoint(escape('"'));
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private String raw() throws IOException, TemplateException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) throw new TemplateException("Unterminated raw string", line);
+            if (c == '`') return text.toString();
+            if (c != '\r') text.append((char) c);
+        }
+    }
+
+    private String character() throws IOException, TemplateException {
+        int c = read();
+        String value = c == '\\' ? Character.toString(escape('\'')) : Character.toString(c);
+        if (read() != '\'') throw new TemplateException("Unterminated char constant", line);
+        return value;
+    }
+
+    private int escape(char quote) throws IOException, TemplateException {
+        int c = read();
+        return switch (c) {
+            case 'a' -> 0x07;
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'v' -> 0x0B;
+            case '\\' -> '\\';
+            case 'x' -> hex(2);
+            case 'u' -> hex(4);
+            case 'U' -> hex(8);
+            default -> {
+                if (c == quote) yield c;
+                if (c >= '0' && c <= '7') {
+                    int value = c - '0';
+                    for (int i = 0; i < 2; i++) {
+                        int digit = read();
+                        if (digit < '0' || digit > '7') throw new TemplateException("Invalid octal escape", line);
+                        value = value * 8 + digit - '0';
+                    }
+                    yield value;
+                }
+                throw new TemplateException("Unknown escape '\\" + (c == -1 ? "" : (char) c) + "'", line);
+            }
+        };
+    }
+
+    private int hex(int digits) throws IOException, TemplateException {
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) throw new TemplateException("Invalid hex escape", line);
+            value = value * 16 + digit;
+        }
+        if (!Character.isValidCodePoint(value)) throw new TemplateException("Escape is not a valid code point", line);
+        return value;
+    }
+
+    private void skipSpaces() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isSpace(c));
+        unread(c);
+    }
+
+    private boolean accept(char expected) throws IOException {
+        int c = read();
+        if (c == expected) return true;
+        unread(c);
+        return false;
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (pushedBackCount > 0) {
+            c = pushedBack[--pushedBackCount];
+        } else {
+            if (position == limit) {
+                limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+                position = 0;
+                if (limit == 0) return -1;
+            }
+            c = buffer[position++];
+        }
+        if (c == '\n') line++;
+        return c;
+    }
+
+    private void unread(int c) {
+        if (c == -1) return;
+        if (c == '\n') line--;
+        pushedBack[pushedBackCount++] = c;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isWordChar(int c) {
+        return c == '_' || (c >= 0 && Character.isLetterOrDigit(c));
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.ran.censorship.automaton;
+
+import io.github.ran.censorship.AllowList;
+import io.github.ran.censorship.CensorRuleset;
+import io.github.ran.censorship.EvaluationBudget;
+import io.github.ran.censorship.MatchEngine;
+import io.github.ran.censorship.YAGPDBParser;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A rewrite has to find exactly what the original pattern finds. The optimizer checks that itself on its own samples,
+ * these tests check it again on text it never saw, so a rewrite that slips through its check fails the build.
+ */
+class RegexOptimizerTest {
+    private static final String SEPARATORS = " .,_-*!?'\"~";
+    // Short enough for the original patterns to get through, they backtrack and recurse on every separator
+    private static final int ORIGINAL_RUN = 300;
+    // Long enough to overflow the stack of the original patterns
+    private static final int REWRITTEN_RUN = 20_000;
+
+    /**
+     * Patterns that backtrack on java.util.regex, some of them for good even after the rewrite
+     */
+    private static final List<String> BACKTRACKING = List.of(
+            "(?:^|[^a-zA-Z0-9])+[^a-zA-Z0-9]*f+[^a-zA-Z0-9]*u+[^a-zA-Z0-9]*c+[^a-zA-Z0-9]*k+",
+            "[^a-zA-Z0-9]*[hH][^a-zA-Z0-9]*[iI]",
+            "(?:^|[^a-z])+(?:sh[^a-z]*i[^a-z]*t|sh[^a-z]*a[^a-z]*t)",
+            "[ ._]*a[ ._]*b[ ._]*c",
+            "x[^a-z]*[^a-z0-9]*y",
+            "(?:a+)+b",
+            "(?:[^a-z]|_)*z");
+
+    @Test
+    void fallbackScriptRewritesMatchLikeTheOriginals() {
+        int rewritten = 0;
+        for (RegexNode node : fallbackNodes()) {
+            RegexOptimizer.Optimized optimized = RegexOptimizer.optimize(node);
+            if (!optimized.rewritten()) continue;
+            rewritten++;
+            assertSameMatches(node, optimized);
+        }
+        assertTrue(rewritten > 0, "Nothing of the fallback script was rewritten");
+    }
+
+    @Test
+    void backtrackingPatternsMatchLikeTheOriginals() throws UnsupportedRegexException {
+        for (String regex : BACKTRACKING) {
+            RegexNode node = RegexParser.parse(regex, 0);
+            assertSameMatches(node, RegexOptimizer.optimize(node));
+        }
+    }
+
+    @Test
+    void leadingSeparatorsAreMadePossessive() throws UnsupportedRegexException {
+        RegexOptimizer.Optimized optimized = RegexOptimizer.optimize(RegexParser.parse("(?:^|[^a-zA-Z0-9])+f+[^a-zA-Z0-9]*u+[^a-zA-Z0-9]*c+[^a-zA-Z0-9]*k+", 0));
+        assertTrue(optimized.rewritten());
+        assertTrue(optimized.regex().contains("*+"), optimized.regex());
+        assertTrue(optimized.hazards().isEmpty(), optimized.hazards().toString());
+    }
+
+    @Test
+    void quantifiersThatMayStillBacktrackAreReported() throws UnsupportedRegexException {
+        assertFalse(RegexOptimizer.optimize(RegexParser.parse("x[^a-z]*[^a-z0-9]*y", 0)).hazards().isEmpty());
+        assertFalse(RegexOptimizer.optimize(RegexParser.parse("(?:a+)+b", 0)).hazards().isEmpty());
+    }
+
+    // Rewrites with hazards may still take polynomial time, that is what they are reported for
+    @Test
+    void rewritesWithoutHazardsSurviveLongSeparatorRuns() {
+        List<Pattern> patterns = new ArrayList<>();
+        for (RegexNode node : fallbackNodes()) {
+            RegexOptimizer.Optimized optimized = RegexOptimizer.optimize(node);
+            if (optimized.rewritten() && optimized.hazards().isEmpty()) patterns.add(Pattern.compile(optimized.regex()));
+        }
+        assertFalse(patterns.isEmpty());
+        List<String> inputs = List.of(" ".repeat(REWRITTEN_RUN), " ".repeat(REWRITTEN_RUN) + "x", "a" + ". ".repeat(REWRITTEN_RUN / 2) + "!");
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            for (Pattern pattern : patterns) {
+                for (String input : inputs) pattern.matcher(input).find();
+            }
+        });
+    }
+
+    // Pages like "====...\nChapter 2: I am now home" used to take over 100 ms a rule, a book page is up to 1024 chars
+    @Test
+    void rulesetRunsSeparatorRunsInLinearTime() {
+        CensorRuleset ruleset = YAGPDBParser.instance.compileScript(YAGPDBParser.FALLBACK_SCRIPT);
+        List<String> inputs = new ArrayList<>();
+        for (int length = 1024; length <= 4096; length *= 2) {
+            inputs.add("=".repeat(length) + "\nChapter 2: I am now home");
+            inputs.add("-".repeat(length) + " I am not sure");
+            inputs.add(". ".repeat(length / 2) + "x");
+        }
+        // Warm up first, the limit is about backtracking and not about the JIT
+        for (String input : inputs) allSpans(ruleset, input);
+        for (String input : inputs) {
+            for (CensorRuleset.Rule rule : ruleset.rules()) {
+                assertTimeoutPreemptively(Duration.ofMillis(50), () -> spans(ruleset, rule, input),
+                        () -> "'" + rule.description() + "' is too slow on " + input.length() + " chars");
+            }
+        }
+    }
+
+    private static void allSpans(CensorRuleset ruleset, String input) {
+        for (CensorRuleset.Rule rule : ruleset.rules()) spans(ruleset, rule, input);
+    }
+
+    private static int[] spans(CensorRuleset ruleset, CensorRuleset.Rule rule, String input) {
+        MatchEngine.Pass pass = ruleset.matcher().start(ruleset.normalizer().normalize(input), AllowList.EMPTY, EvaluationBudget.UNLIMITED, false);
+        return pass.spans(rule);
+    }
+
+    /**
+     * The fallback script's rules as they run on java.util.regex, normalized like {@link CensorRuleset} does
+     */
+    private static List<RegexNode> fallbackNodes() {
+        CensorRuleset ruleset = YAGPDBParser.instance.compileScript(YAGPDBParser.FALLBACK_SCRIPT);
+        List<RegexNode> nodes = new ArrayList<>();
+        for (CensorRuleset.Rule rule : ruleset.rules()) {
+            try {
+                nodes.add(ruleset.normalizer().rewrite(RegexParser.parse(rule.source(), CensorRuleset.PATTERN_FLAGS)));
+            } catch (UnsupportedRegexException e) {
+                // Stays on java.util.regex as it is, nothing to rewrite
+            }
+        }
+        assertFalse(nodes.isEmpty());
+        return nodes;
+    }
+
+    private static void assertSameMatches(RegexNode node, RegexOptimizer.Optimized optimized) {
+        String original = RegexPrinter.print(node);
+        Pattern expected = Pattern.compile(original);
+        Pattern actual = Pattern.compile(optimized.regex());
+        for (String input : inputs(node)) {
+            assertEquals(matches(expected, input), matches(actual, input),
+                    () -> "'" + optimized.regex() + "' doesn't match like '" + original + "' on \"" + input + "\"");
+        }
+    }
+
+    /**
+     * Every match as start and end, in the order they are found
+     */
+    private static List<Integer> matches(Pattern pattern, String input) {
+        List<Integer> spans = new ArrayList<>();
+        Matcher matcher = pattern.matcher(input);
+        while (matcher.find()) {
+            spans.add(matcher.start());
+            spans.add(matcher.end());
+        }
+        return spans;
+    }
+
+    /**
+     * Text the pattern matches, mangled in ways chat is, and runs of separators the original backtracks on
+     */
+    private static List<String> inputs(RegexNode node) {
+        Random random = new Random(42);
+        List<String> inputs = new ArrayList<>();
+        for (String sample : RegexOptimizer.samples(node)) {
+            inputs.add(sample);
+            inputs.add(sample.toUpperCase());
+            inputs.add(separators(random, 1 + random.nextInt(8)) + sample + separators(random, 1 + random.nextInt(8)));
+            inputs.add(spread(sample, random));
+            inputs.add(sample + separators(random, ORIGINAL_RUN));
+            inputs.add(separators(random, ORIGINAL_RUN) + sample);
+            if (sample.length() > 1) inputs.add(sample.substring(0, sample.length() - 1) + separators(random, ORIGINAL_RUN));
+        }
+        inputs.add("");
+        inputs.add(" ".repeat(ORIGINAL_RUN));
+        inputs.add(separators(random, ORIGINAL_RUN) + "x");
+        inputs.add("hello there, how are you doing today?");
+        return inputs;
+    }
+
+    private static String separators(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(SEPARATORS.charAt(random.nextInt(SEPARATORS.length())));
+        return sb.toString();
+    }
+
+    /**
+     * The sample with a few separators after every char, like {@code f . u . c k}
+     */
+    private static String spread(String sample, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sample.length(); i++) {
+            sb.append(sample.charAt(i));
+            sb.append(separators(random, random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
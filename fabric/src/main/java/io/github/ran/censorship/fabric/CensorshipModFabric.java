@@ -1,12 +1,13 @@
 package io.github.ran.censorship.fabric;
 
 import net.fabricmc.api.DedicatedServerModInitializer;
+import net.fabricmc.loader.api.FabricLoader;
 
 import io.github.ran.censorship.CensorshipMod;
 
 public final class CensorshipModFabric implements DedicatedServerModInitializer {
     @Override
     public void onInitializeServer() {
-        CensorshipMod.init();
+        CensorshipMod.init(FabricLoader.getInstance().getConfigDir());
     }
 }
@@ -1,6 +1,7 @@
 package io.github.ran.censorship.neoforge;
 
 import net.neoforged.fml.common.Mod;
+import net.neoforged.fml.loading.FMLPaths;
 
 import io.github.ran.censorship.CensorshipMod;
 
@@ -8,6 +9,6 @@ import io.github.ran.censorship.CensorshipMod;
 public final class CensorshipModNeoForge {
     public CensorshipModNeoForge() {
         // Run our common setup.
-        CensorshipMod.init();
+        CensorshipMod.init(FMLPaths.CONFIGDIR.get());
     }
 }